@@ -0,0 +1,75 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ClientAuthSystem password checks and registration. Registration appends to users.txt on every call,
+// so its score includes that file write, as it does on the server.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.level=error"})
+public class AuthBenchmark
+{
+    private static final String USERS_FILE = "users.txt";
+
+    private static final MethodHandle NEW_AUTH = ServerAccess.constructor("ClientAuthSystem");
+    private static final MethodHandle REGISTER = ServerAccess.method("ClientAuthSystem", "registerClient", String.class, String.class);
+    private static final MethodHandle VERIFY = ServerAccess.method("ClientAuthSystem", "verifyClient", String.class, String.class);
+
+    private Object auth;
+    private long registered;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        ServerAccess.requireAbsent(USERS_FILE);
+
+        auth = NEW_AUTH.invoke();
+        REGISTER.invoke(auth, "alice", "correct horse battery staple");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        ServerAccess.deleteQuietly(USERS_FILE);
+    }
+
+    @Benchmark
+    public boolean verifyCorrectPassword() throws Throwable
+    {
+        return (boolean) VERIFY.invoke(auth, "alice", "correct horse battery staple");
+    }
+
+    @Benchmark
+    public boolean verifyWrongPassword() throws Throwable
+    {
+        return (boolean) VERIFY.invoke(auth, "alice", "Tr0ub4dor&3");
+    }
+
+    @Benchmark
+    public boolean verifyUnknownUser() throws Throwable
+    {
+        return (boolean) VERIFY.invoke(auth, "mallory", "whatever");
+    }
+
+    @Benchmark
+    public boolean registerClient() throws Throwable
+    {
+        return (boolean) REGISTER.invoke(auth, "user" + registered++, "password");
+    }
+}
@@ -0,0 +1,128 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Compares the String/regex chain chatLoop used to run on every inbound line with InboundClassifier,
+// which works on the reader's byte buffer directly. Run with -prof gc to see the allocation difference.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InboundClassifierBenchmark
+{
+    private static final MethodHandle CLASSIFY;
+
+    static
+    {
+        try
+        {
+            Class<?> classifier = Class.forName("InboundClassifier");
+            Class<?> kind = Class.forName("InboundClassifier$Kind");
+
+            CLASSIFY = MethodHandles.publicLookup().findStatic(classifier, "classify",
+                    MethodType.methodType(kind, byte[].class, int.class, int.class));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final String[] SAMPLES = {
+            "hello everyone, how is it going today?",
+            "@bot what is the capital of Portugal?",
+            "/join sala2",
+            "/leave",
+            "/listrooms",
+            "3f786850e387550fdab836ed7e6dc881de23001b3f786850e387550fdab836ed",
+            "here is my TOKEN:abc",
+            "login",
+            "a somewhat longer chat message that goes on for a while, like people sometimes type when they have a lot to say"
+    };
+
+    private byte[][] frames;
+
+    @Setup
+    public void setup()
+    {
+        frames = new byte[SAMPLES.length][];
+
+        for (int i = 0; i < SAMPLES.length; i++)
+        {
+            frames[i] = SAMPLES[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // The pre-classifier path: decode the line, then test it the way chatLoop used to
+    @Benchmark
+    public void legacy(Blackhole blackhole)
+    {
+        for (byte[] frame : frames)
+        {
+            String line = new String(frame, 0, frame.length, StandardCharsets.UTF_8);
+            blackhole.consume(legacyKind(line));
+        }
+    }
+
+    @Benchmark
+    public void classifier(Blackhole blackhole) throws Throwable
+    {
+        for (byte[] frame : frames)
+        {
+            blackhole.consume((Object) CLASSIFY.invoke(frame, 0, frame.length));
+        }
+    }
+
+    private static int legacyKind(String line)
+    {
+        if (line.contains("TOKEN:") || (line.length() >= 64 && line.matches("[a-f0-9]{64}")))
+        {
+            return 5;
+        }
+
+        if (line.equalsIgnoreCase("login") || line.equalsIgnoreCase("register"))
+        {
+            return 6;
+        }
+
+        if (line.startsWith("/join "))
+        {
+            return line.substring(6).trim().length() > 0 ? 2 : 0;
+        }
+
+        if (line.contains("@bot"))
+        {
+            return 1;
+        }
+
+        if (line.startsWith("/leave"))
+        {
+            return 3;
+        }
+
+        if (line.equals("/listrooms"))
+        {
+            return 4;
+        }
+
+        return 0;
+    }
+}
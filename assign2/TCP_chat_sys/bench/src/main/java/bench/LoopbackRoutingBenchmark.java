@@ -0,0 +1,135 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A whole ChatServer on the loopback transport: one member sends a chat frame and the operation ends when
+// every other member of the room has read it back. That covers the inbound classifier, rate limiting, the
+// room broadcast and each member's ConnectionWriter, with in-memory pipes where the sockets and TLS would be.
+// Write coalescing is off, or every operation would include the writers' coalescing window.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.level=error", "-Dchat.journal.sync=none",
+        "-Dchat.write.coalesceWindowMicros=0",
+        "-Dchat.rateLimit.messagesPerSecond=1000000000", "-Dchat.rateLimit.messageBurst=1000000000"})
+public class LoopbackRoutingBenchmark
+{
+    private static final Class<?> TRANSPORT = ServerAccess.type("TransportMode");
+    private static final Class<?> CONNECTION = ServerAccess.type("ClientConnection");
+    private static final Class<?> FRAME_TYPE = ServerAccess.type("Frame$Type");
+
+    private static final MethodHandle NEW_SERVER = ServerAccess.constructor("ChatServer", int.class, TRANSPORT);
+    private static final MethodHandle START = ServerAccess.method("ChatServer", "start_server");
+    private static final MethodHandle STOP = ServerAccess.method("ChatServer", "stop_server");
+    private static final MethodHandle CONNECT = ServerAccess.method("ChatServer", "connectLoopback");
+
+    private static final MethodHandle OVER = ServerAccess.method("HeadlessClient", "over", CONNECTION);
+    private static final MethodHandle LOG_IN = ServerAccess.method("HeadlessClient", "logIn", String.class, String.class, String.class, String.class);
+    private static final MethodHandle JOIN = ServerAccess.method("HeadlessClient", "join", String.class);
+    private static final MethodHandle START_READING = ServerAccess.method("HeadlessClient", "startReading");
+    private static final MethodHandle READ_LINE = ServerAccess.method("HeadlessClient", "readLine");
+    private static final MethodHandle SEND = ServerAccess.method("HeadlessClient", "send", FRAME_TYPE, String.class);
+    private static final MethodHandle CLOSE = ServerAccess.method("HeadlessClient", "close");
+
+    private static final String MARKER = ": routed ";
+
+    @Param({"2", "10", "100"})
+    public int members;
+
+    private String roomName;
+    private Object server;
+    private Object[] clients;
+    private Object chat;
+    private final Semaphore delivered = new Semaphore(0);
+    private long sent = 0;
+
+    @Setup
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setup() throws Throwable
+    {
+        roomName = "bench-routing-" + members;
+        // not user_tokens.dat: the server's shutdown hook writes it after tear-down, so each fork leaves one behind
+        ServerAccess.requireAbsent("users.txt", "general_log.txt", roomName + "_log.txt");
+
+        chat = Enum.valueOf((Class) FRAME_TYPE, "CHAT");
+        server = NEW_SERVER.invoke(0, Enum.valueOf((Class) TRANSPORT, "LOOPBACK"));
+        START.invoke(server);
+
+        clients = new Object[members];
+
+        for (int i = 0; i < members; i++)
+        {
+            Object client = OVER.invoke(CONNECT.invoke(server));
+
+            if (LOG_IN.invoke(client, "bench-routing-" + i, "bench" + i, "bench-password-" + i, "register") == null
+                    || !(boolean) JOIN.invoke(client, roomName))
+            {
+                throw new IllegalStateException("Member " + i + " could not log in and join " + roomName);
+            }
+
+            START_READING.invoke(client);
+            clients[i] = client;
+
+            Thread.ofVirtual().start(() -> read(client));
+        }
+    }
+
+    private void read(Object client)
+    {
+        try
+        {
+            String line;
+
+            while ((line = (String) READ_LINE.invoke(client)) != null)
+            {
+                if (line.contains(MARKER))
+                {
+                    delivered.release();
+                }
+            }
+        }
+        catch (Throwable ignored)
+        {
+            // closed at tear-down
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable
+    {
+        for (Object client : clients)
+        {
+            if (client != null)
+            {
+                CLOSE.invoke(client);
+            }
+        }
+
+        STOP.invoke(server);
+        ServerAccess.deleteQuietly("users.txt", "user_tokens.dat", "general_log.txt", roomName + "_log.txt");
+    }
+
+    @Benchmark
+    public void routeToRoom() throws Throwable
+    {
+        SEND.invoke(clients[0], chat, "routed " + sent++);
+        delivered.acquire(members - 1);
+    }
+}
@@ -0,0 +1,81 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ServerRoom.broadcast as seen by the sender: sequencing, the journal hand-off and queueing the message
+// on every member's ConnectionWriter. The writers drain into null streams on their own threads, as they
+// would into sockets, so what is measured is the fan-out cost the sending client's thread pays.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.level=error", "-Dchat.journal.sync=none"})
+public class RoomBroadcastBenchmark
+{
+    private static final Class<?> CONNECTION = ServerAccess.type("ClientConnection");
+    private static final Class<?> WRITER = ServerAccess.type("ConnectionWriter");
+
+    private static final MethodHandle NEW_ROOM = ServerAccess.constructor("ServerRoom", String.class, int.class);
+    private static final MethodHandle NEW_WRITER = ServerAccess.constructor("ConnectionWriter", CONNECTION);
+    private static final MethodHandle ADD_CLIENT = ServerAccess.method("ServerRoom", "addClient", CONNECTION, WRITER);
+    private static final MethodHandle BROADCAST = ServerAccess.method("ServerRoom", "broadcast", String.class, WRITER);
+    private static final MethodHandle DISCARD = ServerAccess.method("ServerRoom", "discard");
+    private static final MethodHandle CLOSE_WRITER = ServerAccess.method("ConnectionWriter", "close");
+
+    @Param({"1", "10", "100", "1000"})
+    public int fanout;
+
+    private String roomName;
+    private Object room;
+    private Object[] writers;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        roomName = "bench-broadcast-" + fanout;
+        ServerAccess.requireAbsent(roomName + "_log.txt");
+
+        room = NEW_ROOM.invoke(roomName, 5);
+        writers = new Object[fanout];
+
+        for (int i = 0; i < fanout; i++)
+        {
+            Object connection = ServerAccess.nullConnection("member-" + i);
+            writers[i] = NEW_WRITER.invoke(connection);
+            ADD_CLIENT.invoke(room, connection, writers[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable
+    {
+        for (Object writer : writers)
+        {
+            CLOSE_WRITER.invoke(writer);
+        }
+
+        DISCARD.invoke(room);
+        ServerAccess.deleteQuietly(roomName + "_log.txt");
+    }
+
+    @Benchmark
+    public void broadcast() throws Throwable
+    {
+        BROADCAST.invoke(room, "alice: a typical chat line of about sixty characters or so", (Object) null);
+    }
+}
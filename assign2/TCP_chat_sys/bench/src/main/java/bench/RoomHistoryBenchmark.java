@@ -0,0 +1,94 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What a joining client costs the server in history: the last few messages (what getLastFiveMessages used to
+// read from the log file, now served from memory) and a resume, which only reaches the room log when the
+// gap is older than the in-memory buffer. The room is loaded from a log of the given size.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.level=error"})
+public class RoomHistoryBenchmark
+{
+    private static final MethodHandle NEW_ROOM = ServerAccess.constructor("ServerRoom", String.class, int.class);
+    private static final MethodHandle RECENT = ServerAccess.method("ServerRoom", "getRecentMessages");
+    private static final MethodHandle AFTER = ServerAccess.method("ServerRoom", "getMessagesAfter", long.class, int.class);
+    private static final MethodHandle DISCARD = ServerAccess.method("ServerRoom", "discard");
+
+    private static final long FIRST_SEQUENCE = 1_000_000;
+
+    @Param({"16", "256", "4096", "65536"})
+    public int logSize;
+
+    private String logFile;
+    private Object room;
+    private long lastSequence;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        String roomName = "bench-history-" + logSize;
+        logFile = roomName + "_log.txt";
+        ServerAccess.requireAbsent(logFile);
+
+        try (BufferedWriter out = Files.newBufferedWriter(Path.of(logFile), StandardCharsets.UTF_8))
+        {
+            for (int i = 0; i < logSize; i++)
+            {
+                out.write("#" + (FIRST_SEQUENCE + i) + "|user" + (i % 7) + ": message number " + i + " in this room");
+                out.newLine();
+            }
+        }
+
+        lastSequence = FIRST_SEQUENCE + logSize - 1;
+        room = NEW_ROOM.invoke(roomName, 5);
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable
+    {
+        DISCARD.invoke(room);
+        ServerAccess.deleteQuietly(logFile);
+    }
+
+    @Benchmark
+    public Object recentMessages() throws Throwable
+    {
+        return RECENT.invoke(room);
+    }
+
+    // A client that missed the last ten messages
+    @Benchmark
+    public Object resumeShortGap() throws Throwable
+    {
+        return AFTER.invoke(room, lastSequence - 10, 1000);
+    }
+
+    // A client that missed the newer half of the log, capped at the default chat.resume.maxMessages
+    @Benchmark
+    public Object resumeLongGap() throws Throwable
+    {
+        return AFTER.invoke(room, lastSequence - logSize / 2, 1000);
+    }
+}
@@ -0,0 +1,106 @@
+package bench;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Reflective access to the server classes, which live in the default package and so cannot be imported.
+// Handles are looked up once into static finals, where the JIT treats them like direct calls.
+final class ServerAccess
+{
+    private ServerAccess()
+    {
+    }
+
+    static Class<?> type(String name)
+    {
+        try
+        {
+            return Class.forName(name);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalStateException("Server class " + name + " is not on the classpath", e);
+        }
+    }
+
+    // Works for package-private members too: the benchmarks and the server share the unnamed module
+    static MethodHandle constructor(String className, Class<?>... parameters)
+    {
+        try
+        {
+            Constructor<?> constructor = type(className).getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle method(String className, String name, Class<?>... parameters)
+    {
+        try
+        {
+            Method method = type(className).getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // A ClientConnection whose output goes nowhere, so a ConnectionWriter drains as fast as it can
+    static Object nullConnection(String remoteAddress)
+    {
+        Class<?> connectionType = type("ClientConnection");
+
+        return Proxy.newProxyInstance(connectionType.getClassLoader(), new Class<?>[]{connectionType}, (proxy, method, args) -> switch (method.getName())
+        {
+            case "getInputStream" -> InputStream.nullInputStream();
+            case "getOutputStream" -> OutputStream.nullOutputStream();
+            case "getRemoteAddress" -> remoteAddress;
+            case "isClosed" -> false;
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "NullConnection[" + remoteAddress + "]";
+            default -> null;
+        });
+    }
+
+    // The benchmarks write the server's data files into the working directory; never overwrite real ones
+    static void requireAbsent(String... files)
+    {
+        for (String file : files)
+        {
+            if (Files.exists(Path.of(file)))
+            {
+                throw new IllegalStateException(file + " already exists in " + Path.of("").toAbsolutePath()
+                        + "; run the benchmarks from an empty directory");
+            }
+        }
+    }
+
+    static void deleteQuietly(String... files)
+    {
+        for (String file : files)
+        {
+            try
+            {
+                Files.deleteIfExists(Path.of(file));
+            }
+            catch (Exception ignored)
+            {
+            }
+        }
+    }
+}
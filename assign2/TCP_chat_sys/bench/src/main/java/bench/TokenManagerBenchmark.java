@@ -0,0 +1,158 @@
+package bench;
+
+import java.io.ObjectOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ClientTokenManager with a store of the given size, loaded from a token file like at server start.
+// generateToken also starts a background write of the whole store, so it runs in single-shot batches and
+// each iteration waits for those writes to finish; otherwise they would pile up without bound.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.level=error"})
+public class TokenManagerBenchmark
+{
+    private static final String TOKENS_FILE = "user_tokens.dat";
+    private static final int GENERATE_BATCH = 100;
+    private static final long SAVE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private static final MethodHandle NEW_MANAGER = ServerAccess.constructor("ClientTokenManager");
+    private static final MethodHandle NEW_TOKEN = ServerAccess.constructor("ClientTokenManager$UserToken", String.class, String.class, String.class, String.class);
+    private static final MethodHandle LOAD = ServerAccess.method("ClientTokenManager", "loadTokensFromFile");
+    private static final MethodHandle SAVE = ServerAccess.method("ClientTokenManager", "saveTokensToFile");
+    private static final MethodHandle GENERATE = ServerAccess.method("ClientTokenManager", "generateToken", String.class, String.class, String.class);
+    private static final MethodHandle FIND = ServerAccess.method("ClientTokenManager", "findUsernameByTokenAndFingerprint", String.class, String.class);
+
+    private static final MethodHandle SAVE_TIMER = ServerAccess.method("Metrics", "timer", String.class);
+    private static final MethodHandle HISTOGRAM_COUNT = ServerAccess.method("Metrics$Histogram", "getCount");
+
+    @Param({"100", "1000", "10000"})
+    public int tokens;
+
+    private Object manager;
+    private Object saveTimer;
+
+    private String[] usernames;
+    private String[] fingerprints;
+    private String[] tokenValues;
+    private String[] staleTokens;
+    private int next;
+
+    private long savesExpected;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        ServerAccess.requireAbsent(TOKENS_FILE);
+
+        usernames = new String[tokens];
+        fingerprints = new String[tokens];
+        tokenValues = new String[tokens];
+        staleTokens = new String[tokens];
+
+        Map<String, Object> store = new HashMap<>();
+
+        for (int i = 0; i < tokens; i++)
+        {
+            usernames[i] = "user" + i;
+            fingerprints[i] = String.format("%064x", i);
+            tokenValues[i] = "token-" + i + "-" + Long.toHexString(Double.doubleToLongBits(Math.random()));
+            staleTokens[i] = "stale-" + i;
+
+            store.put(fingerprints[i], NEW_TOKEN.invoke(usernames[i], fingerprints[i], "general", tokenValues[i]));
+        }
+
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(Path.of(TOKENS_FILE))))
+        {
+            out.writeObject(store);
+        }
+
+        manager = NEW_MANAGER.invoke();
+        LOAD.invoke(manager);
+
+        saveTimer = SAVE_TIMER.invoke("chat_tokens_save_us");
+        savesExpected = (long) HISTOGRAM_COUNT.invoke(saveTimer);
+    }
+
+    // Every generateToken call queued one write of the store; let them all land before the next iteration
+    @TearDown(Level.Iteration)
+    public void awaitSaves() throws Throwable
+    {
+        long deadline = System.nanoTime() + SAVE_WAIT_NANOS;
+
+        while ((long) HISTOGRAM_COUNT.invoke(saveTimer) < savesExpected && System.nanoTime() < deadline)
+        {
+            Thread.sleep(5);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        ServerAccess.deleteQuietly(TOKENS_FILE);
+    }
+
+    private int nextIndex()
+    {
+        int index = next;
+        next = index + 1 == tokens ? 0 : index + 1;
+        return index;
+    }
+
+    // A reconnect presenting the fingerprint's current token
+    @Benchmark
+    public Object findByToken() throws Throwable
+    {
+        int i = nextIndex();
+        return FIND.invoke(manager, tokenValues[i], fingerprints[i]);
+    }
+
+    // A token that is not the fingerprint's current one falls through to a scan of every user's tokens
+    @Benchmark
+    public Object findStaleToken() throws Throwable
+    {
+        int i = nextIndex();
+        return FIND.invoke(manager, staleTokens[i], fingerprints[i]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveTokens() throws Throwable
+    {
+        SAVE.invoke(manager);
+        savesExpected++;
+    }
+
+    // Score is the time for a batch of GENERATE_BATCH calls, each rotating one device's token
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = GENERATE_BATCH)
+    @Measurement(iterations = 10, batchSize = GENERATE_BATCH)
+    public Object generateToken() throws Throwable
+    {
+        int i = nextIndex();
+        savesExpected++;
+        return GENERATE.invoke(manager, usernames[i], fingerprints[i], "general");
+    }
+}
@@ -1,19 +1,21 @@
 import java.io.*;
 import java.net.*;
 import java.net.http.*;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.security.KeyStore;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.Lock;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManagerFactory;
 
 public class AIClient
 {
+    private static final Metrics.Counter AI_REQUESTS = Metrics.counter("chat_bot_requests_total");
+    private static final Metrics.Counter AI_ERRORS = Metrics.counter("chat_bot_request_errors_total");
+    private static final Metrics.Counter AI_COOLDOWNS = Metrics.counter("chat_bot_cooldown_replies_total");
+    private static final Metrics.Histogram AI_LATENCY = Metrics.timer("chat_bot_request_us");
+
     private final String serverIp;
     private final int port;
     private final String ollamaUrl;
@@ -26,13 +28,15 @@ public class AIClient
 
     private final Lock responseLock = new ReentrantLock();
     private final Lock contextLock = new ReentrantLock();
+    private final Lock sendLock = new ReentrantLock();
+    private final Deque<String> recentMessages = new ArrayDeque<>();
 
     private volatile boolean isRunning = true;
     private volatile boolean isConnected = false;
 
     private SSLSocket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private BoundedLineReader in;
+    private OutputStream out;
 
     private final long HEARTBEAT_INTERVAL_MS = 30000;
     private final long CONNECTION_TIMEOUT_MS = 60000;
@@ -55,7 +59,7 @@ public class AIClient
         {
             try
             {
-                System.out.println("Attempting to connect to server...");
+                Log.info("Attempting to connect to server...");
                 connectToServer();
 
                 if (isConnected)
@@ -79,30 +83,20 @@ public class AIClient
 
     private void connectToServer() throws IOException, GeneralSecurityException
     {
-        KeyStore trustStore = KeyStore.getInstance("JKS");
-
-        try (FileInputStream tsFile = new FileInputStream("truststore.jks"))
-        {
-            trustStore.load(tsFile, "123456".toCharArray());
-        }
+        socket = TlsContextFactory.connect(serverIp, port);
 
-        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        tmf.init(trustStore);
+        // server lines are a user's message plus a short prefix, so allow some headroom over the inbound cap
+        in = new BoundedLineReader(socket.getInputStream(), ServerConfig.MAX_LINE_BYTES * 2, BoundedLineReader.OversizePolicy.TRUNCATE);
+        out = socket.getOutputStream();
 
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(null, tmf.getTrustManagers(), null);
-
-        SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-        socket = (SSLSocket) sslSocketFactory.createSocket(serverIp, port);
-
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(socket.getOutputStream(), true);
+        // the bot always speaks the framed protocol, so its answers can keep their paragraphs
+        send(Frame.Type.CONTROL, Frame.HELLO);
 
         if (authenticateBot())
         {
             isConnected = true;
             lastHeartbeatReceived = System.currentTimeMillis();
-            System.out.println("Connected to chat server. Waiting for messages...");
+            Log.info("Connected to chat server. Waiting for messages...");
         }
         else
         {
@@ -122,7 +116,7 @@ public class AIClient
         }
         catch (IOException e)
         {
-            System.err.println("Error closing connection: " + e.getMessage());
+            Log.error("Error closing connection: " + e.getMessage());
         }
     }
 
@@ -135,67 +129,97 @@ public class AIClient
             String serverMessage = in.readLine();
 
             if (serverMessage == null) return false;
-            if ("AUTH_REQUEST".equals(serverMessage)) return true;
+            if ("AUTH_REQUEST".equals(serverMessage)) return acceptFraming();
 
-            System.out.println("Waiting for AUTH_REQUEST, got instead: " + serverMessage);
+            Log.warn("Waiting for AUTH_REQUEST, got instead: " + serverMessage);
         }
         return false;
     }
 
+    // AUTH_REQUEST is the last line the server sends; the next thing is its answer to our hello
+    private boolean acceptFraming() throws IOException
+    {
+        in.switchToFrames();
+
+        int length = in.readFrame();
+
+        if (length < 0 || in.frameType() != Frame.Type.CONTROL || !Frame.HELLO.equals(new String(in.frame(), 0, length, StandardCharsets.UTF_8)))
+        {
+            Log.warn("Server did not accept the framed protocol.");
+            return false;
+        }
+
+        return true;
+    }
+
+    private void send(Frame.Type type, String payload) throws IOException
+    {
+        sendLock.lock();
+
+        try
+        {
+            Frame.write(out, type, payload);
+        }
+        finally
+        {
+            sendLock.unlock();
+        }
+    }
+
     private boolean authenticateBot() throws IOException
     {
         if (!waitForAuthRequest())
         {
-            System.out.println("Did not receive AUTH_REQUEST from server in time.");
+            Log.warn("Did not receive AUTH_REQUEST from server in time.");
             return false;
         }
 
         String deviceId = "BOT_DEVICE_" + currentRoom;
-        System.out.println("Sending device identifier: " + deviceId);
-        out.println(deviceId);
+        Log.info("Sending device identifier: " + deviceId);
+        send(Frame.Type.AUTH, deviceId);
 
-        System.out.println("Sending AI_BOT identifier");
-        out.println("AI_BOT");
+        Log.info("Sending AI_BOT identifier");
+        send(Frame.Type.AUTH, "AI_BOT");
 
-        System.out.println("Sending bot password");
-        out.println("bot_password");
+        Log.info("Sending bot password");
+        send(Frame.Type.AUTH, "bot_password");
 
         String serverMessage = in.readLine();
 
         if (serverMessage == null)
         {
-            System.out.println("Server closed connection during bot authentication.");
+            Log.info("Server closed connection during bot authentication.");
             return false;
         }
 
-        System.out.println("Received from server: " + serverMessage);
+        Log.info("Received from server: " + serverMessage);
 
         if (serverMessage.startsWith("Enter room to join:"))
         {
-            System.out.println("Sending room to join: " + currentRoom);
-            out.println(currentRoom);
+            Log.info("Sending room to join: " + currentRoom);
+            send(Frame.Type.AUTH, currentRoom);
 
             serverMessage = in.readLine();
 
             if (serverMessage != null && serverMessage.startsWith("AUTH_SUCCESS"))
             {
-                System.out.println("Bot successfully authenticated and joined room: " + currentRoom);
+                Log.info("Bot successfully authenticated and joined room: " + currentRoom);
                 return true;
             }
             else
             {
-                System.out.println("Bot authentication failed for room: " + currentRoom + ": " + serverMessage);
+                Log.info("Bot authentication failed for room: " + currentRoom + ": " + serverMessage);
                 return false;
             }
         }
         else if (serverMessage.startsWith("AUTH_SUCCESS"))
         {
-            System.out.println("Bot authenticated successfully!");
+            Log.info("Bot authenticated successfully!");
             return true;
         }
         else
         {
-            System.out.println("Bot authentication failed: " + serverMessage);
+            Log.info("Bot authentication failed: " + serverMessage);
             return false;
         }
     }
@@ -212,27 +236,24 @@ public class AIClient
 
                 if (message.equals("HEARTBEAT"))
                 {
-                    out.println("HEARTBEAT_ACK");
+                    send(Frame.Type.CONTROL, "HEARTBEAT_ACK");
                     continue;
                 }
 
-                System.out.println("Received message: " + message);
-
-                if (message.contains("@bot"))
+                // the bot is not a member of its room: the server sends the room's recent messages, one per
+                // line, in a HISTORY frame ahead of each prompt
+                if (in.frameType() == Frame.Type.HISTORY)
                 {
-                    String response = generateAIResponse(message);
-                    sendBotResponse(response);
+                    replaceContext(message);
+                    continue;
                 }
 
-                contextLock.lock();
+                Log.debug("Received message: " + message);
 
-                try
-                {
-                    saveMessageToContext(message);
-                }
-                finally
+                if (message.contains("@bot"))
                 {
-                    contextLock.unlock();
+                    String response = generateAIResponse(message);
+                    sendBotResponse(response);
                 }
             }
         }
@@ -240,34 +261,38 @@ public class AIClient
         {
             if (isConnected)
             {
-                System.err.println("Error reading from server: " + e.getMessage());
+                Log.error("Error reading from server: " + e.getMessage());
                 handleDisconnect();
             }
         }
     }
 
-    private void saveMessageToContext(String message)
+    private void replaceContext(String history)
     {
+        contextLock.lock();
+
         try
         {
-            File logFile = new File(currentRoom + "_log.txt");
-            boolean fileExists = logFile.exists();
+            recentMessages.clear();
 
-            try (FileWriter fw = new FileWriter(logFile, true);
-                 BufferedWriter bw = new BufferedWriter(fw))
+            for (String message : history.split("\n"))
             {
-                if (!fileExists)
+                if (message.contains("[Bot]") || message.trim().isEmpty())
                 {
-                    logFile.getParentFile().mkdirs();
+                    continue;
                 }
 
-                bw.write(message);
-                bw.newLine();
+                recentMessages.addLast(message);
+
+                if (recentMessages.size() > MAX_CONTEXT_LINES)
+                {
+                    recentMessages.removeFirst();
+                }
             }
         }
-        catch (IOException e)
+        finally
         {
-            System.err.println("Error saving message to context: " + e.getMessage());
+            contextLock.unlock();
         }
     }
 
@@ -286,8 +311,8 @@ public class AIClient
 
                 if (isConnected)
                 {
-                    out.println("HEARTBEAT");
-                    System.out.println("Sent heartbeat to server");
+                    send(Frame.Type.CONTROL, "HEARTBEAT");
+                    Log.debug("Sent heartbeat to server");
                 }
             }
             catch (InterruptedException e)
@@ -295,6 +320,10 @@ public class AIClient
                 Thread.currentThread().interrupt();
                 return;
             }
+            catch (IOException e)
+            {
+                Log.error("Error sending heartbeat: " + e.getMessage());
+            }
         }
     }
 
@@ -312,7 +341,7 @@ public class AIClient
 
                     if (timeSinceLastHeartbeat > CONNECTION_TIMEOUT_MS)
                     {
-                        System.out.println("No heartbeat received for " + (timeSinceLastHeartbeat / 1000) + " seconds. Reconnecting...");handleDisconnect();
+                        Log.warn("No heartbeat received for " + (timeSinceLastHeartbeat / 1000) + " seconds. Reconnecting...");handleDisconnect();
                     }
                 }
             }
@@ -332,8 +361,7 @@ public class AIClient
     private void handleConnectionFailure(Exception e)
     {
         closeConnection();
-        System.err.println("Connection failed, retrying in 5 seconds...");
-        e.printStackTrace();
+        Log.error("Connection failed, retrying in 5 seconds...", e);
         try
         {
             TimeUnit.SECONDS.sleep(5);
@@ -349,8 +377,16 @@ public class AIClient
     {
         if (isConnected && out != null)
         {
-            System.out.println("[Bot] Sending response to server and room " + currentRoom + " : " + response);
-            out.println("[Bot]: " + response);
+            Log.debug("[Bot] Sending response to server and room " + currentRoom + " : " + response);
+
+            try
+            {
+                send(Frame.Type.CHAT, "[Bot]: " + response);
+            }
+            catch (IOException e)
+            {
+                Log.error("Error sending response: " + e.getMessage());
+            }
         }
     }
 
@@ -364,7 +400,8 @@ public class AIClient
 
             if (now - lastResponseTime < RESPONSE_COOLDOWN_MS)
             {
-                System.out.println("[Bot] Cooldown active. Sending wait message.");
+                AI_COOLDOWNS.increment();
+                Log.info("[Bot] Cooldown active. Sending wait message.");
                 return "Please wait a moment before asking again...";
             }
             lastResponseTime = now;
@@ -376,7 +413,7 @@ public class AIClient
 
         try
         {
-            System.out.println("[Bot] Generating response for prompt: " + prompt);
+            Log.debug("[Bot] Generating response for prompt: " + prompt);
 
             List<String> context;
             contextLock.lock();
@@ -397,7 +434,7 @@ public class AIClient
                     escapeJson(contextPrompt)
             );
 
-            System.out.println("[Bot] JSON request to Ollama:\n" + jsonRequest);
+            Log.debug("[Bot] JSON request to Ollama:\n" + jsonRequest);
 
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(ollamaUrl + "/api/generate"))
@@ -405,81 +442,67 @@ public class AIClient
                     .POST(HttpRequest.BodyPublishers.ofString(jsonRequest))
                     .build();
 
-            HttpResponse<String> response = HttpClient.newHttpClient()
-                    .send(request, HttpResponse.BodyHandlers.ofString());
+            ChatEvents.OllamaRequest event = new ChatEvents.OllamaRequest();
+            event.begin();
+
+            long requestStart = System.nanoTime();
+            AI_REQUESTS.increment();
+
+            HttpResponse<String> response;
+
+            try
+            {
+                response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+                event.statusCode = response.statusCode();
+            }
+            finally
+            {
+                AI_LATENCY.recordSince(requestStart);
+
+                if (event.shouldCommit())
+                {
+                    event.room = currentRoom;
+                    event.model = aiModel;
+                    event.promptBytes = jsonRequest.getBytes(StandardCharsets.UTF_8).length;
+                    event.commit();
+                }
+            }
 
             if (response.statusCode() != 200)
             {
-                System.err.println("[Bot] Ollama API error: " + response.body());
+                AI_ERRORS.increment();
+                Log.error("[Bot] Ollama API error: " + response.body());
                 return "Sorry, I'm having technical difficulties. (API Error)";
             }
 
             String responseBody = response.body();
-            System.out.println("[Bot] Raw API response: " + responseBody);
+            Log.debug("[Bot] Raw API response: " + responseBody);
 
             int start = responseBody.indexOf("\"response\":\"") + 11;
-            int end = responseBody.indexOf("\"", start + 1);
+            String aiResponse = start < 11 ? null : readJsonString(responseBody, start);
 
-            if (start < 11 || end <= start)
+            if (aiResponse == null)
             {
-                System.err.println("[Bot] Failed to parse AI response properly.");
+                Log.error("[Bot] Failed to parse AI response properly.");
                 return "I'm not sure how to respond...";
             }
 
-            String aiResponse = responseBody.substring(start + 1, end);
-            System.out.println("[Bot] Generated AI Response: " + aiResponse);
+            Log.info("[Bot] Generated AI Response: " + aiResponse);
 
             return aiResponse;
         }
         catch (Exception e)
         {
-            System.err.println("[Bot] AI Error: " + e.getMessage());
+            AI_ERRORS.increment();
+            Log.error("[Bot] AI Error: " + e.getMessage());
             return "I'm having trouble thinking right now...";
         }
     }
 
     private List<String> getRoomContext()
     {
-        List<String> context = new ArrayList<>();
-
-        try
-        {
-            File logFile = new File(currentRoom + "_log.txt");
-
-            if (!logFile.exists())
-            {
-                System.out.println("[Bot] No previous room log found.");
-                return context;
-            }
-
-            System.out.println("[Bot] Reading recent messages from: " + logFile.getName());
-
-            try (BufferedReader reader = new BufferedReader(new FileReader(logFile)))
-            {
-                Deque<String> lastMessages = new ArrayDeque<>();
-                String line;
-
-                while ((line = reader.readLine()) != null)
-                {
-                    if (!line.contains("[Bot]") && !line.trim().isEmpty())
-                    {
-                        lastMessages.addLast(line);
-
-                        if (lastMessages.size() > MAX_CONTEXT_LINES)
-                        {
-                            lastMessages.removeFirst();
-                        }
-                    }
-                }
-
-                context.addAll(lastMessages);
-                System.out.println("[Bot] Room context for prompt:\n" + context);
-            }
-        }
-        catch (IOException e)
-        {
-            System.err.println("[Bot] Couldn't read room context: " + e.getMessage());
-        }
+        List<String> context = new ArrayList<>(recentMessages);
+        Log.debug("[Bot] Room context for prompt:\n" + context);
 
         return context;
     }
@@ -503,11 +526,54 @@ public class AIClient
         sb.append("Please respond to this: ").append(prompt.replace("@bot", "").trim());
 
         String finalPrompt = sb.toString();
-        System.out.println("[Bot] Final prompt with context:\n" + finalPrompt);
+        Log.debug("[Bot] Final prompt with context:\n" + finalPrompt);
 
         return finalPrompt;
     }
 
+    // Decodes the JSON string whose opening quote is at openQuote, or returns null if it is not terminated
+    private String readJsonString(String json, int openQuote)
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = openQuote + 1; i < json.length(); i++)
+        {
+            char c = json.charAt(i);
+
+            if (c == '"')
+            {
+                return sb.toString();
+            }
+
+            if (c != '\\' || i + 1 >= json.length())
+            {
+                sb.append(c);
+                continue;
+            }
+
+            char escaped = json.charAt(++i);
+
+            switch (escaped)
+            {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 < json.length())
+                    {
+                        sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    break;
+                default: sb.append(escaped);
+            }
+        }
+
+        return null;
+    }
+
     private String escapeJson(String input) {
         String escapedInput = input.replace("\\", "\\\\")
                 .replace("\"", "\\\"")
@@ -515,7 +581,7 @@ public class AIClient
                 .replace("\r", "\\r")
                 .replace("\t", "\\t");
 
-        System.out.println("[Bot] Escaped JSON input: " + escapedInput);
+        Log.debug("[Bot] Escaped JSON input: " + escapedInput);
         return escapedInput;
     }
 
@@ -525,6 +591,7 @@ public class AIClient
         try
         {
             this.currentRoom = newRoom;
+            recentMessages.clear();
         }
         finally
         {
@@ -533,7 +600,14 @@ public class AIClient
 
         if (isConnected && out != null)
         {
-            out.println("CHANGE_ROOM:" + newRoom);
+            try
+            {
+                send(Frame.Type.COMMAND, "CHANGE_ROOM:" + newRoom);
+            }
+            catch (IOException e)
+            {
+                Log.error("Error changing room: " + e.getMessage());
+            }
         }
     }
 
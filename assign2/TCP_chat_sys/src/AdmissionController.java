@@ -0,0 +1,186 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Decides, before any TLS work is done, whether a freshly accepted socket may proceed to the handshake.
+// Checks are ordered cheapest and most specific first: in-flight handshake cap, per-IP bucket, global bucket.
+public class AdmissionController
+{
+    public enum Decision
+    {
+        ADMITTED,
+        TOO_MANY_HANDSHAKES,
+        SOURCE_RATE_EXCEEDED,
+        GLOBAL_RATE_EXCEEDED
+    }
+
+    private static final int SWEEP_THRESHOLD = 4096;
+    private static final long SWEEP_INTERVAL_MS = 1000;
+    private static final long REJECTION_LOG_INTERVAL_MS = 1000;
+
+    private final TokenBucket globalBucket;
+    private final Map<String, TokenBucket> sourceBuckets = new ConcurrentHashMap<>();
+    private final double perSourceBurst;
+    private final double perSourceRate;
+
+    private final int maxInFlightHandshakes;
+    private final AtomicInteger inFlightHandshakes = new AtomicInteger();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejectedInFlight = new LongAdder();
+    private final LongAdder rejectedSource = new LongAdder();
+    private final LongAdder rejectedGlobal = new LongAdder();
+    private final LongAdder handshakeTimeouts = new LongAdder();
+
+    private final AtomicLong lastRejectionLog = new AtomicLong();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    public AdmissionController()
+    {
+        this(ServerConfig.ADMISSION_GLOBAL_BURST, ServerConfig.ADMISSION_GLOBAL_RATE,
+                ServerConfig.ADMISSION_PER_IP_BURST, ServerConfig.ADMISSION_PER_IP_RATE,
+                ServerConfig.ADMISSION_MAX_IN_FLIGHT_HANDSHAKES);
+    }
+
+    public AdmissionController(double globalBurst, double globalRate, double perSourceBurst, double perSourceRate, int maxInFlightHandshakes)
+    {
+        this.globalBucket = new TokenBucket(globalBurst, globalRate);
+        this.perSourceBurst = perSourceBurst;
+        this.perSourceRate = perSourceRate;
+        this.maxInFlightHandshakes = Math.max(1, maxInFlightHandshakes);
+    }
+
+    // On ADMITTED the caller owns an in-flight slot and must call handshakeFinished() exactly once
+    public Decision tryAdmit(String sourceAddress)
+    {
+        if (inFlightHandshakes.incrementAndGet() > maxInFlightHandshakes)
+        {
+            inFlightHandshakes.decrementAndGet();
+            return reject(Decision.TOO_MANY_HANDSHAKES, rejectedInFlight, sourceAddress);
+        }
+
+        sweepIdleSources();
+
+        TokenBucket sourceBucket = sourceBuckets.computeIfAbsent(sourceAddress, address -> new TokenBucket(perSourceBurst, perSourceRate));
+
+        if (!sourceBucket.tryAcquire())
+        {
+            inFlightHandshakes.decrementAndGet();
+            return reject(Decision.SOURCE_RATE_EXCEEDED, rejectedSource, sourceAddress);
+        }
+
+        if (!globalBucket.tryAcquire())
+        {
+            inFlightHandshakes.decrementAndGet();
+            return reject(Decision.GLOBAL_RATE_EXCEEDED, rejectedGlobal, sourceAddress);
+        }
+
+        admitted.increment();
+        return Decision.ADMITTED;
+    }
+
+    // For connections with no network behind them (the loopback transport): takes the slot without any checks
+    public void admitTrusted()
+    {
+        inFlightHandshakes.incrementAndGet();
+        admitted.increment();
+    }
+
+    public void handshakeFinished()
+    {
+        inFlightHandshakes.decrementAndGet();
+    }
+
+    public void handshakeTimedOut()
+    {
+        handshakeTimeouts.increment();
+    }
+
+    // A pass over every tracked source costs as much as the map is large, so it runs once per interval at most,
+    // not on every accept while the map stays above the threshold because its sources are still active
+    private void sweepIdleSources()
+    {
+        if (sourceBuckets.size() <= SWEEP_THRESHOLD)
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+
+        if (now - last >= SWEEP_INTERVAL_MS && lastSweep.compareAndSet(last, now))
+        {
+            sourceBuckets.values().removeIf(TokenBucket::isFull);
+        }
+    }
+
+    private Decision reject(Decision decision, LongAdder counter, String sourceAddress)
+    {
+        counter.increment();
+
+        // one line per interval at most, a connection storm must not turn into a logging storm
+        long now = System.currentTimeMillis();
+        long last = lastRejectionLog.get();
+
+        if (now - last >= REJECTION_LOG_INTERVAL_MS && lastRejectionLog.compareAndSet(last, now))
+        {
+            Log.warn("Rejected connection from " + sourceAddress + " (" + decision + "). Admission: " + describe());
+        }
+
+        return decision;
+    }
+
+    public int getInFlightHandshakes()
+    {
+        return inFlightHandshakes.get();
+    }
+
+    public int getMaxInFlightHandshakes()
+    {
+        return maxInFlightHandshakes;
+    }
+
+    public long getAdmitted()
+    {
+        return admitted.sum();
+    }
+
+    public long getRejectedInFlight()
+    {
+        return rejectedInFlight.sum();
+    }
+
+    public long getRejectedSource()
+    {
+        return rejectedSource.sum();
+    }
+
+    public long getRejectedGlobal()
+    {
+        return rejectedGlobal.sum();
+    }
+
+    public long getHandshakeTimeouts()
+    {
+        return handshakeTimeouts.sum();
+    }
+
+    public double getGlobalTokens()
+    {
+        return globalBucket.available();
+    }
+
+    public int getTrackedSources()
+    {
+        return sourceBuckets.size();
+    }
+
+    public String describe()
+    {
+        return String.format("in-flight handshakes %d/%d, admitted %d, rejected %d (handshake cap) %d (per-IP rate) %d (global rate), handshake timeouts %d, global tokens %.1f, tracked IPs %d",
+                getInFlightHandshakes(), maxInFlightHandshakes, getAdmitted(), getRejectedInFlight(), getRejectedSource(),
+                getRejectedGlobal(), getHandshakeTimeouts(), getGlobalTokens(), getTrackedSources());
+    }
+}
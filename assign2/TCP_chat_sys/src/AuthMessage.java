@@ -0,0 +1,113 @@
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// One-message authentication: "AUTH fingerprint=...&token=...&mode=login&username=...&password=..." from
+// the client, answered by a single "AUTH_OK username=...&token=...&room=...&history=...&history=..." (or the
+// usual "AUTH_FAIL <reason>"). Values are URL-encoded, so the message fits on one line or in one frame,
+// and keys may repeat (history has one entry per message).
+public final class AuthMessage
+{
+    public static final String REQUEST = "AUTH";
+    public static final String ACCEPTED = "AUTH_OK";
+
+    public static final String FINGERPRINT = "fingerprint";
+    public static final String TOKEN = "token";
+    public static final String MODE = "mode";
+    public static final String USERNAME = "username";
+    public static final String PASSWORD = "password";
+    public static final String RESUME = "resume";
+    public static final String ROOM = "room";
+    public static final String HISTORY = "history";
+
+    private final String verb;
+    private final Map<String, List<String>> fields = new LinkedHashMap<>();
+
+    public AuthMessage(String verb)
+    {
+        this.verb = verb;
+    }
+
+    public String verb()
+    {
+        return verb;
+    }
+
+    // Null values are left out
+    public AuthMessage put(String key, String value)
+    {
+        if (value != null)
+        {
+            fields.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+
+        return this;
+    }
+
+    public String get(String key)
+    {
+        List<String> values = fields.get(key);
+        return values == null ? null : values.get(0);
+    }
+
+    public List<String> getAll(String key)
+    {
+        List<String> values = fields.get(key);
+        return values == null ? Collections.emptyList() : values;
+    }
+
+    public String encode()
+    {
+        StringBuilder encoded = new StringBuilder(verb);
+        char separator = ' ';
+
+        for (Map.Entry<String, List<String>> entry : fields.entrySet())
+        {
+            for (String value : entry.getValue())
+            {
+                encoded.append(separator)
+                        .append(URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8))
+                        .append('=')
+                        .append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+                separator = '&';
+            }
+        }
+
+        return encoded.toString();
+    }
+
+    public static boolean isMessage(String line, String verb)
+    {
+        return line != null && line.startsWith(verb) && (line.length() == verb.length() || line.charAt(verb.length()) == ' ');
+    }
+
+    // Throws IllegalArgumentException on malformed escapes
+    public static AuthMessage parse(String line)
+    {
+        int space = line.indexOf(' ');
+        AuthMessage message = new AuthMessage(space < 0 ? line : line.substring(0, space));
+
+        if (space < 0)
+        {
+            return message;
+        }
+
+        for (String pair : line.substring(space + 1).split("&"))
+        {
+            int equals = pair.indexOf('=');
+
+            if (equals > 0)
+            {
+                message.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+
+        return message;
+    }
+}
@@ -0,0 +1,382 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Newline-delimited reader with a hard cap on line length. Both buffers are reused across reads and the line
+// buffer never grows past maxLineBytes, so memory stays bounded however much a peer sends without a newline.
+// Oversize lines are either cut at the cap or skipped entirely, depending on the policy.
+// Once switched to frames (see Frame) it reads length-prefixed frames instead, under the same cap and policy.
+public class BoundedLineReader implements Closeable
+{
+    public enum OversizePolicy
+    {
+        TRUNCATE,
+        REJECT;
+
+        public static OversizePolicy fromName(String name)
+        {
+            if (name == null || name.trim().isEmpty())
+            {
+                return REJECT;
+            }
+
+            try
+            {
+                return OversizePolicy.valueOf(name.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                Log.warn("Unknown oversize line policy '" + name + "', falling back to reject.");
+                return REJECT;
+            }
+        }
+    }
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int INITIAL_LINE_SIZE = 256;
+
+    private final InputStream in;
+    private final int maxLineBytes;
+    private final OversizePolicy policy;
+    private final Runnable onRejected;
+
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private int readPosition = 0;
+    private int readLimit = 0;
+
+    private byte[] line;
+    private int lineLength = 0;
+
+    private long oversizeLines = 0;
+
+    private boolean framed = false;
+    private Frame.Type frameType;
+
+    public BoundedLineReader(InputStream in, int maxLineBytes, OversizePolicy policy)
+    {
+        this(in, maxLineBytes, policy, null);
+    }
+
+    // onRejected, if given, runs each time a line is skipped under the REJECT policy
+    public BoundedLineReader(InputStream in, int maxLineBytes, OversizePolicy policy, Runnable onRejected)
+    {
+        this.in = in;
+        this.maxLineBytes = Math.max(1, maxLineBytes);
+        this.policy = policy;
+        this.onRejected = onRejected;
+        this.line = new byte[Math.min(INITIAL_LINE_SIZE, this.maxLineBytes)];
+    }
+
+    public String readLine() throws IOException
+    {
+        int length = readFrame();
+
+        return length < 0 ? null : new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Reads the next line into the internal buffer (see frame()) and returns its length without the
+    // terminator, or -1 at end of stream. Skipped oversize lines are never returned.
+    public int readFrame() throws IOException
+    {
+        while (true)
+        {
+            int length = readRawFrame();
+
+            if (length != -2)
+            {
+                return length;
+            }
+
+            if (onRejected != null)
+            {
+                onRejected.run();
+            }
+        }
+    }
+
+    // Server side: looks at the first byte the peer sent. If it starts a framing hello the hello is consumed
+    // and the rest of the stream is read as frames; otherwise nothing is consumed and lines are read as before.
+    public boolean negotiateFrames() throws IOException
+    {
+        if (framed || (readPosition == readLimit && !fill()))
+        {
+            return framed;
+        }
+
+        if (readBuffer[readPosition] != Frame.Type.CONTROL.code())
+        {
+            return false;
+        }
+
+        framed = true;
+
+        int length = readFrame();
+
+        if (length < 0 || !Frame.HELLO.equals(new String(line, 0, length, StandardCharsets.UTF_8)))
+        {
+            throw new IOException("Unsupported framing hello");
+        }
+
+        return true;
+    }
+
+    // Client side: the peer has accepted the hello, so everything from here on arrives as frames
+    public void switchToFrames()
+    {
+        framed = true;
+    }
+
+    public boolean isFramed()
+    {
+        return framed;
+    }
+
+    // Type of the last frame, or null while reading lines
+    public Frame.Type frameType()
+    {
+        return framed ? frameType : null;
+    }
+
+    // The bytes of the last frame; only valid until the next read
+    public byte[] frame()
+    {
+        return line;
+    }
+
+    public int frameLength()
+    {
+        return lineLength;
+    }
+
+    public long getOversizeLines()
+    {
+        return oversizeLines;
+    }
+
+    public int getMaxLineBytes()
+    {
+        return maxLineBytes;
+    }
+
+    // Returns the frame length, -1 at end of stream, or -2 for a rejected oversize line
+    private int readRawFrame() throws IOException
+    {
+        return framed ? readTypedFrame() : readRawLine();
+    }
+
+    private int readRawLine() throws IOException
+    {
+        lineLength = 0;
+        boolean overflow = false;
+        boolean sawData = false;
+
+        while (true)
+        {
+            if (readPosition == readLimit && !fill())
+            {
+                if (!sawData)
+                {
+                    return -1;
+                }
+
+                break;
+            }
+
+            sawData = true;
+
+            int newline = -1;
+
+            for (int i = readPosition; i < readLimit; i++)
+            {
+                if (readBuffer[i] == '\n')
+                {
+                    newline = i;
+                    break;
+                }
+            }
+
+            int end = newline < 0 ? readLimit : newline;
+
+            if (!overflow)
+            {
+                overflow = !append(readPosition, end - readPosition);
+            }
+
+            readPosition = newline < 0 ? readLimit : newline + 1;
+
+            if (newline >= 0)
+            {
+                break;
+            }
+        }
+
+        if (overflow)
+        {
+            oversizeLines++;
+
+            if (policy == OversizePolicy.REJECT)
+            {
+                lineLength = 0;
+                return -2;
+            }
+
+            lineLength = utf8Boundary(lineLength);
+        }
+        else if (lineLength > 0 && line[lineLength - 1] == '\r')
+        {
+            lineLength--;
+        }
+
+        return lineLength;
+    }
+
+    private int readTypedFrame() throws IOException
+    {
+        lineLength = 0;
+
+        int code = readByte();
+
+        if (code < 0)
+        {
+            return -1;
+        }
+
+        Frame.Type type = Frame.Type.fromCode(code);
+
+        if (type == null)
+        {
+            throw new IOException("Unknown frame type " + code);
+        }
+
+        int length = 0;
+
+        for (int i = 0; i < Frame.HEADER_BYTES - 1; i++)
+        {
+            int b = readByte();
+
+            if (b < 0)
+            {
+                throw new EOFException("Connection closed inside a frame header");
+            }
+
+            length = (length << 8) | b;
+        }
+
+        if (length < 0)
+        {
+            throw new IOException("Malformed frame length " + length);
+        }
+
+        frameType = type;
+
+        boolean overflow = length > maxLineBytes;
+        int keep = overflow && policy == OversizePolicy.REJECT ? 0 : Math.min(length, maxLineBytes);
+        int remaining = length;
+
+        // the part past what is kept is read and thrown away, a buffer at a time
+        while (remaining > 0)
+        {
+            if (readPosition == readLimit && !fill())
+            {
+                throw new EOFException("Connection closed inside a frame");
+            }
+
+            int count = Math.min(remaining, readLimit - readPosition);
+
+            if (lineLength < keep)
+            {
+                append(readPosition, Math.min(count, keep - lineLength));
+            }
+
+            readPosition += count;
+            remaining -= count;
+        }
+
+        if (overflow)
+        {
+            oversizeLines++;
+
+            if (policy == OversizePolicy.REJECT)
+            {
+                lineLength = 0;
+                return -2;
+            }
+
+            lineLength = utf8Boundary(lineLength);
+        }
+
+        return lineLength;
+    }
+
+    private int readByte() throws IOException
+    {
+        if (readPosition == readLimit && !fill())
+        {
+            return -1;
+        }
+
+        return readBuffer[readPosition++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException
+    {
+        int count = in.read(readBuffer, 0, readBuffer.length);
+
+        if (count <= 0)
+        {
+            return false;
+        }
+
+        readPosition = 0;
+        readLimit = count;
+        return true;
+    }
+
+    // Copies as much as fits under the cap; false once the line has gone past it
+    private boolean append(int offset, int count)
+    {
+        int room = maxLineBytes - lineLength;
+        int copied = Math.min(count, room);
+
+        if (lineLength + copied > line.length)
+        {
+            byte[] grown = new byte[Math.min(maxLineBytes, Math.max(line.length * 2, lineLength + copied))];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+
+        System.arraycopy(readBuffer, offset, line, lineLength, copied);
+        lineLength += copied;
+
+        return copied == count;
+    }
+
+    // Backs off so a truncated line does not end in the middle of a multi-byte character
+    private int utf8Boundary(int length)
+    {
+        int end = length;
+
+        while (end > 0 && (line[end - 1] & 0xC0) == 0x80)
+        {
+            end--;
+        }
+
+        if (end > 0 && (line[end - 1] & 0x80) != 0)
+        {
+            int lead = line[end - 1] & 0xFF;
+            int expected = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+
+            return length - (end - 1) == expected ? length : end - 1;
+        }
+
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
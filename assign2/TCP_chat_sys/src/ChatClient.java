@@ -1,16 +1,19 @@
 import java.io.*;
 import java.net.*;
 import java.security.GeneralSecurityException;
-import java.security.KeyStore;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManagerFactory;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class ChatClient {
@@ -22,9 +25,23 @@ public class ChatClient {
     private static final AtomicBoolean inRoomTransition = new AtomicBoolean(false);
     private static final String DEVICE_ID_FILE = "device_id.txt";
     private static final String AUTH_TOKEN_FILE = "auth_token.txt";
+    private static final String RESUME_FILE = "room_sequences.txt";
+    private static final long RESUME_SAVE_INTERVAL_MS = 1000;
+    private static final int MAX_AUTH_ATTEMPTS = 3;
+
+    // Binary framing lets messages (the bot's answers in particular) keep their line breaks; -Dchat.client.framing=false falls back to lines
+    private static final boolean FRAMED = Boolean.parseBoolean(System.getProperty("chat.client.framing", "true"));
     private volatile String authToken;
 
+    // Highest room sequence number seen per room, sent back on reconnect so the server replays only the gap
+    private final Map<String, Long> lastSeenSequences = new ConcurrentHashMap<>();
+    private volatile String currentRoom = "general";
+    private volatile long lastResumeSave = 0;
+
     private final ReentrantLock authTokenLock = new ReentrantLock();
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    private OutputStream out;
 
     public ChatClient(String serverAddress, int port) throws IllegalArgumentException
     {
@@ -50,6 +67,9 @@ public class ChatClient {
         this.serverIP = serverAddress;
         this.port = port;
         this.authToken = loadAuthToken();
+        loadResumePoints();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::saveResumePoints));
     }
 
     public void start_client()
@@ -67,30 +87,17 @@ public class ChatClient {
             {
                 System.out.println("Attempting to connect to server (Attempt " + attempt + "/" + maxAttempts + ")...");
 
-                KeyStore trustStore = KeyStore.getInstance("JKS");
-
-                try (FileInputStream tsFile = new FileInputStream("truststore.jks"))
-                {
-                    trustStore.load(tsFile, "123456".toCharArray());
-                }
-
-                TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                tmf.init(trustStore);
-
-                SSLContext sslContext = SSLContext.getInstance("TLS");
-                sslContext.init(null, tmf.getTrustManagers(), null);
-
-                SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-                socket = (SSLSocket) sslSocketFactory.createSocket(serverIP, port);
+                socket = TlsContextFactory.connect(serverIP, port);
                 connected = true;
 
-                System.out.println("Connection established!");
+                System.out.println("Connection established! (TLS handshakes: " + TlsContextFactory.CLIENT_HANDSHAKES.describe() + ")");
 
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                // server lines are a user's message plus a short prefix, so allow some headroom over its inbound cap
+                BoundedLineReader in = new BoundedLineReader(socket.getInputStream(), ServerConfig.MAX_LINE_BYTES * 2, BoundedLineReader.OversizePolicy.TRUNCATE);
+                out = socket.getOutputStream();
                 Scanner scanner = new Scanner(System.in);
 
-                if (!handleAuthentication(in, out, scanner))
+                if (!handleAuthentication(in, scanner))
                 {
                     System.out.println("Authentication failed. Disconnecting.");
                     return;
@@ -113,6 +120,8 @@ public class ChatClient {
                                 serverMsg = parts[0];
                             }
 
+                            serverMsg = acceptServerLine(serverMsg);
+
                             System.out.print("\r" + " ".repeat(currentInput.length() + 5) + "\r");
                             System.out.println(serverMsg);
                             System.out.print("You: " + currentInput);
@@ -122,6 +131,10 @@ public class ChatClient {
                     {
                         System.out.println("\nConnection closed.");
                     }
+                    finally
+                    {
+                        saveResumePoints();
+                    }
                 });
 
                 System.out.print("You: ");
@@ -139,7 +152,7 @@ public class ChatClient {
                             {
                                 String roomName = input.substring(6).trim();
                                 System.out.println("Attempting to join room: " + roomName);
-                                out.println(input);
+                                send(Frame.Type.COMMAND, input);
                                 Thread.sleep(300);
                             }
                             finally
@@ -154,7 +167,7 @@ public class ChatClient {
                     }
                     else
                     {
-                        out.println(input);
+                        send(input.startsWith("/") ? Frame.Type.COMMAND : Frame.Type.CHAT, input);
                     }
 
                     System.out.print("You: ");
@@ -203,87 +216,84 @@ public class ChatClient {
         }
     }
 
-    private boolean handleAuthentication(BufferedReader in, PrintWriter out, Scanner scanner) throws IOException
+    // One AUTH message out, one AUTH_OK (token, room and backlog) back. A saved token is tried first without
+    // asking anything; credentials are prompted for locally before anything is sent, never in between round trips.
+    private boolean handleAuthentication(BoundedLineReader in, Scanner scanner) throws IOException
     {
         String deviceFingerprint = generateDeviceFingerprint(getUserAgent());
+        boolean tryToken = authToken != null && !authToken.isEmpty();
+        boolean greeted = false;
 
-        if (authToken != null && !authToken.isEmpty())
+        if (FRAMED)
         {
-            out.println(deviceFingerprint + "|TOKEN:" + authToken);
+            send(Frame.Type.CONTROL, Frame.HELLO);
         }
-        else
-        {
-            out.println(deviceFingerprint);
-        }
-
-        String serverResponse = in.readLine();
 
-        if (serverResponse != null && serverResponse.startsWith("AUTH_SUCCESS"))
+        for (int attempt = 0; attempt < MAX_AUTH_ATTEMPTS; attempt++)
         {
-            String token = null;
-            String room = null;
+            AuthMessage request = new AuthMessage(AuthMessage.REQUEST)
+                    .put(AuthMessage.FINGERPRINT, deviceFingerprint)
+                    .put(AuthMessage.RESUME, encodeResumePoints());
 
-            if (serverResponse.contains("|TOKEN:"))
+            if (tryToken)
             {
-                String[] parts = serverResponse.split("\\|TOKEN:");
+                request.put(AuthMessage.TOKEN, authToken);
+                tryToken = false;
+            }
+            else
+            {
+                promptForCredentials(request, scanner);
+            }
 
-                if (parts.length > 1)
-                {
-                    String tokenPart = parts[1];
+            send(Frame.Type.AUTH, request.encode());
 
-                    if (tokenPart.contains("|ROOM:"))
-                    {
-                        String[] roomParts = tokenPart.split("\\|ROOM:");
-                        token = roomParts[0].trim();
-                        room = roomParts[1].trim();
-                    }
-                    else
-                    {
-                        token = tokenPart.trim();
-                    }
+            if (!greeted)
+            {
+                readGreeting(in);
+                greeted = true;
+            }
 
-                    this.authToken = token;
-                    saveAuthToken(this.authToken);
+            // announcements and room traffic can overtake the reply once the server has let us in; hold them until after it
+            List<String> early = new ArrayList<>();
+            String reply;
 
-                    System.out.println(parts[0]);
-                }
-                else
-                {
-                    System.out.println(serverResponse);
-                }
+            while ((reply = in.readLine()) != null && !AuthMessage.isMessage(reply, AuthMessage.ACCEPTED) && !reply.startsWith("AUTH_FAIL"))
+            {
+                early.add(reply);
             }
-            else
+
+            if (reply == null)
             {
-                System.out.println(serverResponse);
+                System.out.println("\nServer closed connection.");
+                return false;
             }
 
-            String serverInfo;
-            boolean commandInfoReceived = false;
-            while ((serverInfo = in.readLine()) != null)
+            if (AuthMessage.isMessage(reply, AuthMessage.ACCEPTED))
             {
-                if (serverInfo.startsWith("AVAILABLE COMMANDS:") || serverInfo.startsWith("AVAILABLE BOT COMMAND:"))
-                {
-                    System.out.println(serverInfo);
-                    commandInfoReceived = true;
-                }
-                else if (serverInfo.startsWith("You have joined room:"))
-                {
-                    System.out.println(serverInfo);
-                }
-                else if ((serverInfo.startsWith("[Server]") || serverInfo.contains(":")) && commandInfoReceived)
-                {
-                    System.out.println(serverInfo);
-                    break;
-                }
-                else
+                acceptAuthentication(AuthMessage.parse(reply));
+
+                for (String line : early)
                 {
-                    System.out.println(serverInfo);
+                    System.out.println(acceptServerLine(line));
                 }
+
+                return true;
             }
 
-            return true;
+            System.out.println(reply);
+
+            // after a refusal the server asks again, or hangs up once we are out of attempts
+            if (in.readLine() == null)
+            {
+                return false;
+            }
         }
 
+        return false;
+    }
+
+    private void promptForCredentials(AuthMessage request, Scanner scanner)
+    {
         System.out.println("Do you want to [login] or [register]?");
         System.out.print("Choice: ");
         String mode = scanner.nextLine().trim().toLowerCase();
@@ -296,106 +306,187 @@ public class ChatClient {
             mode = scanner.nextLine().trim().toLowerCase();
         }
 
-        out.println(mode);
+        System.out.print("Username: ");
+        String username = scanner.nextLine();
+
+        System.out.print("Password: ");
+        String password = scanner.nextLine();
+
+        request.put(AuthMessage.MODE, mode)
+                .put(AuthMessage.USERNAME, username)
+                .put(AuthMessage.PASSWORD, password);
+    }
+
+    private void acceptAuthentication(AuthMessage accepted)
+    {
+        String token = accepted.get(AuthMessage.TOKEN);
 
-        while (true)
+        if (token != null)
         {
-            String serverPrompt = in.readLine();
+            saveAuthToken(token);
+        }
+
+        if (accepted.get(AuthMessage.ROOM) != null)
+        {
+            currentRoom = accepted.get(AuthMessage.ROOM);
+        }
 
-            if (serverPrompt == null)
+        System.out.println("Welcome, " + accepted.get(AuthMessage.USERNAME) + "!");
+        System.out.println("AVAILABLE COMMANDS: /join <room_name> - Join/Create chat room : /leave - Leave room&return to default : /listrooms - List all rooms.");
+        System.out.println("AVAILABLE BOT COMMAND: @bot + message");
+        System.out.println("You have joined room: " + currentRoom);
+
+        for (String message : accepted.getAll(AuthMessage.HISTORY))
+        {
+            System.out.println(acceptServerLine(message));
+        }
+    }
+
+    // The server opens with an AUTH_REQUEST line. On a framed connection that is the last line;
+    // the server's reply to our hello follows it as a frame.
+    private void readGreeting(BoundedLineReader in) throws IOException
+    {
+        String line = in.readLine();
+
+        if (line == null)
+        {
+            throw new EOFException("Server closed connection");
+        }
+
+        if (FRAMED && "AUTH_REQUEST".equals(line))
+        {
+            in.switchToFrames();
+
+            int length = in.readFrame();
+
+            if (length < 0 || in.frameType() != Frame.Type.CONTROL || !Frame.HELLO.equals(new String(in.frame(), 0, length, StandardCharsets.UTF_8)))
             {
-                System.out.println("\nServer closed connection.");
-                return false;
+                throw new IOException("Server did not accept the framed protocol");
             }
+        }
+    }
 
-            if (serverPrompt.startsWith("Enter username:"))
+    private void send(Frame.Type type, String text) throws IOException
+    {
+        sendLock.lock();
+
+        try
+        {
+            if (FRAMED)
             {
-                System.out.print("Username: ");
-                out.println(scanner.nextLine());
+                Frame.write(out, type, text);
             }
-            else if (serverPrompt.startsWith("Enter password:"))
+            else
             {
-                System.out.print("Password: ");
-                out.println(scanner.nextLine());
+                out.write((text + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
             }
-            else if (serverPrompt.startsWith("AUTH_SUCCESS"))
+        }
+        finally
+        {
+            sendLock.unlock();
+        }
+    }
+
+    // Tracks the current room and strips the "#<seq>@<room>|" tag from room messages, remembering the sequence
+    // under the room the tag names
+    private String acceptServerLine(String line)
+    {
+        if (line.startsWith("You have joined room:"))
+        {
+            currentRoom = line.substring("You have joined room:".length()).trim();
+        }
+        else if (line.startsWith("You have left the room and joined"))
+        {
+            currentRoom = "general";
+        }
+
+        if (!line.startsWith(RoomMessage.TAG_PREFIX))
+        {
+            return line;
+        }
+
+        RoomMessage message = RoomMessage.parse(line);
+
+        if (message.sequence() > 0)
+        {
+            String room = RoomMessage.roomOf(line);
+
+            lastSeenSequences.merge(room != null ? room : currentRoom, message.sequence(), Math::max);
+
+            long now = System.currentTimeMillis();
+
+            if (now - lastResumeSave >= RESUME_SAVE_INTERVAL_MS)
             {
-                String token = null;
+                lastResumeSave = now;
+                saveResumePoints();
+            }
+        }
 
-                if (serverPrompt.contains("|TOKEN:"))
-                {
-                    String[] parts = serverPrompt.split("\\|TOKEN:");
+        return message.text();
+    }
 
-                    if (parts.length > 1)
-                    {
-                        String tokenPart = parts[1];
+    private String encodeResumePoints()
+    {
+        StringBuilder encoded = new StringBuilder();
 
-                        if (tokenPart.contains("|ROOM:"))
-                        {
-                            String[] roomParts = tokenPart.split("\\|ROOM:");
-                            token = roomParts[0].trim();
-                        }
-                        else
-                        {
-                            token = tokenPart.trim();
-                        }
+        for (Map.Entry<String, Long> entry : lastSeenSequences.entrySet())
+        {
+            if (encoded.length() > 0)
+            {
+                encoded.append(',');
+            }
 
-                        this.authToken = token;
-                        saveAuthToken(this.authToken);
-                        System.out.println(parts[0]);
-                    }
-                    else
-                    {
-                        System.out.println(serverPrompt);
-                    }
-                }
-                else
-                {
-                    System.out.println(serverPrompt);
-                }
+            encoded.append(URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8)).append('=').append(entry.getValue());
+        }
 
-                String serverInfo;
-                boolean commandInfoReceived = false;
-                while ((serverInfo = in.readLine()) != null)
-                {
-                    if (serverInfo.startsWith("AVAILABLE COMMANDS:") || serverInfo.startsWith("AVAILABLE BOT COMMAND:"))
-                    {
-                        System.out.println(serverInfo);
-                        commandInfoReceived = true;
-                    }
-                    else if (serverInfo.startsWith("You have joined room:"))
-                    {
-                        System.out.println(serverInfo);
-                    }
-                    else if ((serverInfo.startsWith("[Server]") || serverInfo.contains(":")) && commandInfoReceived)
-                    {
-                        System.out.println(serverInfo);
-                        break;
-                    }
-                    else
-                    {
-                        System.out.println(serverInfo);
-                    }
-                }
+        return encoded.toString();
+    }
 
-                return true;
+    private void saveResumePoints()
+    {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(RESUME_FILE)))
+        {
+            writer.write(encodeResumePoints());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error saving room positions: " + e.getMessage());
+        }
+    }
+
+    private void loadResumePoints()
+    {
+        File file = new File(RESUME_FILE);
+
+        if (!file.exists())
+        {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file)))
+        {
+            String line = reader.readLine();
+
+            if (line == null)
+            {
+                return;
             }
-            else if (serverPrompt.startsWith("AUTH_FAIL"))
+
+            for (String entry : line.split(","))
             {
-                System.out.println(serverPrompt);
+                int separator = entry.lastIndexOf('=');
 
-                if (serverPrompt.contains("Too many failed") || serverPrompt.contains("Login failed"))
+                if (separator > 0)
                 {
-                    break;
+                    lastSeenSequences.put(URLDecoder.decode(entry.substring(0, separator), StandardCharsets.UTF_8), Long.parseLong(entry.substring(separator + 1).trim()));
                 }
             }
-            else
-            {
-                System.out.println("Server: " + serverPrompt);
-            }
         }
-
-        return false;
+        catch (IOException | IllegalArgumentException e)
+        {
+            System.out.println("Error loading room positions: " + e.getMessage());
+        }
     }
 
     private String getOrCreateDeviceUUID()
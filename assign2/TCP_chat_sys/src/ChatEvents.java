@@ -0,0 +1,165 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight recorder events for chat operations, so latency in a recording can be lined up with GC, pinning
+// and I/O. When a recording does not enable an event, begin/commit compile down to nothing; enabled ones are
+// kept below their threshold. chat.jfc next to the sources holds the suggested settings.
+// Usage: create, begin(), do the work, then fill the fields and commit() only if shouldCommit().
+public final class ChatEvents
+{
+    private ChatEvents()
+    {
+    }
+
+    @Name("chat.ConnectionAccepted")
+    @Label("Connection Accepted")
+    @Category({"Chat", "Connections"})
+    @StackTrace(false)
+    static final class ConnectionAccepted extends Event
+    {
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Transport")
+        String transport;
+    }
+
+    @Name("chat.TlsHandshake")
+    @Label("TLS Handshake")
+    @Category({"Chat", "Connections"})
+    @Description("Server side of the handshake; for the NIO transport, the wait for the selector to finish it")
+    @StackTrace(false)
+    static final class TlsHandshake extends Event
+    {
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        @Label("Timed Out")
+        boolean timedOut;
+    }
+
+    @Name("chat.Authentication")
+    @Label("Authentication")
+    @Category({"Chat", "Authentication"})
+    @Description("One authentication attempt, from reading the first line to the verdict")
+    @StackTrace(false)
+    static final class Authentication extends Event
+    {
+        @Label("Method")
+        @Description("token, fingerprint, password or bot; empty when the attempt failed before one applied")
+        String method;
+
+        @Label("Pipelined")
+        boolean pipelined;
+
+        @Label("Username")
+        String username;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("chat.RoomJoin")
+    @Label("Room Join")
+    @Category({"Chat", "Rooms"})
+    @StackTrace(false)
+    static final class RoomJoin extends Event
+    {
+        @Label("Room")
+        String room;
+
+        @Label("Members")
+        int members;
+    }
+
+    @Name("chat.RoomLeave")
+    @Label("Room Leave")
+    @Category({"Chat", "Rooms"})
+    @StackTrace(false)
+    static final class RoomLeave extends Event
+    {
+        @Label("Room")
+        String room;
+
+        @Label("Members")
+        int members;
+    }
+
+    @Name("chat.RoomBroadcast")
+    @Label("Room Broadcast")
+    @Category({"Chat", "Rooms"})
+    @Description("Sequencing, journaling and queueing one message to every member, including the wait for the room lock")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class RoomBroadcast extends Event
+    {
+        @Label("Room")
+        String room;
+
+        @Label("Fan-out")
+        int fanout;
+
+        @Label("Message Size")
+        @DataAmount
+        int bytes;
+    }
+
+    @Name("chat.HistoryReplay")
+    @Label("History Replay")
+    @Category({"Chat", "Rooms"})
+    @StackTrace(false)
+    static final class HistoryReplay extends Event
+    {
+        @Label("Room")
+        String room;
+
+        @Label("Messages")
+        int messages;
+
+        @Label("Resumed")
+        @Description("Replayed from the client's last seen sequence rather than the plain recent history")
+        boolean resumed;
+    }
+
+    @Name("chat.TokenPersistence")
+    @Label("Token Persistence")
+    @Category({"Chat", "Authentication"})
+    @StackTrace(false)
+    static final class TokenPersistence extends Event
+    {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("chat.OllamaRequest")
+    @Label("Ollama Request")
+    @Category({"Chat", "AI Bot"})
+    @StackTrace(false)
+    static final class OllamaRequest extends Event
+    {
+        @Label("Room")
+        String room;
+
+        @Label("Model")
+        String model;
+
+        @Label("Prompt Size")
+        @DataAmount
+        int promptBytes;
+
+        @Label("Status Code")
+        int statusCode;
+    }
+}
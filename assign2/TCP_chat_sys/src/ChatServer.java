@@ -1,132 +1,287 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
 import javax.net.ssl.*;
-import java.security.KeyStore;
 
 public class ChatServer
 {
+    private static final Metrics.Counter CONNECTIONS_ACCEPTED = Metrics.counter("chat_connections_accepted_total");
+    private static final Metrics.Counter AUTH_FAILED = Metrics.counter("chat_auth_failed_total");
+    private static final Metrics.Counter MESSAGES_RECEIVED = Metrics.counter("chat_messages_received_total");
+    private static final Metrics.Counter COMMANDS_RECEIVED = Metrics.counter("chat_commands_received_total");
+    private static final Metrics.Counter MESSAGES_BLOCKED = Metrics.counter("chat_messages_blocked_total");
+    private static final Metrics.Histogram HISTORY_REPLAY_TIME = Metrics.timer("chat_history_replay_us");
+    private static final Metrics.Histogram HISTORY_REPLAY_SIZE = Metrics.histogram("chat_history_replay_messages");
+
+    private enum AuthMethod
+    {
+        TOKEN,
+        FINGERPRINT,
+        PASSWORD,
+        BOT;
+
+        private final String label = name().toLowerCase();
+        private final Metrics.Counter counter = Metrics.counter("chat_auth_" + label + "_total");
+    }
 
     private final int port;
-    private boolean running;
+    private final TransportMode transportMode;
+    private final boolean botsEnabled;
+    private volatile boolean running;
     private ServerSocket serverSocket;
+    private NioChatTransport nioTransport;
+
+    private final List<ClientConnection> clientConnections = new ArrayList<>();
+    private final List<ConnectionWriter> clientWriters = new ArrayList<>();
+    private final RoomRegistry serverRooms = new RoomRegistry(ServerRoom::new, "general", new RoomRegistry.Listener()
+    {
+        @Override
+        public void roomCreated(ServerRoom room)
+        {
+            onRoomCreated(room.getName());
+        }
 
-    private final List<Socket> clientSockets = new ArrayList<>();
-    private final List<PrintWriter> clientWriters = new ArrayList<>();
-    private final Map<String, ServerRoom> serverRooms = new HashMap<>();
+        @Override
+        public void roomRemoved(ServerRoom room)
+        {
+            onRoomRemoved(room.getName());
+        }
+    });
+
+    private final AdmissionController admission = new AdmissionController();
+    private final InboundRateLimiter inboundLimiter = new InboundRateLimiter();
 
     private final ClientAuthSystem clientAuth = new ClientAuthSystem();
     private final ClientTokenManager tokenManager = new ClientTokenManager();
-    private final Map<Socket, String> socketToFingerprintMap = new HashMap<>();
+    private final Map<ClientConnection, String> connectionToFingerprintMap = new HashMap<>();
+
+    // Last sequence seen per room, for clients that opted into resumable delivery with |RESUME: at login
+    private final Map<ClientConnection, Map<String, Long>> connectionResumePoints = new ConcurrentHashMap<>();
 
-    private final Map<String, PrintWriter> botWriters = new HashMap<>();
+    private final Map<String, ConnectionWriter> botWriters = new ConcurrentHashMap<>();
 
-    private final ReentrantLock clientSocketsLock = new ReentrantLock();
+    // Set when -Dchat.capture.file is given; sessions are keyed by connection so cleanup can end them
+    private volatile TrafficCapture capture;
+    private final Map<ClientConnection, Integer> captureSessions = new ConcurrentHashMap<>();
+
+    private final AtomicInteger loopbackConnections = new AtomicInteger();
+
+    private final ReentrantLock clientConnectionsLock = new ReentrantLock();
     private final ReentrantLock clientWritersLock = new ReentrantLock();
-    private final ReentrantLock serverRoomsLock = new ReentrantLock();
-    private final ReentrantLock socketFingerprintLock = new ReentrantLock();
-    private final ReentrantLock botWritersLock = new ReentrantLock();
+    private final ReentrantLock connectionFingerprintLock = new ReentrantLock();
 
 
     public ChatServer(int port)
+    {
+        this(port, TransportMode.BLOCKING);
+    }
+
+    public ChatServer(int port, TransportMode transportMode)
     {
         this.port = port;
+        this.transportMode = transportMode;
+        this.botsEnabled = ServerConfig.BOTS_ENABLED && transportMode != TransportMode.LOOPBACK;
+
+        registerMetrics();
     }
 
-    private String getDeviceFingerprint(Socket socket)
+    // Gauges over state that already has its own counters, so /metrics and /stats show everything in one place
+    private void registerMetrics()
     {
-        return socketToFingerprintMap.get(socket);
+        Metrics.gauge("chat_connections_open", () -> {
+            clientConnectionsLock.lock();
+            try
+            {
+                return clientConnections.size();
+            }
+            finally
+            {
+                clientConnectionsLock.unlock();
+            }
+        });
+        Metrics.gauge("chat_clients_authenticated", () -> {
+            clientWritersLock.lock();
+            try
+            {
+                return clientWriters.size();
+            }
+            finally
+            {
+                clientWritersLock.unlock();
+            }
+        });
+        Metrics.gauge("chat_rooms", serverRooms::size);
+        Metrics.gaugeFamily("chat_room_members", "room", () -> roomValues(ServerRoom::getMemberCount));
+        Metrics.gaugeFamily("chat_room_inbound_dropped_total", "room", () -> roomValues(ServerRoom::getDroppedInbound));
+        Metrics.gaugeFamily("chat_room_inbound_deferred_total", "room", () -> roomValues(ServerRoom::getDeferredInbound));
+        Metrics.gauge("chat_bots_connected", botWriters::size);
+
+        Metrics.gauge("chat_users_registered", clientAuth::getUserCount);
+        Metrics.gauge("chat_tokens_stored", tokenManager::getTokenCount);
+
+        Metrics.gauge("chat_admission_admitted_total", admission::getAdmitted);
+        Metrics.gauge("chat_admission_rejected_handshake_cap_total", admission::getRejectedInFlight);
+        Metrics.gauge("chat_admission_rejected_per_ip_total", admission::getRejectedSource);
+        Metrics.gauge("chat_admission_rejected_global_total", admission::getRejectedGlobal);
+        Metrics.gauge("chat_admission_handshake_timeouts_total", admission::getHandshakeTimeouts);
+        Metrics.gauge("chat_admission_handshakes_in_flight", admission::getInFlightHandshakes);
+
+        TlsContextFactory.HandshakeStats handshakes = TlsContextFactory.SERVER_HANDSHAKES;
+        Metrics.gauge("chat_tls_handshakes_full_total", handshakes::getFullHandshakes);
+        Metrics.gauge("chat_tls_handshakes_resumed_total", handshakes::getResumedHandshakes);
+        Metrics.gauge("chat_tls_handshake_full_avg_ms", handshakes::getAverageFullMillis);
+        Metrics.gauge("chat_tls_handshake_resumed_avg_ms", handshakes::getAverageResumedMillis);
+        Metrics.gauge("chat_tls_handshake_max_ms", handshakes::getMaxMillis);
+
+        Metrics.gauge("chat_writer_records_total", ConnectionWriter::getTotalRecords);
+        Metrics.gauge("chat_writer_bytes_total", ConnectionWriter::getTotalBytes);
+        Metrics.gauge("chat_writer_messages_total", ConnectionWriter::getTotalMessages);
+        Metrics.gauge("chat_writer_slow_consumer_dropped_total", ConnectionWriter::getTotalDroppedOldest);
+        Metrics.gauge("chat_writer_slow_consumer_skipped_total", ConnectionWriter::getTotalSkipped);
+        Metrics.gauge("chat_writer_slow_consumer_disconnects_total", ConnectionWriter::getTotalDisconnects);
+
+        Metrics.gauge("chat_log_written_total", Log::getWritten);
+        Metrics.gauge("chat_log_dropped_total", Log::getDropped);
+        Metrics.gauge("chat_capture_records_total", () -> {
+            TrafficCapture current = capture;
+            return current == null ? 0 : current.getRecorded();
+        });
+    }
+
+    private Map<String, Long> roomValues(ToLongFunction<ServerRoom> value)
+    {
+        Map<String, Long> values = new TreeMap<>();
+
+        for (ServerRoom room : serverRooms.rooms())
+        {
+            values.put(room.getName(), value.applyAsLong(room));
+        }
+
+        return values;
+    }
+
+    private String getDeviceFingerprint(ClientConnection connection)
+    {
+        return connectionToFingerprintMap.get(connection);
     }
 
     public void start_server()
     {
         running = true;
-        System.out.println("Chat server starting on port " + port + "...");
+        Log.info("Chat server starting on port " + port + "...");
 
         tokenManager.loadTokensFromFile();
 
         tokenManager.purgeExpiredTokens();
 
+        if (ServerConfig.METRICS_PORT > 0)
+        {
+            try
+            {
+                Metrics.startHttpServer(ServerConfig.METRICS_PORT);
+            }
+            catch (IOException e)
+            {
+                Log.error("Could not start the metrics endpoint on port " + ServerConfig.METRICS_PORT + ": " + e.getMessage());
+            }
+        }
+
+        if (ServerConfig.CAPTURE_FILE != null)
+        {
+            try
+            {
+                capture = TrafficCapture.open(Path.of(ServerConfig.CAPTURE_FILE));
+                Log.info("Capturing client traffic to " + capture.getPath());
+            }
+            catch (IOException e)
+            {
+                Log.error("Could not open capture file " + ServerConfig.CAPTURE_FILE + ": " + e.getMessage());
+            }
+        }
+
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("Server shutting down. Saving tokens...");
+            Log.info("Server shutting down. Saving tokens...");
             tokenManager.saveTokensToFile();
+            Log.info("TLS handshakes: " + TlsContextFactory.SERVER_HANDSHAKES.describe());
+            Log.info("Admission: " + admission.describe());
+
+            for (ServerRoom room : serverRooms.rooms())
+            {
+                if (room.getDroppedInbound() > 0 || room.getDeferredInbound() > 0)
+                {
+                    Log.warn("Rate limited in " + room.getName() + ": " + room.getDroppedInbound() + " dropped, " + room.getDeferredInbound() + " deferred");
+                }
+
+                // the journal only queues lines for its flusher; write out and sync what is still pending
+                room.close();
+            }
+
+            TrafficCapture current = capture;
+
+            if (current != null)
+            {
+                current.close();
+                Log.info("Capture: " + current.getRecorded() + " records written to " + current.getPath());
+            }
+
+            if (Log.getDropped() > 0)
+            {
+                Log.warn("Log: " + Log.getDropped() + " messages dropped");
+            }
+
+            // shutdown hooks run concurrently, so write out the lines above before the JVM halts
+            Log.flush();
         }));
 
+        if (transportMode == TransportMode.LOOPBACK)
+        {
+            // nothing to listen on: clients come in through connectLoopback()
+            serverRooms.getOrCreate("general");
+            Log.info("Chat server running with the in-memory loopback transport");
+            return;
+        }
+
         try
         {
-            KeyStore keyStore = KeyStore.getInstance("JKS");
+            SSLContext sslContext = TlsContextFactory.serverContext();
+
+            serverRooms.getOrCreate("general");
 
-            try (FileInputStream keyStoreFile = new FileInputStream("keystore.jks"))
+            if (transportMode == TransportMode.NIO)
             {
-                keyStore.load(keyStoreFile, "123456".toCharArray());
+                nioTransport = new NioChatTransport(port, sslContext, this::acceptConnection,
+                        address -> admission.tryAdmit(address) == AdmissionController.Decision.ADMITTED);
+                Log.info("Secure Chat server listening on port " + port + " (NIO transport)");
+                nioTransport.run();
+                return;
             }
 
-            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("SunX509");
-            keyManagerFactory.init(keyStore, "123456".toCharArray());
-
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
-
             SSLServerSocketFactory sslServerSocketFactory = sslContext.getServerSocketFactory();
 
             try (SSLServerSocket serverSocket = (SSLServerSocket) sslServerSocketFactory.createServerSocket(port))
             {
                 this.serverSocket = serverSocket;
-                System.out.println("Secure Chat server listening on port " + port);
-
-                getOrCreateRoom("general");
+                Log.info("Secure Chat server listening on port " + port);
 
                 while (running)
                 {
                     SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
-                    System.out.println("New Client connected: " + clientSocket.getInetAddress().getHostAddress());
 
-                    PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true);
-
-                    clientSocketsLock.lock();
-                    try
+                    if (admission.tryAdmit(clientSocket.getInetAddress().getHostAddress()) != AdmissionController.Decision.ADMITTED)
                     {
-                        clientSockets.add(clientSocket);
-                    }
-                    finally
-                    {
-                        clientSocketsLock.unlock();
+                        resetQuietly(clientSocket);
+                        continue;
                     }
 
-                    clientWritersLock.lock();
-                    try
-                    {
-                        clientWriters.add(writer);
-                    }
-                    finally
-                    {
-                        clientWritersLock.unlock();
-                    }
-
-
-                    Thread.ofVirtual().start(() -> {
-                        try
-                        {
-                            handleClient(clientSocket, writer);
-                        }
-                        catch (NoSuchAlgorithmException e)
-                        {
-                            writer.println("AUTH_FAIL Server error");
-                            System.out.println("Hashing algorithm not available: " + e.getMessage());
-
-                            try
-                            {
-                                clientSocket.close();
-                            }
-                            catch (IOException ex)
-                            {
-                                System.out.println("Error closing client socket: " + ex.getMessage());
-                            }
-                        }
-                    });
+                    acceptConnection(new SocketClientConnection(clientSocket));
                 }
             }
         }
@@ -134,11 +289,106 @@ public class ChatServer
         {
             if (running)
             {
-                System.out.println("Server error: " + e.getMessage());
+                Log.error("Server error: " + e.getMessage());
             }
         }
     }
 
+    // Opens an in-memory connection to this server and returns the client's end. Only for LOOPBACK servers,
+    // once start_server() has returned; the connection goes through the same handshake, login and chat loop
+    // as a network client.
+    public ClientConnection connectLoopback()
+    {
+        if (transportMode != TransportMode.LOOPBACK)
+        {
+            throw new IllegalStateException("connectLoopback() needs the loopback transport, not " + transportMode.name().toLowerCase());
+        }
+
+        LoopbackConnection connection = LoopbackConnection.open("loopback-" + loopbackConnections.incrementAndGet());
+
+        admission.admitTrusted();
+        acceptConnection(connection);
+
+        return connection.peer();
+    }
+
+    private void acceptConnection(ClientConnection connection)
+    {
+        Log.info("New Client connected: " + connection.getRemoteAddress());
+        CONNECTIONS_ACCEPTED.increment();
+
+        ChatEvents.ConnectionAccepted accepted = new ChatEvents.ConnectionAccepted();
+
+        if (accepted.shouldCommit())
+        {
+            accepted.remoteAddress = connection.getRemoteAddress();
+            accepted.transport = transportMode.name().toLowerCase();
+            accepted.commit();
+        }
+
+        ConnectionWriter writer;
+
+        try
+        {
+            writer = new ConnectionWriter(connection);
+        }
+        catch (IOException e)
+        {
+            Log.error("Error opening client stream: " + e.getMessage());
+            // the handshake that would have released the admission slot is never going to run
+            admission.handshakeFinished();
+            closeQuietly(connection);
+            return;
+        }
+
+        clientConnectionsLock.lock();
+        try
+        {
+            clientConnections.add(connection);
+        }
+        finally
+        {
+            clientConnectionsLock.unlock();
+        }
+
+        Thread.ofVirtual().start(() -> {
+            try
+            {
+                handleClient(connection, writer);
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                writer.send(Frame.Type.AUTH, "AUTH_FAIL Server error");
+                Log.error("Hashing algorithm not available: " + e.getMessage());
+
+                closeQuietly(connection);
+            }
+        });
+    }
+
+    // Refused before the handshake: abort with a RST instead of a TLS close so the refusal costs nothing
+    private void resetQuietly(Socket socket)
+    {
+        try
+        {
+            socket.setSoLinger(true, 0);
+            socket.close();
+        }
+        catch (IOException ignored) {}
+    }
+
+    private void closeQuietly(ClientConnection connection)
+    {
+        try
+        {
+            connection.close();
+        }
+        catch (IOException e)
+        {
+            Log.error("Error closing client connection: " + e.getMessage());
+        }
+    }
+
     public void stop_server()
     {
         running = false;
@@ -152,32 +402,32 @@ public class ChatServer
         }
         catch (IOException e)
         {
-            System.out.println("Error closing server: " + e.getMessage());
+            Log.error("Error closing server: " + e.getMessage());
+        }
+
+        if (nioTransport != null)
+        {
+            nioTransport.stop();
         }
 
-        clientSocketsLock.lock();
+        Metrics.stopHttpServer();
+
+        clientConnectionsLock.lock();
         try
         {
-            for (Socket socket : clientSockets)
+            for (ClientConnection connection : clientConnections)
             {
-                try
+                if (connection != null && !connection.isClosed())
                 {
-                    if (socket != null && !socket.isClosed())
-                    {
-                        socket.close();
-                    }
-                }
-                catch (IOException e)
-                {
-                    System.out.println("Error closing client socket: " + e.getMessage());
+                    closeQuietly(connection);
                 }
             }
 
-            clientSockets.clear();
+            clientConnections.clear();
         }
         finally
         {
-            clientSocketsLock.unlock();
+            clientConnectionsLock.unlock();
         }
 
         clientWritersLock.lock();
@@ -192,27 +442,83 @@ public class ChatServer
     }
 
 
-    private void handleClient(Socket clientSocket, PrintWriter writer) throws NoSuchAlgorithmException
+    private void handleClient(ClientConnection connection, ConnectionWriter writer) throws NoSuchAlgorithmException
     {
         String username = null;
         boolean isTokenAuth = false;
+        String pipelinedToken = null;
+
+        try
+        {
+            performHandshake(connection);
+        }
+        catch (IOException e)
+        {
+            Log.warn("TLS handshake with " + connection.getRemoteAddress() + " failed: " + e.getMessage());
+            cleanupConnection(connection, writer, null);
+            return;
+        }
 
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream())))
+        try (BoundedLineReader in = new BoundedLineReader(connection.getInputStream(), ServerConfig.MAX_LINE_BYTES, ServerConfig.OVERSIZE_LINE_POLICY,
+                () -> writer.send("[Server] Line too long (limit " + ServerConfig.MAX_LINE_BYTES + " bytes), dropped.")))
         {
-            writer.println("AUTH_REQUEST");
+            writer.send(Frame.Type.AUTH, "AUTH_REQUEST");
+
+            // a client that opens with the framing hello gets frames from here on; everyone else stays on lines
+            if (in.negotiateFrames())
+            {
+                writer.switchToFrames();
+                writer.send(Frame.Type.CONTROL, Frame.HELLO);
+            }
+
+            int failedAttempts = 0;
 
             while (username == null)
             {
-                String[] authResult = performAuthentication(in, writer, clientSocket);
+                ChatEvents.Authentication authEvent = new ChatEvents.Authentication();
+                authEvent.begin();
+
+                String[] authResult = performAuthentication(in, writer, connection, authEvent);
                 username = authResult[0];
+
+                if (authEvent.shouldCommit())
+                {
+                    authEvent.username = username;
+                    authEvent.succeeded = username != null;
+                    authEvent.commit();
+                }
+
                 isTokenAuth = "true".equals(authResult[1]);
+                pipelinedToken = authResult.length > 2 ? authResult[2] : null;
 
                 if (username == null)
                 {
-                    writer.println("AUTH_REQUEST");
+                    AUTH_FAILED.increment();
+
+                    // a pipelined attempt costs the client a single round trip, so cap them per connection
+                    if (++failedAttempts >= ServerConfig.MAX_AUTH_ATTEMPTS)
+                    {
+                        writer.send(Frame.Type.AUTH, "AUTH_FAIL Too many failed login attempts.");
+                        writer.awaitDrained(1000);
+                        return;
+                    }
+
+                    writer.send(Frame.Type.AUTH, "AUTH_REQUEST");
                 }
             }
 
+            // server-wide announcements only go to authenticated connections, so none can land ahead of
+            // AUTH_REQUEST or between it and the switch to frames
+            clientWritersLock.lock();
+            try
+            {
+                clientWriters.add(writer);
+            }
+            finally
+            {
+                clientWritersLock.unlock();
+            }
+
             String botRoom = null;
 
             if (username.startsWith("AI_Bot#"))
@@ -227,22 +533,72 @@ public class ChatServer
                 broadcast("[Server] " + username + " has joined the chat.", null);
             }
 
-            chatLoop(username, in, writer, clientSocket, botRoom, isTokenAuth);
+            chatLoop(username, in, writer, connection, botRoom, isTokenAuth, pipelinedToken);
 
         } catch (IOException e)
         {
-            System.out.println("Client disconnected: " + clientSocket.getInetAddress());
+            Log.info("Client disconnected: " + connection.getRemoteAddress());
         }
         finally
         {
-            cleanupConnection(clientSocket, writer, username);
+            cleanupConnection(connection, writer, username);
         }
     }
 
-    private String[] performAuthentication(BufferedReader in, PrintWriter writer, Socket clientSocket) throws IOException, NoSuchAlgorithmException
+    // Releases the admission slot taken in the accept loop once the handshake is over, whatever the outcome
+    private void performHandshake(ClientConnection connection) throws IOException
+    {
+        ChatEvents.TlsHandshake event = new ChatEvents.TlsHandshake();
+        event.begin();
+
+        try
+        {
+            connection.startHandshake(ServerConfig.HANDSHAKE_TIMEOUT_MS);
+            event.succeeded = true;
+        }
+        catch (SocketTimeoutException e)
+        {
+            admission.handshakeTimedOut();
+            event.timedOut = true;
+            throw e;
+        }
+        finally
+        {
+            admission.handshakeFinished();
+
+            if (event.shouldCommit())
+            {
+                event.remoteAddress = connection.getRemoteAddress();
+                event.commit();
+            }
+        }
+    }
+
+    private static void authenticated(ChatEvents.Authentication authEvent, AuthMethod method)
+    {
+        method.counter.increment();
+        authEvent.method = method.label;
+    }
+
+    private String[] performAuthentication(BoundedLineReader in, ConnectionWriter writer, ClientConnection connection, ChatEvents.Authentication authEvent) throws IOException, NoSuchAlgorithmException
     {
         String deviceFingerprint = in.readLine();
-        if (deviceFingerprint == null) return new String[]{null, "false"};
+        if (deviceFingerprint == null) throw new EOFException("Connection closed during authentication");
+
+        if (AuthMessage.isMessage(deviceFingerprint, AuthMessage.REQUEST))
+        {
+            authEvent.pipelined = true;
+            return performPipelinedAuthentication(deviceFingerprint, writer, connection, authEvent);
+        }
+
+        if (deviceFingerprint.contains("|RESUME:"))
+        {
+            String[] parts = deviceFingerprint.split("\\|RESUME:", 2);
+            deviceFingerprint = parts[0];
+
+            connectionResumePoints.put(connection, parseResumePoints(parts.length > 1 ? parts[1] : ""));
+            writer.setSequenced(true);
+        }
 
         String token = null;
 
@@ -253,7 +609,7 @@ public class ChatServer
             token = parts[1];
         }
 
-        socketToFingerprintMap.put(clientSocket, deviceFingerprint);
+        connectionToFingerprintMap.put(connection, deviceFingerprint);
 
         if (token != null && !token.isEmpty())
         {
@@ -270,12 +626,12 @@ public class ChatServer
 
                 String newToken = tokenManager.generateToken(fingerprintUsername, deviceFingerprint, defaultRoom);
 
-                writer.println("AUTH_SUCCESS Welcome back, " + fingerprintUsername + "!|TOKEN:" + newToken + "|ROOM:" + defaultRoom);
-                writer.println("AVAILABLE COMMANDS: /join <room_name> - Join/Create chat room :/leave - Leave room&return to default : /listrooms - List all rooms.");
-                writer.println("AVAILABLE BOT COMMAND: @bot + message");
-                writer.flush();
+                writer.send(Frame.Type.AUTH, "AUTH_SUCCESS Welcome back, " + fingerprintUsername + "!|TOKEN:" + newToken + "|ROOM:" + defaultRoom);
+                writer.send("AVAILABLE COMMANDS: /join <room_name> - Join/Create chat room :/leave - Leave room&return to default : /listrooms - List all rooms.");
+                writer.send("AVAILABLE BOT COMMAND: @bot + message");
 
-                System.out.println("User " + fingerprintUsername + " authenticated via token with default room: " + defaultRoom);
+                authenticated(authEvent, AuthMethod.TOKEN);
+                Log.info("User " + fingerprintUsername + " authenticated via token with default room: " + defaultRoom);
                 return new String[]{fingerprintUsername, "true"};
             }
         }
@@ -293,39 +649,40 @@ public class ChatServer
 
             String newToken = tokenManager.generateToken(fingerprintUsername, deviceFingerprint, defaultRoom);
 
-            writer.println("AUTH_SUCCESS Welcome back, " + fingerprintUsername + "!|TOKEN:" + newToken + "|ROOM:" + defaultRoom);
-            writer.println("AVAILABLE COMMANDS: /join <room_name> - Join/Create chat room :/leave - Leave room&return to default : /listrooms - List all rooms.");
-            writer.println("AVAILABLE BOT COMMAND: @bot + message");
-            writer.flush();
+            writer.send(Frame.Type.AUTH, "AUTH_SUCCESS Welcome back, " + fingerprintUsername + "!|TOKEN:" + newToken + "|ROOM:" + defaultRoom);
+            writer.send("AVAILABLE COMMANDS: /join <room_name> - Join/Create chat room :/leave - Leave room&return to default : /listrooms - List all rooms.");
+            writer.send("AVAILABLE BOT COMMAND: @bot + message");
 
-            System.out.println("User " + fingerprintUsername + " authenticated via device fingerprint with default room: " + defaultRoom);
+            authenticated(authEvent, AuthMethod.FINGERPRINT);
+            Log.info("User " + fingerprintUsername + " authenticated via device fingerprint with default room: " + defaultRoom);
             return new String[]{fingerprintUsername, "true"};
         }
 
         String mode = in.readLine();
 
-        if (mode == null) return new String[]{null, "false"};
+        if (mode == null) throw new EOFException("Connection closed during authentication");
 
         if ("AI_BOT".equals(mode))
         {
             String password = in.readLine();
             if ("bot_password".equals(password))
             {
-                writer.println("Enter room to join:");
+                writer.send(Frame.Type.AUTH, "Enter room to join:");
 
                 String botRoom = in.readLine();
 
                 if (botRoom == null || botRoom.trim().isEmpty())
                 {
-                    writer.println("AUTH_FAIL Room name cannot be empty");
+                    writer.send(Frame.Type.AUTH, "AUTH_FAIL Room name cannot be empty");
                     return new String[]{null, "false"};
                 }
 
-                writer.println("AUTH_SUCCESS");
+                writer.send(Frame.Type.AUTH, "AUTH_SUCCESS");
+                authenticated(authEvent, AuthMethod.BOT);
                 return new String[]{"AI_Bot#" + botRoom.trim(), "false"};
             }
 
-            writer.println("AUTH_FAIL Invalid bot credentials");
+            writer.send(Frame.Type.AUTH, "AUTH_FAIL Invalid bot credentials");
             return new String[]{null, "false"};
         }
 
@@ -333,27 +690,27 @@ public class ChatServer
 
         if (mode.equals("register"))
         {
-            writer.println("Enter username:");
+            writer.send(Frame.Type.AUTH, "Enter username:");
             String username = in.readLine();
 
             if (username == null || username.trim().isEmpty())
             {
-                writer.println("AUTH_FAIL Username cannot be empty");
+                writer.send(Frame.Type.AUTH, "AUTH_FAIL Username cannot be empty");
                 return new String[]{null, "false"};
             }
 
             if (clientAuth.usernameExists(username))
             {
-                writer.println("AUTH_FAIL Username already exists");
+                writer.send(Frame.Type.AUTH, "AUTH_FAIL Username already exists");
                 return new String[]{null, "false"};
             }
 
-            writer.println("Enter password:");
+            writer.send(Frame.Type.AUTH, "Enter password:");
             String password = in.readLine();
 
             if (password == null || password.trim().isEmpty())
             {
-                writer.println("AUTH_FAIL Password cannot be empty");
+                writer.send(Frame.Type.AUTH, "AUTH_FAIL Password cannot be empty");
                 return new String[]{null, "false"};
             }
 
@@ -361,15 +718,15 @@ public class ChatServer
             {
                 String newToken = tokenManager.generateToken(username, deviceFingerprint, "general");
 
-                writer.println("AUTH_SUCCESS Welcome, " + username + "!|TOKEN:" + newToken + "|ROOM:general");
-                writer.println("AVAILABLE COMMANDS: /join <room_name> - Join/Create chat room :/leave - Leave room&return to default : /listrooms - List all rooms.");
-                writer.flush();
+                writer.send(Frame.Type.AUTH, "AUTH_SUCCESS Welcome, " + username + "!|TOKEN:" + newToken + "|ROOM:general");
+                writer.send("AVAILABLE COMMANDS: /join <room_name> - Join/Create chat room :/leave - Leave room&return to default : /listrooms - List all rooms.");
 
+                authenticated(authEvent, AuthMethod.PASSWORD);
                 return new String[]{username, "false"};
             }
             else
             {
-                writer.println("AUTH_FAIL Registration failed");
+                writer.send(Frame.Type.AUTH, "AUTH_FAIL Registration failed");
                 return new String[]{null, "false"};
             }
         }
@@ -377,25 +734,25 @@ public class ChatServer
         {
             for (int attempts = 0; attempts < 3; attempts++)
             {
-                writer.println("Enter username:");
+                writer.send(Frame.Type.AUTH, "Enter username:");
                 String username = in.readLine();
 
-                writer.println("Enter password:");
+                writer.send(Frame.Type.AUTH, "Enter password:");
                 String password = in.readLine();
 
                 if (username == null || password == null)
                 {
-                    writer.println("AUTH_FAIL Input cannot be null");
+                    writer.send(Frame.Type.AUTH, "AUTH_FAIL Input cannot be null");
                     continue;
                 }
 
                 if (!clientAuth.usernameExists(username))
                 {
-                    writer.println("AUTH_FAIL Username does not exist");
+                    writer.send(Frame.Type.AUTH, "AUTH_FAIL Username does not exist");
                 }
                 else if (!clientAuth.verifyClient(username, password))
                 {
-                    writer.println("AUTH_FAIL Invalid password");
+                    writer.send(Frame.Type.AUTH, "AUTH_FAIL Invalid password");
                 }
                 else
                 {
@@ -408,24 +765,154 @@ public class ChatServer
 
                     String newToken = tokenManager.generateToken(username, deviceFingerprint, defaultRoom);
 
-                    writer.println("AUTH_SUCCESS Welcome, " + username + "!|TOKEN:" + newToken + "|ROOM:" + defaultRoom);
-                    writer.println("AVAILABLE COMMANDS: /join <room_name> - Join/Create chat room :/leave - Leave room&return to default: /listrooms - List all rooms.");
-                    writer.println("AVAILABLE BOT COMMAND: @bot + message");
-                    writer.flush();
+                    writer.send(Frame.Type.AUTH, "AUTH_SUCCESS Welcome, " + username + "!|TOKEN:" + newToken + "|ROOM:" + defaultRoom);
+                    writer.send("AVAILABLE COMMANDS: /join <room_name> - Join/Create chat room :/leave - Leave room&return to default: /listrooms - List all rooms.");
+                    writer.send("AVAILABLE BOT COMMAND: @bot + message");
 
+                    authenticated(authEvent, AuthMethod.PASSWORD);
                     return new String[]{username, "false"};
                 }
             }
 
-            writer.println("AUTH_FAIL Too many failed login attempts.");
+            writer.send(Frame.Type.AUTH, "AUTH_FAIL Too many failed login attempts.");
+            return new String[]{null, "false"};
+        }
+
+        writer.send(Frame.Type.AUTH, "AUTH_FAIL Invalid mode (must be 'login' or 'register')");
+        return new String[]{null, "false"};
+    }
+
+    // Everything the interactive flow asks for one line at a time arrives in a single AUTH message. A valid token
+    // wins, then explicit credentials, then a known device fingerprint. On success the third element is the
+    // new token, and chatLoop answers with one AUTH_OK once the client is in its room.
+    private String[] performPipelinedAuthentication(String line, ConnectionWriter writer, ClientConnection connection, ChatEvents.Authentication authEvent) throws NoSuchAlgorithmException
+    {
+        AuthMessage request;
+
+        try
+        {
+            request = AuthMessage.parse(line);
+        }
+        catch (IllegalArgumentException e)
+        {
+            writer.send(Frame.Type.AUTH, "AUTH_FAIL Malformed authentication request");
+            return new String[]{null, "false"};
+        }
+
+        String deviceFingerprint = request.get(AuthMessage.FINGERPRINT);
+
+        if (deviceFingerprint == null || deviceFingerprint.trim().isEmpty())
+        {
+            writer.send(Frame.Type.AUTH, "AUTH_FAIL Device fingerprint is required");
+            return new String[]{null, "false"};
+        }
+
+        String resume = request.get(AuthMessage.RESUME);
+
+        if (resume != null)
+        {
+            connectionResumePoints.put(connection, parseResumePoints(resume));
+            writer.setSequenced(true);
+        }
+
+        connectionToFingerprintMap.put(connection, deviceFingerprint);
+
+        String token = request.get(AuthMessage.TOKEN);
+
+        if (token != null && !token.isEmpty())
+        {
+            String tokenUsername = tokenManager.findUsernameByTokenAndFingerprint(token, deviceFingerprint);
+
+            if (tokenUsername != null)
+            {
+                authenticated(authEvent, AuthMethod.TOKEN);
+                Log.info("User " + tokenUsername + " authenticated via token (pipelined)");
+                return pipelinedSuccess(tokenUsername, deviceFingerprint, true);
+            }
+        }
+
+        String mode = request.get(AuthMessage.MODE);
+
+        if (mode == null)
+        {
+            String fingerprintUsername = tokenManager.findUsernameByFingerprint(deviceFingerprint);
+
+            if (fingerprintUsername != null)
+            {
+                authenticated(authEvent, AuthMethod.FINGERPRINT);
+                Log.info("User " + fingerprintUsername + " authenticated via device fingerprint (pipelined)");
+                return pipelinedSuccess(fingerprintUsername, deviceFingerprint, true);
+            }
+
+            writer.send(Frame.Type.AUTH, "AUTH_FAIL Login required");
             return new String[]{null, "false"};
         }
 
-        writer.println("AUTH_FAIL Invalid mode (must be 'login' or 'register')");
+        String username = request.get(AuthMessage.USERNAME);
+        String password = request.get(AuthMessage.PASSWORD);
+
+        if (username == null || username.trim().isEmpty() || password == null || password.trim().isEmpty())
+        {
+            writer.send(Frame.Type.AUTH, "AUTH_FAIL Username and password cannot be empty");
+            return new String[]{null, "false"};
+        }
+
+        mode = mode.trim().toLowerCase();
+
+        if (mode.equals("register"))
+        {
+            if (clientAuth.usernameExists(username))
+            {
+                writer.send(Frame.Type.AUTH, "AUTH_FAIL Username already exists");
+                return new String[]{null, "false"};
+            }
+
+            if (!clientAuth.registerClient(username, password))
+            {
+                writer.send(Frame.Type.AUTH, "AUTH_FAIL Registration failed");
+                return new String[]{null, "false"};
+            }
+
+            authenticated(authEvent, AuthMethod.PASSWORD);
+            return pipelinedSuccess(username, deviceFingerprint, false);
+        }
+        else if (mode.equals("login"))
+        {
+            if (!clientAuth.usernameExists(username))
+            {
+                writer.send(Frame.Type.AUTH, "AUTH_FAIL Username does not exist");
+                return new String[]{null, "false"};
+            }
+
+            if (!clientAuth.verifyClient(username, password))
+            {
+                writer.send(Frame.Type.AUTH, "AUTH_FAIL Invalid password");
+                return new String[]{null, "false"};
+            }
+
+            authenticated(authEvent, AuthMethod.PASSWORD);
+            return pipelinedSuccess(username, deviceFingerprint, false);
+        }
+
+        writer.send(Frame.Type.AUTH, "AUTH_FAIL Invalid mode (must be 'login' or 'register')");
         return new String[]{null, "false"};
     }
 
-    private void chatLoop(String username, BufferedReader in, PrintWriter writer, Socket clientSocket, String botRoom, boolean isTokenAuth) throws IOException
+    private String[] pipelinedSuccess(String username, String deviceFingerprint, boolean isTokenAuth)
+    {
+        String defaultRoom = tokenManager.getDefaultRoomForFingerprint(deviceFingerprint);
+
+        if (defaultRoom == null || defaultRoom.trim().isEmpty())
+        {
+            defaultRoom = "general";
+        }
+
+        String newToken = tokenManager.generateToken(username, deviceFingerprint, defaultRoom);
+
+        return new String[]{username, String.valueOf(isTokenAuth), newToken};
+    }
+
+    private void chatLoop(String username, BoundedLineReader in, ConnectionWriter writer, ClientConnection connection, String botRoom, boolean isTokenAuth, String pipelinedToken) throws IOException
     {
         if ("AI_Bot".equals(username))
         {
@@ -436,184 +923,217 @@ public class ChatServer
                 {
                     if (botRoom != null)
                     {
-                        ServerRoom room = getOrCreateRoom(botRoom);
+                        ServerRoom room = serverRooms.getOrCreate(botRoom);
                         room.broadcast(line, writer);
                     }
                 }
                 else if (line.startsWith("/shutdown"))
                 {
-                    System.out.println("Bot for room " + botRoom + " is shutting down.");
+                    Log.info("Bot for room " + botRoom + " is shutting down.");
                     break;
                 }
             }
             return;
         }
 
-        String deviceFingerprint = getDeviceFingerprint(clientSocket);
+        String deviceFingerprint = getDeviceFingerprint(connection);
         String currentRoomName = tokenManager.getDefaultRoomForFingerprint(deviceFingerprint);
 
         if (currentRoomName == null || currentRoomName.trim().isEmpty()) {
             currentRoomName = "general";
         }
 
-        ServerRoom currentRoom = getOrCreateRoom(currentRoomName);
+        ServerRoom currentRoom = joinRoom(currentRoomName, connection, writer);
 
-        addClientToRoom(currentRoomName, clientSocket, writer);
+        TrafficCapture capture = this.capture;
+        int captureSession = 0;
 
-        writer.println("You have joined room: " + currentRoomName);
-        writer.flush();
+        if (capture != null)
+        {
+            captureSession = capture.startSession(username, currentRoomName);
+            captureSessions.put(connection, captureSession);
+        }
+
+        if (pipelinedToken != null)
+        {
+            // token, room and backlog in the one reply to the client's one AUTH message
+            AuthMessage accepted = new AuthMessage(AuthMessage.ACCEPTED)
+                    .put(AuthMessage.USERNAME, username)
+                    .put(AuthMessage.TOKEN, pipelinedToken)
+                    .put(AuthMessage.ROOM, currentRoomName);
+
+            for (String message : roomBacklog(connection, currentRoom, writer))
+            {
+                accepted.put(AuthMessage.HISTORY, message);
+            }
+
+            writer.send(Frame.Type.AUTH, accepted.encode());
+        }
+        else
+        {
+            writer.send("You have joined room: " + currentRoomName);
+        }
 
         if (!isTokenAuth)
         {
             currentRoom.broadcast("[Server] " + username + " has joined the room.", writer);
         }
 
-        List<String> lastMessages = currentRoom.getLastFiveMessages();
+        if (pipelinedToken == null)
+        {
+            sendRoomBacklog(connection, currentRoom, writer);
+        }
+
+        InboundRateLimiter.Session rateLimit = inboundLimiter.openSession(username, writer);
+        int length;
 
-        if (!lastMessages.isEmpty())
+        while ((length = in.readFrame()) >= 0)
         {
-            for (String msg : lastMessages)
+            Frame.Type frameType = in.frameType();
+
+            // framed clients only send chat and commands here; anything else (heartbeats and the like) is ignored
+            if (frameType != null && frameType != Frame.Type.CHAT && frameType != Frame.Type.COMMAND)
             {
-                writer.println(msg);
-                writer.flush();
+                continue;
             }
-        }
 
-        String line;
+            // classified on the raw bytes; only the parts a branch actually uses get decoded
+            InboundClassifier.Kind kind = InboundClassifier.classify(in.frame(), 0, length);
 
-        while ((line = in.readLine()) != null)
-        {
-            if (line.contains("TOKEN:") || (line.length() >= 64 && line.matches("[a-f0-9]{64}")))
+            if (capture != null)
+            {
+                capture.line(captureSession, frameType, in.frame(), 0, length, kind == InboundClassifier.Kind.BLOCKED_SECRET);
+            }
+
+            // in a chat frame "/leave" is just text; a command frame has to hold a command
+            if (frameType == Frame.Type.CHAT && kind.isCommand())
+            {
+                kind = InboundClassifier.Kind.MESSAGE;
+            }
+
+            boolean unknownCommand = frameType == Frame.Type.COMMAND
+                    && (kind == InboundClassifier.Kind.MESSAGE || kind == InboundClassifier.Kind.BOT_MENTION);
+
+            if (kind.isCommand() || unknownCommand)
+            {
+                COMMANDS_RECEIVED.increment();
+            }
+            else
             {
-                writer.println("[Server] Message blocked for security reasons.");
-                writer.flush();
+                MESSAGES_RECEIVED.increment();
+            }
+
+            if (!rateLimit.admit(kind.isCommand() || unknownCommand, currentRoom))
+            {
+                continue;
+            }
+
+            if (unknownCommand)
+            {
+                writer.send("[Server] Unknown command.");
 
                 continue;
             }
 
+            if (kind == InboundClassifier.Kind.BLOCKED_SECRET)
+            {
+                MESSAGES_BLOCKED.increment();
+                writer.send("[Server] Message blocked for security reasons.");
+
+                continue;
+            }
 
-            if (line.equalsIgnoreCase("login") || line.equalsIgnoreCase("register"))
+
+            if (kind == InboundClassifier.Kind.BLOCKED_AUTH_WORD)
             {
-                writer.println("[Server] Message blocked to prevent confusion with authentication commands.");
-                writer.flush();
+                MESSAGES_BLOCKED.increment();
+                writer.send("[Server] Message blocked to prevent confusion with authentication commands.");
 
                 continue;
             }
 
-            if (line.startsWith("/join "))
+            if (kind == InboundClassifier.Kind.JOIN)
             {
-                String newRoomName = line.substring(6).trim();
+                int argument = InboundClassifier.JOIN_ARGUMENT_OFFSET;
+                String newRoomName = new String(in.frame(), argument, length - argument, StandardCharsets.UTF_8).trim();
 
                 if (!newRoomName.isEmpty())
                 {
                     if (!newRoomName.equals(currentRoomName))
                     {
-                        synchronized (this)
-                        {
-                            currentRoom.broadcast("[Server] " + username + " has left the room.", writer);
-
-                            removeClientFromRoom(currentRoomName, clientSocket, writer);
+                        currentRoom.broadcast("[Server] " + username + " has left the room.", writer);
 
-                            String oldRoomName = currentRoomName;
-                            currentRoomName = newRoomName;
-                            currentRoom = getOrCreateRoom(currentRoomName);
+                        rememberResumePoint(connection, currentRoom);
+                        leaveRoom(currentRoomName, connection, writer);
 
-                            tokenManager.updateDefaultRoom(username, getDeviceFingerprint(clientSocket), currentRoomName);
+                        String oldRoomName = currentRoomName;
+                        currentRoomName = newRoomName;
 
-                            addClientToRoom(currentRoomName, clientSocket, writer);
+                        tokenManager.updateDefaultRoom(username, getDeviceFingerprint(connection), currentRoomName);
 
-                            writer.println("You have joined room: " + currentRoomName);
-                            writer.flush();
+                        currentRoom = joinRoom(currentRoomName, connection, writer);
 
-                            currentRoom.broadcast("[Server] " + username + " has joined the room.", writer);
+                        writer.send("You have joined room: " + currentRoomName);
 
-                            lastMessages = currentRoom.getLastFiveMessages();
+                        currentRoom.broadcast("[Server] " + username + " has joined the room.", writer);
 
-                            if (!lastMessages.isEmpty())
-                            {
-                                for (String msg : lastMessages)
-                                {
-                                    writer.println(msg);
-                                    writer.flush();
-                                }
-                            }
+                        sendRoomBacklog(connection, currentRoom, writer);
 
-                            System.out.println("User " + username + " moved from room " + oldRoomName + " to " + currentRoomName);
-                        }
+                        Log.info("User " + username + " moved from room " + oldRoomName + " to " + currentRoomName);
                     }
                     else
                     {
-                        writer.println("You're already in that room.");
-                        writer.flush();
+                        writer.send("You're already in that room.");
                     }
                 }
                 else
                 {
-                    writer.println("Room name cannot be empty.");
-                    writer.flush();
+                    writer.send("Room name cannot be empty.");
                 }
             }
-            else if (line.contains("@bot"))
+            else if (kind == InboundClassifier.Kind.BOT_MENTION)
             {
+                String line = new String(in.frame(), 0, length, StandardCharsets.UTF_8);
+
                 currentRoom.broadcast(username + ": " + line, writer);
 
-                PrintWriter botWriter = findBotWriter(currentRoomName);
+                ConnectionWriter botWriter = findBotWriter(currentRoomName);
 
                 if (botWriter != null)
                 {
-                    botWriter.println(line);
-                    botWriter.flush();
+                    // the bot is not a room member, so the conversation it is asked about goes with the prompt
+                    botWriter.send(Frame.Type.HISTORY, botContext(currentRoom));
+                    botWriter.send(Frame.Type.CHAT, line);
                 }
                 else
                 {
-                    writer.println("[Server] No bot is available in this room.");
-                    writer.flush();
+                    writer.send("[Server] No bot is available in this room.");
                 }
 
-                System.out.println("Sending to bot: " + line);
+                Log.debug("Sending to bot: " + line);
             }
-            else if (line.startsWith("/leave"))
+            else if (kind == InboundClassifier.Kind.LEAVE)
             {
-                serverRoomsLock.lock();
+                currentRoom.broadcast("[Server] " + username + " has left the room.", writer);
 
-                try
-                {
-                    currentRoom.broadcast("[Server] " + username + " has left the room.", writer);
-
-                    removeClientFromRoom(currentRoomName, clientSocket, writer);
+                rememberResumePoint(connection, currentRoom);
+                leaveRoom(currentRoomName, connection, writer);
 
-                    currentRoomName = "general";
-                    currentRoom = getOrCreateRoom(currentRoomName);
-                    addClientToRoom(currentRoomName, clientSocket, writer);
+                currentRoomName = "general";
+                currentRoom = joinRoom(currentRoomName, connection, writer);
 
-                    tokenManager.updateDefaultRoom(username, getDeviceFingerprint(clientSocket), currentRoomName);
+                tokenManager.updateDefaultRoom(username, getDeviceFingerprint(connection), currentRoomName);
 
-                    writer.println("You have left the room and joined the \'general\' room.");
+                writer.send("You have left the room and joined the \'general\' room.");
 
-                    lastMessages = currentRoom.getLastFiveMessages();
+                sendRoomBacklog(connection, currentRoom, writer);
 
-                    if (!lastMessages.isEmpty())
-                    {
-                        for (String msg : lastMessages)
-                        {
-                            writer.println(msg);
-                            writer.flush();
-                        }
-                    }
-
-                    writer.flush();
-
-                    currentRoom.broadcast("[Server] " + username + " has joined the room.", writer);
-                }
-                finally
-                {
-                    serverRoomsLock.unlock();
-                }
+                currentRoom.broadcast("[Server] " + username + " has joined the room.", writer);
             }
-            else if (line.equals("/listrooms"))
+            else if (kind == InboundClassifier.Kind.LIST_ROOMS)
             {
                 StringBuilder roomList = new StringBuilder("Available rooms: ");
-                List<String> sortedRooms = new ArrayList<>(serverRooms.keySet());
+                List<String> sortedRooms = serverRooms.roomNames();
 
                 sortedRooms.remove("general");
                 Collections.sort(sortedRooms);
@@ -624,43 +1144,149 @@ public class ChatServer
                     roomList.append(room).append(" / ");
                 }
 
-                writer.println(roomList.toString().trim());
-                writer.flush();
+                writer.send(roomList.toString().trim());
+            }
+            else if (kind == InboundClassifier.Kind.STATS)
+            {
+                if (ServerConfig.ADMIN_USERS.contains(username))
+                {
+                    for (String metric : Metrics.render().split("\n"))
+                    {
+                        writer.send("[Stats] " + metric);
+                    }
+                }
+                else
+                {
+                    writer.send("[Server] /stats is only available to administrators.");
+                }
             }
             else
             {
-                System.out.println(username + ": " + line);
+                String line = new String(in.frame(), 0, length, StandardCharsets.UTF_8);
+
+                if (Log.isDebugEnabled())
+                {
+                    Log.debug(username + ": " + line);
+                }
+
                 currentRoom.broadcast(username + ": " + line, writer);
             }
         }
     }
 
-    private PrintWriter findBotWriter(String roomName)
+    private ConnectionWriter findBotWriter(String roomName)
     {
-        botWritersLock.lock();
+        return botWriters.get(roomName);
+    }
 
-        try
+    // The room's recent messages, one per line, oldest first
+    private static String botContext(ServerRoom room)
+    {
+        StringJoiner context = new StringJoiner("\n");
+
+        for (RoomMessage message : room.getRecentMessages())
         {
-            return botWriters.get(roomName);
+            context.add(message.text());
         }
-        finally
+
+        return context.toString();
+    }
+
+    // "general=123,my%20room=456" -> room name to last sequence the client has seen
+    private static Map<String, Long> parseResumePoints(String spec)
+    {
+        Map<String, Long> resumePoints = new ConcurrentHashMap<>();
+
+        for (String entry : spec.split(","))
+        {
+            int separator = entry.lastIndexOf('=');
+
+            if (separator <= 0)
+            {
+                continue;
+            }
+
+            try
+            {
+                String roomName = URLDecoder.decode(entry.substring(0, separator), StandardCharsets.UTF_8);
+                resumePoints.put(roomName, Long.parseLong(entry.substring(separator + 1).trim()));
+            }
+            catch (IllegalArgumentException e)
+            {
+                Log.warn("Ignoring malformed resume point: " + entry);
+            }
+        }
+
+        return resumePoints;
+    }
+
+    // Sends what a client has missed in the room it just joined: the exact gap for clients that
+    // told us where they stopped, the last few messages for everyone else
+    private void sendRoomBacklog(ClientConnection connection, ServerRoom room, ConnectionWriter writer)
+    {
+        for (String message : roomBacklog(connection, room, writer))
+        {
+            writer.send(Frame.Type.HISTORY, message);
+        }
+    }
+
+    private List<String> roomBacklog(ClientConnection connection, ServerRoom room, ConnectionWriter writer)
+    {
+        ChatEvents.HistoryReplay event = new ChatEvents.HistoryReplay();
+        event.begin();
+
+        long start = System.nanoTime();
+        Map<String, Long> resumePoints = connectionResumePoints.get(connection);
+        Long lastSeen = resumePoints == null ? null : resumePoints.get(room.getName());
+
+        List<RoomMessage> backlog = lastSeen != null
+                ? room.getMessagesAfter(lastSeen, ServerConfig.RESUME_MAX_MESSAGES)
+                : room.getRecentMessages();
+
+        List<String> lines = new ArrayList<>(backlog.size());
+        String roomTag = RoomMessage.roomTag(room.getName());
+
+        for (RoomMessage message : backlog)
+        {
+            lines.add(writer.isSequenced() ? message.tagged(roomTag) : message.text());
+        }
+
+        HISTORY_REPLAY_TIME.recordSince(start);
+        HISTORY_REPLAY_SIZE.record(lines.size());
+
+        if (event.shouldCommit())
+        {
+            event.room = room.getName();
+            event.messages = lines.size();
+            event.resumed = lastSeen != null;
+            event.commit();
+        }
+
+        return lines;
+    }
+
+    private void rememberResumePoint(ClientConnection connection, ServerRoom room)
+    {
+        Map<String, Long> resumePoints = connectionResumePoints.get(connection);
+
+        if (resumePoints != null)
         {
-            botWritersLock.unlock();
+            resumePoints.put(room.getName(), room.getLastSequence());
         }
     }
 
 
-    private void cleanupConnection(Socket clientSocket, PrintWriter writer, String username)
+    private void cleanupConnection(ClientConnection connection, ConnectionWriter writer, String username)
     {
-        clientSocketsLock.lock();
+        clientConnectionsLock.lock();
 
         try
         {
-            clientSockets.remove(clientSocket);
+            clientConnections.remove(connection);
         }
         finally
         {
-            clientSocketsLock.unlock();
+            clientConnectionsLock.unlock();
         }
 
         clientWritersLock.lock();
@@ -673,42 +1299,48 @@ public class ChatServer
             clientWritersLock.unlock();
         }
 
-        socketFingerprintLock.lock();
+        connectionFingerprintLock.lock();
         try
         {
-            socketToFingerprintMap.remove(clientSocket);
+            connectionToFingerprintMap.remove(connection);
         }
         finally
         {
-            socketFingerprintLock.unlock();
+            connectionFingerprintLock.unlock();
         }
 
-        try
-        {
-            clientSocket.close();
-        }
-        catch (IOException e)
+        connectionResumePoints.remove(connection);
+
+        Integer captureSession = captureSessions.remove(connection);
+        TrafficCapture current = capture;
+
+        if (captureSession != null && current != null)
         {
-            System.out.println("Error closing client socket: " + e.getMessage());
+            current.endSession(captureSession);
         }
 
+        writer.close();
+        closeQuietly(connection);
+
         if (username != null && !username.equals("AI_Bot"))
         {
             broadcast("[Server] " + username + " has left the chat.", null);
         }
     }
 
-    private void broadcast(String message, PrintWriter sender)
+    private void broadcast(String message, ConnectionWriter sender)
     {
+        OutboundMessage encoded = OutboundMessage.of(message);
+
         clientWritersLock.lock();
 
         try
         {
-            for (PrintWriter writer : clientWriters)
+            for (ConnectionWriter writer : clientWriters)
             {
                 if (writer != sender)
                 {
-                    writer.println(message);
+                    writer.send(encoded);
                 }
             }
         }
@@ -718,106 +1350,85 @@ public class ChatServer
         }
     }
 
-    private ServerRoom getOrCreateRoom(String roomName)
+    private void onRoomCreated(String roomName)
     {
-        serverRoomsLock.lock();
-        try
+        if (!botsEnabled || "general".equals(roomName))
         {
-            boolean roomExists = serverRooms.containsKey(roomName);
+            return;
+        }
 
-            ServerRoom room = serverRooms.computeIfAbsent(roomName, ServerRoom::new);
+        Log.info("New room created: " + roomName + ", spawning AI bot...");
 
-            if (!roomExists && !"general".equals(roomName))
+        Thread.ofVirtual().start(() -> {
+            try
             {
-                System.out.println("New room created: " + roomName + ", spawning AI bot...");
+                AIClient bot = new AIClient("localhost", 8080, "http://localhost:11434", "llama3", roomName);
+                bot.start();
+            }
+            catch (Exception e)
+            {
+                Log.error("AI bot for room " + roomName + " failed", e);
+            }
+        });
+    }
 
-                Thread.ofVirtual().start(() -> {
-                    try
-                    {
-                        AIClient bot = new AIClient("localhost", 8080, "http://localhost:11434", "llama3", roomName);
-                        bot.start();
-                    }
-                    catch (Exception e)
-                    {
-                        e.printStackTrace();
-                    }
-                });
+    private void onRoomRemoved(String roomName)
+    {
+        botWriters.remove(roomName);
 
-            }
-            return room;
-        }
-        finally
+        if (!botsEnabled)
         {
-            serverRoomsLock.unlock();
+            return;
         }
-    }
 
+        Log.info("Room " + roomName + " is empty, shutting down its AI bot...");
+
+        new Thread(() -> disconnectBot(roomName)).start();
+    }
 
-    private void addClientToRoom(String roomName, Socket socket, PrintWriter writer)
+    private ServerRoom joinRoom(String roomName, ClientConnection connection, ConnectionWriter writer)
     {
-        serverRoomsLock.lock();
+        ChatEvents.RoomJoin event = new ChatEvents.RoomJoin();
+        event.begin();
 
-        try
-        {
-            ServerRoom room = serverRooms.get(roomName);
+        ServerRoom room = serverRooms.join(roomName, connection, writer);
 
-            if (room != null)
-            {
-                room.addClient(socket, writer);
-                System.out.println("Client added to room: " + roomName);
-            }
-        }
-        catch (Exception e)
+        if (event.shouldCommit())
         {
-            System.out.println("Error adding client to room " + roomName + ": " + e.getMessage());
-            e.printStackTrace();
-        }
-        finally
-        {
-            serverRoomsLock.unlock();
+            event.room = roomName;
+            event.members = room.getMemberCount();
+            event.commit();
         }
+
+        Log.info("Client added to room: " + roomName);
+
+        return room;
     }
 
-    private void removeClientFromRoom(String roomName, Socket socket, PrintWriter writer)
+    private void leaveRoom(String roomName, ClientConnection connection, ConnectionWriter writer)
     {
-        serverRoomsLock.lock();
+        ChatEvents.RoomLeave event = new ChatEvents.RoomLeave();
+        event.begin();
 
-        try
+        serverRooms.leave(roomName, connection, writer);
+
+        if (event.shouldCommit())
         {
             ServerRoom room = serverRooms.get(roomName);
 
-            if (room != null)
-            {
-                room.removeClient(socket, writer);
-                System.out.println("Client removed from room: " + roomName);
-
-                if (room.isEmpty() && !"general".equals(roomName))
-                {
-                    serverRooms.remove(roomName);
-                    botWriters.remove(roomName);
-                    System.out.println("Room " + roomName + " is empty, shutting down its AI bot...");
-
-                    final String roomToDisconnect = roomName;
-                    new Thread(() -> disconnectBot(roomToDisconnect)).start();
-                }
-            }
-        }
-        catch (Exception e)
-        {
-            System.out.println("Error removing client from room " + roomName + ": " + e.getMessage());
-            e.printStackTrace();
-        }
-        finally
-        {
-            serverRoomsLock.unlock();
+            event.room = roomName;
+            event.members = room == null ? 0 : room.getMemberCount();
+            event.commit();
         }
+
+        Log.info("Client removed from room: " + roomName);
     }
 
     private void disconnectBot(String roomName)
     {
         try (Socket socket = new Socket("localhost", 8080);
              PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream())))
+             BoundedLineReader in = new BoundedLineReader(socket.getInputStream(), ServerConfig.MAX_LINE_BYTES, BoundedLineReader.OversizePolicy.TRUNCATE))
         {
             out.println("AI_BOT");
             out.println("bot_password");
@@ -832,7 +1443,7 @@ public class ChatServer
         }
         catch (IOException e)
         {
-            System.out.println("Failed to disconnect bot for room " + roomName + ": " + e.getMessage());
+            Log.error("Failed to disconnect bot for room " + roomName + ": " + e.getMessage());
         }
     }
 
@@ -841,22 +1452,23 @@ public class ChatServer
     {
         if (args.length < 1)
         {
-            System.out.println("Usage: java ChatServer <port>");
+            System.out.println("Usage: java ChatServer <port> [blocking|nio]");
             return;
         }
 
         int port = Integer.parseInt(args[0]);
+        TransportMode transportMode = args.length > 1 ? TransportMode.fromName(args[1]) : ServerConfig.TRANSPORT_MODE;
 
-        ChatServer server = new ChatServer(port);
+        ChatServer server = new ChatServer(port, transportMode);
 
         try
         {
             server.clientAuth.registerClient("charlie", "test123");
-            System.out.println("Test users registered: alice, bob");
+            Log.info("Test users registered: alice, bob");
         }
         catch (Exception e)
         {
-            System.out.println("Error registering test users: " + e.getMessage());
+            Log.error("Error registering test users: " + e.getMessage());
             return;
         }
 
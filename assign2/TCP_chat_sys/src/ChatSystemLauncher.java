@@ -3,7 +3,7 @@ public class ChatSystemLauncher
     public static void main(String[] args)
     {
         Thread serverThread = Thread.startVirtualThread(() -> {
-            ChatServer server = new ChatServer(8080);
+            ChatServer server = new ChatServer(8080, ServerConfig.TRANSPORT_MODE);
             server.start_server();
         });
 
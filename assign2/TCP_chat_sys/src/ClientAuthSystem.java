@@ -18,6 +18,11 @@ class ClientAuthSystem
     private final Lock readLock = rwLock.readLock();
     private static final Duration OPERATION_TIMEOUT = Duration.ofSeconds(5);
 
+    private static final Metrics.Counter REGISTRATIONS = Metrics.counter("chat_auth_registrations_total");
+    private static final Metrics.Counter PASSWORD_CHECKS = Metrics.counter("chat_auth_password_checks_total");
+    private static final Metrics.Counter PASSWORD_FAILURES = Metrics.counter("chat_auth_password_failures_total");
+    private static final Metrics.Histogram HASH_TIME = Metrics.timer("chat_auth_password_hash_us");
+
     //class to store salt and hashed password together
     private static class UserCredentials
     {
@@ -53,12 +58,12 @@ class ClientAuthSystem
             }
             catch (TimeoutException e)
             {
-                System.err.println("Loading users took too long: " + e.getMessage());
+                Log.warn("Loading users took too long: " + e.getMessage());
                 future.cancel(true);
             }
             catch (Exception e)
             {
-                System.err.println("Error loading users: " + e.getMessage());
+                Log.error("Error loading users: " + e.getMessage());
             }
         }
     }
@@ -93,13 +98,14 @@ class ClientAuthSystem
         }
         catch (NoSuchAlgorithmException e)
         {
-            System.err.println("Error hashing password: " + e.getMessage());
+            Log.error("Error hashing password: " + e.getMessage());
             return false;
         }
 
         registeredUsers.put(username, credentials);
 
         saveUserToFile(username, credentials);
+        REGISTRATIONS.increment();
 
         return true;
     }
@@ -127,20 +133,31 @@ class ClientAuthSystem
         try
         {
             String hashedAttempt = hashPassword(attemptedPassword, credentials.getSalt());
-            return hashedAttempt.equals(credentials.getPasswordHash());
+            boolean matches = hashedAttempt.equals(credentials.getPasswordHash());
+
+            PASSWORD_CHECKS.increment();
+
+            if (!matches)
+            {
+                PASSWORD_FAILURES.increment();
+            }
+
+            return matches;
         }
         catch (NoSuchAlgorithmException e)
         {
-            System.err.println("Error verifying password: " + e.getMessage());
+            Log.error("Error verifying password: " + e.getMessage());
             return false;
         }
     }
 
     private String hashPassword(String password, String salt) throws NoSuchAlgorithmException
     {
+        long start = System.nanoTime();
         MessageDigest md = MessageDigest.getInstance("SHA-256");
         md.update(salt.getBytes());
         byte[] hashedPassword = md.digest(password.getBytes());
+        HASH_TIME.recordSince(start);
         return Base64.getEncoder().encodeToString(hashedPassword);
     }
 
@@ -168,23 +185,23 @@ class ClientAuthSystem
         }
         catch (IOException e)
         {
-            System.out.println("Error reading user file: " + e.getMessage());
+            Log.error("Error reading user file: " + e.getMessage());
         }
     }
 
     private void saveUserToFile(String username, UserCredentials credentials)
     {
-        System.out.println("Trying to save: " + username);
+        Log.debug("Trying to save: " + username);
 
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(FILE_PATH, true)))
         {
             writer.write(username + ":" + credentials.getPasswordHash() + ":" + credentials.getSalt());
             writer.newLine();
-            System.out.println("Saved user: " + username);
+            Log.info("Saved user: " + username);
         }
         catch (IOException e)
         {
-            System.out.println("Error saving user to file: " + e.getMessage());
+            Log.error("Error saving user to file: " + e.getMessage());
         }
     }
 
@@ -192,4 +209,9 @@ class ClientAuthSystem
     {
         return registeredUsers.containsKey(username);
     }
+
+    public int getUserCount()
+    {
+        return registeredUsers.size();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public interface ClientConnection extends Closeable
+{
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    String getRemoteAddress();
+
+    boolean isClosed();
+
+    // Completes the TLS handshake if the transport has not already done so, failing with
+    // SocketTimeoutException when it takes longer than timeoutMillis (0 waits forever)
+    default void startHandshake(long timeoutMillis) throws IOException
+    {
+    }
+}
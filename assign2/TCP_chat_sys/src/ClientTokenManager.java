@@ -17,6 +17,11 @@ public class ClientTokenManager {
     private final ReadWriteLock mapsLock = new ReentrantReadWriteLock();
     private final ReentrantLock fileLock = new ReentrantLock();
 
+    private static final Metrics.Counter TOKENS_ISSUED = Metrics.counter("chat_tokens_issued_total");
+    private static final Metrics.Counter TOKEN_LOOKUPS = Metrics.counter("chat_token_lookups_total");
+    private static final Metrics.Counter TOKEN_LOOKUP_MISSES = Metrics.counter("chat_token_lookup_misses_total");
+    private static final Metrics.Histogram SAVE_TIME = Metrics.timer("chat_tokens_save_us");
+
     public static class UserToken implements Serializable
     {
         private static final long serialVersionUID = 1L; // insurance against breaking saved data when modifying class
@@ -116,7 +121,8 @@ public class ClientTokenManager {
             mapsLock.writeLock().unlock();
         }
 
-        System.out.println("Generated token for user: " + username + " with fingerprint: " + deviceFingerprint);
+        TOKENS_ISSUED.increment();
+        Log.debug("Generated token for user: " + username + " with fingerprint: " + deviceFingerprint);
 
         Thread saveThread = Thread.ofVirtual().start(() -> saveTokensToFile());
 
@@ -135,7 +141,7 @@ public class ClientTokenManager {
         }
         catch (Exception e)
         {
-            System.err.println("Error generating random token: " + e.getMessage());
+            Log.error("Error generating random token: " + e.getMessage());
 
             return UUID.randomUUID().toString() + UUID.randomUUID().toString();
         }
@@ -143,6 +149,7 @@ public class ClientTokenManager {
 
     public String findUsernameByTokenAndFingerprint(String tokenValue, String deviceFingerprint)
     {
+        TOKEN_LOOKUPS.increment();
         mapsLock.readLock().lock(); // should be a writ lock since we are changing contents inside
 
         try
@@ -178,6 +185,7 @@ public class ClientTokenManager {
                 }
             }
 
+            TOKEN_LOOKUP_MISSES.increment();
             return null;
         }
         finally
@@ -197,7 +205,7 @@ public class ClientTokenManager {
             if (token != null)
             {
                 token.updateLastAccessTime();
-                System.out.println("Found token for fingerprint: " + deviceFingerprint + ", username: " + token.getUsername());
+                Log.debug("Found token for fingerprint: " + deviceFingerprint + ", username: " + token.getUsername());
                 return token.getUsername();
             }
 
@@ -264,7 +272,7 @@ public class ClientTokenManager {
 
             if (!file.exists())
             {
-                System.out.println("No tokens file found. Starting with empty token set.");
+                Log.info("No tokens file found. Starting with empty token set.");
                 return;
             }
 
@@ -283,12 +291,11 @@ public class ClientTokenManager {
                     tokensByUsername.computeIfAbsent(token.getUsername(), k -> new ConcurrentHashMap<>()).put(token.getTokenValue(), token);
                 }
 
-                System.out.println("Loaded " + loadedTokens.size() + " tokens from file.");
+                Log.info("Loaded " + loadedTokens.size() + " tokens from file.");
             }
             catch (Exception e)
             {
-                System.err.println("Error loading tokens: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Error loading tokens: " + e.getMessage(), e);
             }
         }
         finally
@@ -303,15 +310,28 @@ public class ClientTokenManager {
 
         try
         {
+            ChatEvents.TokenPersistence event = new ChatEvents.TokenPersistence();
+            event.begin();
+
+            long start = System.nanoTime();
+            Map<String, UserToken> snapshot = new HashMap<>(tokensByFingerprint);
+
             try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(TOKENS_FILE)))
             {
-                oos.writeObject(new HashMap<>(tokensByFingerprint));
-                System.out.println("Saved " + tokensByFingerprint.size() + " tokens to file.");
+                oos.writeObject(snapshot);
+                SAVE_TIME.recordSince(start);
+                event.succeeded = true;
+                Log.debug("Saved " + snapshot.size() + " tokens to file.");
             }
             catch (Exception e)
             {
-                System.err.println("Error saving tokens: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Error saving tokens: " + e.getMessage(), e);
+            }
+
+            if (event.shouldCommit())
+            {
+                event.tokens = snapshot.size();
+                event.commit();
             }
         }
         finally
@@ -320,6 +340,11 @@ public class ClientTokenManager {
         }
     }
 
+    public int getTokenCount()
+    {
+        return tokensByFingerprint.size();
+    }
+
     public void purgeExpiredTokens()
     {
         long now = System.currentTimeMillis();
@@ -364,7 +389,7 @@ public class ClientTokenManager {
                     }
                 }
 
-                System.out.println("Purged " + tokensToRemove.size() + " expired tokens.");
+                Log.info("Purged " + tokensToRemove.size() + " expired tokens.");
             }
             finally
             {
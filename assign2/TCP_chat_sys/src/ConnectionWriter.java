@@ -0,0 +1,463 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Owns the outbound side of one connection: callers only enqueue, a dedicated virtual thread does the socket writes.
+// Messages queued within the coalescing window (or until the byte budget is hit) go out as one write and one flush.
+public class ConnectionWriter
+{
+    // What to do once a peer has more than maxPendingBytes queued and not yet written
+    public enum SlowConsumerPolicy
+    {
+        DROP_OLDEST,
+        SKIP_TO_LATEST,
+        DISCONNECT;
+
+        public static SlowConsumerPolicy fromName(String name)
+        {
+            if (name == null || name.trim().isEmpty())
+            {
+                return DROP_OLDEST;
+            }
+
+            try
+            {
+                return SlowConsumerPolicy.valueOf(name.trim().toUpperCase().replace('-', '_'));
+            }
+            catch (IllegalArgumentException e)
+            {
+                Log.warn("Unknown slow consumer policy '" + name + "', falling back to drop_oldest.");
+                return DROP_OLDEST;
+            }
+        }
+    }
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    // Queued by switchToFrames(); everything behind it is written in the binary framed form
+    private static final OutboundMessage SWITCH_TO_FRAMES = OutboundMessage.of("");
+
+    private static final LongAdder totalRecords = new LongAdder();
+    private static final LongAdder totalBytes = new LongAdder();
+    private static final LongAdder totalMessages = new LongAdder();
+
+    private static final LongAdder totalDroppedOldest = new LongAdder();
+    private static final LongAdder totalSkipped = new LongAdder();
+    private static final LongAdder totalDisconnects = new LongAdder();
+
+    private final ClientConnection connection;
+    private final OutputStream out;
+    private final BlockingQueue<OutboundMessage> queue;
+    private final Thread writerThread;
+
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final long maxPendingBytes;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    private final long coalesceWindowNanos;
+    private final ByteBuffer batch;
+    private OutboundMessage carry;
+
+    // Flipped by the writer thread when it reaches the switch marker, or by a slow-consumer purge that dropped it
+    private volatile boolean framed = false;
+
+    private volatile long recordsWritten = 0;
+    private volatile long bytesWritten = 0;
+
+    private volatile long messagesQueued = 0;
+    private volatile long messagesWritten = 0;
+
+    private final LongAdder droppedOldest = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    private volatile boolean closed = false;
+    private volatile boolean slowConsumerReported = false;
+
+    // Set for clients that asked for sequence-tagged room messages
+    private volatile boolean sequenced = false;
+
+    public ConnectionWriter(ClientConnection connection) throws IOException
+    {
+        this(connection, DEFAULT_QUEUE_CAPACITY, ServerConfig.SLOW_CONSUMER_MAX_PENDING_BYTES, ServerConfig.SLOW_CONSUMER_POLICY);
+    }
+
+    public ConnectionWriter(ClientConnection connection, int queueCapacity, long maxPendingBytes, SlowConsumerPolicy slowConsumerPolicy) throws IOException
+    {
+        this.connection = connection;
+        this.out = connection.getOutputStream();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxPendingBytes = Math.max(1, maxPendingBytes);
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.coalesceWindowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, ServerConfig.WRITE_COALESCE_WINDOW_MICROS));
+        this.batch = ByteBuffer.allocate(Math.max(256, ServerConfig.WRITE_COALESCE_BYTES));
+        this.writerThread = Thread.ofVirtual().start(this::drainLoop);
+    }
+
+    public boolean send(String message)
+    {
+        return send(OutboundMessage.of(message));
+    }
+
+    public boolean send(Frame.Type type, String message)
+    {
+        return send(OutboundMessage.of(type, message));
+    }
+
+    // Messages queued before this call still go out as lines, everything after as frames
+    public boolean switchToFrames()
+    {
+        return send(SWITCH_TO_FRAMES);
+    }
+
+    public boolean send(OutboundMessage message)
+    {
+        if (closed)
+        {
+            return false;
+        }
+
+        sendLock.lock();
+
+        try
+        {
+            if (isOverLimit(message) && !applySlowConsumerPolicy(message))
+            {
+                return false;
+            }
+
+            if (!queue.offer(message))
+            {
+                return false;
+            }
+
+            pendingBytes.addAndGet(message.size());
+            messagesQueued++;
+            return true;
+        }
+        finally
+        {
+            sendLock.unlock();
+        }
+    }
+
+    private boolean isOverLimit(OutboundMessage message)
+    {
+        long pending = pendingBytes.get();
+
+        return queue.remainingCapacity() == 0 || (pending > 0 && pending + message.size() > maxPendingBytes);
+    }
+
+    // Called with sendLock held. Returns true if the message may be queued afterwards.
+    private boolean applySlowConsumerPolicy(OutboundMessage message)
+    {
+        if (!slowConsumerReported)
+        {
+            slowConsumerReported = true;
+            Log.warn("Slow consumer " + connection.getRemoteAddress() + " has " + pendingBytes.get()
+                    + " bytes pending, applying policy " + slowConsumerPolicy);
+        }
+
+        switch (slowConsumerPolicy)
+        {
+            case DISCONNECT:
+                totalDisconnects.increment();
+                disconnect();
+                return false;
+
+            case SKIP_TO_LATEST:
+                OutboundMessage skippedMessage;
+
+                while ((skippedMessage = pollMessage()) != null)
+                {
+                    noteDropped(skippedMessage);
+                    skipped.increment();
+                    totalSkipped.increment();
+                }
+
+                return true;
+
+            default:
+                while (isOverLimit(message))
+                {
+                    OutboundMessage dropped = pollMessage();
+
+                    if (dropped == null)
+                    {
+                        break;
+                    }
+
+                    noteDropped(dropped);
+
+                    droppedOldest.increment();
+                    totalDroppedOldest.increment();
+                }
+
+                return true;
+        }
+    }
+
+    private void noteDropped(OutboundMessage message)
+    {
+        if (message == SWITCH_TO_FRAMES)
+        {
+            framed = true;
+        }
+    }
+
+    private void disconnect()
+    {
+        closed = true;
+        writerThread.interrupt();
+
+        // closing a TLS socket may itself try to write, so keep it off the broadcasting thread
+        Thread.ofVirtual().start(() -> {
+            try
+            {
+                connection.close();
+            }
+            catch (IOException e)
+            {
+                Log.error("Error disconnecting slow consumer: " + e.getMessage());
+            }
+        });
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    public boolean isSequenced()
+    {
+        return sequenced;
+    }
+
+    public void setSequenced(boolean sequenced)
+    {
+        this.sequenced = sequenced;
+    }
+
+    public long getRecordsWritten()
+    {
+        return recordsWritten;
+    }
+
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    public long getPendingBytes()
+    {
+        return pendingBytes.get();
+    }
+
+    public long getDroppedOldest()
+    {
+        return droppedOldest.sum();
+    }
+
+    public long getSkipped()
+    {
+        return skipped.sum();
+    }
+
+    public static long getTotalDroppedOldest()
+    {
+        return totalDroppedOldest.sum();
+    }
+
+    public static long getTotalSkipped()
+    {
+        return totalSkipped.sum();
+    }
+
+    public static long getTotalDisconnects()
+    {
+        return totalDisconnects.sum();
+    }
+
+    public static long getTotalRecords()
+    {
+        return totalRecords.sum();
+    }
+
+    public static long getTotalBytes()
+    {
+        return totalBytes.sum();
+    }
+
+    public static long getTotalMessages()
+    {
+        return totalMessages.sum();
+    }
+
+    public static double getAverageBytesPerRecord()
+    {
+        long records = totalRecords.sum();
+        return records == 0 ? 0.0 : (double) totalBytes.sum() / records;
+    }
+
+    // Gives the writer thread up to timeoutMillis to put everything queued so far on the wire,
+    // for a last message that should arrive before the connection is closed
+    public void awaitDrained(long timeoutMillis)
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        try
+        {
+            while (!closed && messagesWritten < messagesQueued - droppedOldest.sum() - skipped.sum() && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(5);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void close()
+    {
+        closed = true;
+        writerThread.interrupt();
+    }
+
+    private void drainLoop()
+    {
+        try
+        {
+            while (!closed)
+            {
+                writeNextBatch();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e)
+        {
+            if (!closed)
+            {
+                Log.error("Error writing to " + connection.getRemoteAddress() + ": " + e.getMessage());
+                closed = true;
+
+                try
+                {
+                    connection.close();
+                }
+                catch (IOException ignored) {}
+            }
+        }
+        finally
+        {
+            queue.clear();
+            pendingBytes.set(0);
+        }
+    }
+
+    private OutboundMessage takeMessage() throws InterruptedException
+    {
+        OutboundMessage message = queue.take();
+        pendingBytes.addAndGet(-message.size());
+
+        return message;
+    }
+
+    private OutboundMessage pollMessage()
+    {
+        OutboundMessage message = queue.poll();
+
+        if (message != null)
+        {
+            pendingBytes.addAndGet(-message.size());
+        }
+
+        return message;
+    }
+
+    private OutboundMessage pollMessage(long timeoutNanos) throws InterruptedException
+    {
+        OutboundMessage message = queue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+
+        if (message != null)
+        {
+            pendingBytes.addAndGet(-message.size());
+        }
+
+        return message;
+    }
+
+    private void writeNextBatch() throws IOException, InterruptedException
+    {
+        OutboundMessage message = carry != null ? carry : takeMessage();
+        carry = null;
+
+        if (message == SWITCH_TO_FRAMES)
+        {
+            framed = true;
+            messagesWritten++;
+            return;
+        }
+
+        if (message.size(framed) >= batch.capacity())
+        {
+            message.writeTo(out, framed);
+            out.flush();
+            countRecord(message.size(framed), 1);
+            return;
+        }
+
+        long deadline = System.nanoTime() + coalesceWindowNanos;
+        int messages = 0;
+
+        batch.clear();
+
+        while (message != null)
+        {
+            if (message == SWITCH_TO_FRAMES || batch.remaining() < message.size(framed))
+            {
+                carry = message;
+                break;
+            }
+
+            batch.put(message.buffer(framed));
+            messages++;
+
+            message = pollMessage();
+
+            if (message == null && coalesceWindowNanos > 0)
+            {
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining > 0)
+                {
+                    message = pollMessage(remaining);
+                }
+            }
+        }
+
+        out.write(batch.array(), 0, batch.position());
+        out.flush();
+        countRecord(batch.position(), messages);
+    }
+
+    private void countRecord(int bytes, int messages)
+    {
+        recordsWritten++;
+        bytesWritten += bytes;
+        messagesWritten += messages;
+
+        totalRecords.increment();
+        totalBytes.add(bytes);
+        totalMessages.add(messages);
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Binary framing, negotiated per connection as an alternative to newline-delimited lines. A frame is one
+// type byte, a four-byte big-endian payload length and the UTF-8 payload, so payloads may contain newlines
+// and the receiver knows what it got without looking inside.
+// A client opts in by making its very first bytes a CONTROL frame carrying HELLO. Every type code is below
+// 0x20, which no text line starts with, so the server tells the two protocols apart from the first byte.
+public final class Frame
+{
+    public enum Type
+    {
+        CHAT(1),
+        COMMAND(2),
+        HISTORY(3),
+        AUTH(4),
+        CONTROL(5);
+
+        private static final Type[] BY_CODE = values();
+
+        private final byte code;
+
+        Type(int code)
+        {
+            this.code = (byte) code;
+        }
+
+        public byte code()
+        {
+            return code;
+        }
+
+        // null for anything that is not a known type code
+        public static Type fromCode(int code)
+        {
+            return code >= 1 && code <= BY_CODE.length ? BY_CODE[code - 1] : null;
+        }
+    }
+
+    public static final String HELLO = "FRAMES/1";
+    public static final int HEADER_BYTES = 5;
+
+    private Frame()
+    {
+    }
+
+    public static byte[] encode(Type type, String payload)
+    {
+        byte[] encoded = payload.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[HEADER_BYTES + encoded.length];
+
+        writeHeader(frame, type, encoded.length);
+        System.arraycopy(encoded, 0, frame, HEADER_BYTES, encoded.length);
+
+        return frame;
+    }
+
+    public static void writeHeader(byte[] into, Type type, int length)
+    {
+        into[0] = type.code();
+        into[1] = (byte) (length >>> 24);
+        into[2] = (byte) (length >>> 16);
+        into[3] = (byte) (length >>> 8);
+        into[4] = (byte) length;
+    }
+
+    // Header and payload go out in a single write call
+    public static void write(OutputStream out, Type type, String payload) throws IOException
+    {
+        out.write(encode(type, payload));
+        out.flush();
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLSocket;
+
+// A chat connection without a terminal, for LoadGenerator, TrafficReplayer and the loopback benchmarks.
+// Speaks the framed protocol and logs in with a single AUTH message, the same way ChatClient does.
+final class HeadlessClient
+{
+    private final ClientConnection connection;
+    // null for connections without a socket, whose reads cannot time out
+    private final SSLSocket socket;
+    private final BoundedLineReader in;
+    private final OutputStream out;
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    private HeadlessClient(ClientConnection connection, SSLSocket socket) throws IOException
+    {
+        this.connection = connection;
+        this.socket = socket;
+        // server lines are a user's message plus a short prefix, so allow some headroom over its inbound cap
+        this.in = new BoundedLineReader(connection.getInputStream(), ServerConfig.MAX_LINE_BYTES * 2, BoundedLineReader.OversizePolicy.TRUNCATE);
+        this.out = connection.getOutputStream();
+    }
+
+    // Over the client end of ChatServer.connectLoopback()
+    static HeadlessClient over(ClientConnection connection) throws IOException
+    {
+        return new HeadlessClient(connection, null);
+    }
+
+    // Admission control resets connections it refuses, so failed attempts are retried after a growing,
+    // jittered pause; retries (may be null) counts them. Reads time out after timeoutMs until startReading().
+    static HeadlessClient connect(String host, int port, int timeoutMs, int attempts, long backoffMs, Metrics.Counter retries)
+            throws GeneralSecurityException, IOException
+    {
+        for (int attempt = 1; ; attempt++)
+        {
+            try
+            {
+                SSLSocket socket = TlsContextFactory.connect(host, port);
+                socket.setSoTimeout(timeoutMs);
+                return new HeadlessClient(new SocketClientConnection(socket), socket);
+            }
+            catch (GeneralSecurityException | IOException e)
+            {
+                if (attempt >= attempts)
+                {
+                    throw e;
+                }
+
+                if (retries != null)
+                {
+                    retries.increment();
+                }
+
+                long backoff = backoffMs * attempt;
+                parkUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff + ThreadLocalRandom.current().nextLong(backoff + 1)));
+            }
+        }
+    }
+
+    // mode is register, login, or auto (register, and log in instead when the user already exists).
+    // Returns the room the server put us in, or null when it refused us.
+    String logIn(String fingerprint, String username, String password, String mode) throws IOException
+    {
+        String attempt = mode.equals("login") ? "login" : "register";
+
+        send(Frame.Type.CONTROL, Frame.HELLO);
+        send(Frame.Type.AUTH, authRequest(fingerprint, username, password, attempt));
+        readGreeting();
+
+        while (true)
+        {
+            String reply = in.readLine();
+
+            if (reply == null)
+            {
+                return null;
+            }
+
+            if (AuthMessage.isMessage(reply, AuthMessage.ACCEPTED))
+            {
+                String room = AuthMessage.parse(reply).get(AuthMessage.ROOM);
+                return room == null ? "general" : room;
+            }
+
+            if (!reply.startsWith("AUTH_FAIL"))
+            {
+                // announcements can overtake the reply
+                continue;
+            }
+
+            if (!mode.equals("auto") || !attempt.equals("register") || !reply.contains("already exists"))
+            {
+                return null;
+            }
+
+            // the user is left over from an earlier run: the server asks again, so log in instead
+            attempt = "login";
+
+            if (in.readLine() == null)
+            {
+                return null;
+            }
+
+            send(Frame.Type.AUTH, authRequest(fingerprint, username, password, attempt));
+        }
+    }
+
+    private static String authRequest(String fingerprint, String username, String password, String mode)
+    {
+        return new AuthMessage(AuthMessage.REQUEST)
+                .put(AuthMessage.FINGERPRINT, fingerprint)
+                .put(AuthMessage.MODE, mode)
+                .put(AuthMessage.USERNAME, username)
+                .put(AuthMessage.PASSWORD, password)
+                .encode();
+    }
+
+    // An AUTH_REQUEST line, then the server's hello as the first frame
+    private void readGreeting() throws IOException
+    {
+        if (!"AUTH_REQUEST".equals(in.readLine()))
+        {
+            throw new EOFException("Server closed connection");
+        }
+
+        in.switchToFrames();
+
+        int length = in.readFrame();
+
+        if (length < 0 || in.frameType() != Frame.Type.CONTROL || !Frame.HELLO.equals(new String(in.frame(), 0, length, StandardCharsets.UTF_8)))
+        {
+            throw new IOException("Server did not accept the framed protocol");
+        }
+    }
+
+    // Waits for the server to confirm; anything that arrives before that is skipped
+    boolean join(String room) throws IOException
+    {
+        send(Frame.Type.COMMAND, "/join " + room);
+
+        String line;
+
+        while ((line = in.readLine()) != null)
+        {
+            if (line.startsWith("You have joined room:"))
+            {
+                return line.substring("You have joined room:".length()).trim().equals(room);
+            }
+        }
+
+        return false;
+    }
+
+    // Set-up is over: from here on reads wait as long as it takes
+    void startReading() throws IOException
+    {
+        if (socket != null)
+        {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    // null at end of stream
+    String readLine() throws IOException
+    {
+        return in.readLine();
+    }
+
+    void send(Frame.Type type, String text) throws IOException
+    {
+        sendLock.lock();
+
+        try
+        {
+            Frame.write(out, type, text);
+        }
+        finally
+        {
+            sendLock.unlock();
+        }
+    }
+
+    void close()
+    {
+        try
+        {
+            connection.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+    }
+
+    static void parkUntil(long deadlineNanos)
+    {
+        long remaining;
+
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.nio.charset.StandardCharsets;
+
+// Works out what an inbound chat line is straight from its UTF-8 bytes, in one pass and without
+// regexes or allocation. All markers are ASCII, and in UTF-8 an ASCII byte only ever encodes that
+// character, so matching bytes gives the same answer as matching the decoded text.
+// Precedence follows the order chatLoop has always tested lines in.
+public final class InboundClassifier
+{
+    public enum Kind
+    {
+        MESSAGE(false),
+        BOT_MENTION(false),
+        JOIN(true),
+        LEAVE(true),
+        LIST_ROOMS(true),
+        STATS(true),
+        BLOCKED_SECRET(false),
+        BLOCKED_AUTH_WORD(false);
+
+        private final boolean command;
+
+        Kind(boolean command)
+        {
+            this.command = command;
+        }
+
+        public boolean isCommand()
+        {
+            return command;
+        }
+    }
+
+    private static final byte[] TOKEN_MARKER = ascii("TOKEN:");
+    private static final byte[] BOT_MENTION = ascii("@bot");
+    private static final byte[] JOIN_PREFIX = ascii("/join ");
+    private static final byte[] LEAVE_PREFIX = ascii("/leave");
+    private static final byte[] LIST_ROOMS = ascii("/listrooms");
+    private static final byte[] STATS = ascii("/stats");
+    private static final byte[] LOGIN = ascii("login");
+    private static final byte[] REGISTER = ascii("register");
+
+    // A bare device fingerprint: SHA-256 as 64 lowercase hex digits
+    private static final int FINGERPRINT_LENGTH = 64;
+
+    // Where the room name starts in a JOIN line
+    public static final int JOIN_ARGUMENT_OFFSET = JOIN_PREFIX.length;
+
+    private InboundClassifier()
+    {
+    }
+
+    private static byte[] ascii(String text)
+    {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static Kind classify(byte[] buffer, int offset, int length)
+    {
+        int end = offset + length;
+
+        boolean hasToken = false;
+        boolean hasBot = false;
+        boolean allHex = length == FINGERPRINT_LENGTH;
+
+        for (int i = offset; i < end; i++)
+        {
+            byte b = buffer[i];
+
+            if (allHex && !((b >= '0' && b <= '9') || (b >= 'a' && b <= 'f')))
+            {
+                allHex = false;
+            }
+
+            if (b == 'T')
+            {
+                hasToken = hasToken || startsWith(buffer, i, end, TOKEN_MARKER);
+            }
+            else if (b == '@')
+            {
+                hasBot = hasBot || startsWith(buffer, i, end, BOT_MENTION);
+            }
+        }
+
+        if (hasToken || allHex)
+        {
+            return Kind.BLOCKED_SECRET;
+        }
+
+        if (equalsIgnoreAsciiCase(buffer, offset, length, LOGIN) || equalsIgnoreAsciiCase(buffer, offset, length, REGISTER))
+        {
+            return Kind.BLOCKED_AUTH_WORD;
+        }
+
+        if (startsWith(buffer, offset, end, JOIN_PREFIX))
+        {
+            return Kind.JOIN;
+        }
+
+        if (hasBot)
+        {
+            return Kind.BOT_MENTION;
+        }
+
+        if (startsWith(buffer, offset, end, LEAVE_PREFIX))
+        {
+            return Kind.LEAVE;
+        }
+
+        if (length == LIST_ROOMS.length && startsWith(buffer, offset, end, LIST_ROOMS))
+        {
+            return Kind.LIST_ROOMS;
+        }
+
+        if (length == STATS.length && startsWith(buffer, offset, end, STATS))
+        {
+            return Kind.STATS;
+        }
+
+        return Kind.MESSAGE;
+    }
+
+    private static boolean startsWith(byte[] buffer, int offset, int end, byte[] prefix)
+    {
+        if (end - offset < prefix.length)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if (buffer[offset + i] != prefix[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // expected must be lowercase ASCII
+    private static boolean equalsIgnoreAsciiCase(byte[] buffer, int offset, int length, byte[] expected)
+    {
+        if (length != expected.length)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            int b = buffer[offset + i];
+
+            if (b >= 'A' && b <= 'Z')
+            {
+                b += 'a' - 'A';
+            }
+
+            if (b != expected[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
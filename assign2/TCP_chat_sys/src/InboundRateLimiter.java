@@ -0,0 +1,239 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token buckets on what clients send. Each connection gets its own message and command buckets,
+// and chat messages also draw from a bucket shared by all of the user's connections in the same room.
+// Limits come from the room the client is in, so busy rooms can be throttled harder than quiet ones.
+public class InboundRateLimiter
+{
+    public enum Overflow
+    {
+        DROP,
+        DEFER;
+
+        public static Overflow fromName(String name)
+        {
+            if (name == null || name.trim().isEmpty())
+            {
+                return DROP;
+            }
+
+            try
+            {
+                return Overflow.valueOf(name.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                Log.warn("Unknown rate limit overflow mode '" + name + "', falling back to drop.");
+                return DROP;
+            }
+        }
+    }
+
+    // Defaults come from chat.rateLimit.*, a room can override them with chat.rateLimit.room.<name>.*
+    public record Limits(double messagesPerSecond, double messageBurst, double commandsPerSecond, double commandBurst)
+    {
+        public static Limits forRoom(String roomName)
+        {
+            String prefix = "chat.rateLimit.room." + roomName + ".";
+
+            return new Limits(
+                    ServerConfig.doubleProperty(prefix + "messagesPerSecond", ServerConfig.RATE_LIMIT_MESSAGES_PER_SECOND),
+                    ServerConfig.doubleProperty(prefix + "messageBurst", ServerConfig.RATE_LIMIT_MESSAGE_BURST),
+                    ServerConfig.doubleProperty(prefix + "commandsPerSecond", ServerConfig.RATE_LIMIT_COMMANDS_PER_SECOND),
+                    ServerConfig.doubleProperty(prefix + "commandBurst", ServerConfig.RATE_LIMIT_COMMAND_BURST));
+        }
+    }
+
+    private static final int SWEEP_THRESHOLD = 4096;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long NOTICE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime() - SWEEP_INTERVAL_NANOS);
+    private final double userFactor;
+    private final Overflow overflow;
+    private final long maxDeferNanos;
+
+    public InboundRateLimiter()
+    {
+        this(ServerConfig.RATE_LIMIT_USER_FACTOR, ServerConfig.RATE_LIMIT_OVERFLOW, ServerConfig.RATE_LIMIT_MAX_DEFER_MS);
+    }
+
+    public InboundRateLimiter(double userFactor, Overflow overflow, long maxDeferMs)
+    {
+        this.userFactor = Math.max(1, userFactor);
+        this.overflow = overflow;
+        this.maxDeferNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDeferMs));
+    }
+
+    public Session openSession(String username, ConnectionWriter writer)
+    {
+        return new Session(username, writer);
+    }
+
+    public int getTrackedUsers()
+    {
+        return userBuckets.size();
+    }
+
+    private TokenBucket userBucket(String username, ServerRoom room)
+    {
+        sweepIdleUsers();
+
+        Limits limits = room.getRateLimits();
+
+        return userBuckets.computeIfAbsent(username + '\u0000' + room.getName(),
+                key -> new TokenBucket(limits.messageBurst() * userFactor, limits.messagesPerSecond() * userFactor));
+    }
+
+    // Full buckets are dropped once many are tracked, but one pass over the map at most per interval: while its
+    // users stay active the map stays above the threshold, and every room entry would scan it again
+    private void sweepIdleUsers()
+    {
+        if (userBuckets.size() <= SWEEP_THRESHOLD)
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long last = lastSweepNanos.get();
+
+        if (now - last >= SWEEP_INTERVAL_NANOS && lastSweepNanos.compareAndSet(last, now))
+        {
+            userBuckets.values().removeIf(TokenBucket::isFull);
+        }
+    }
+
+    // One per connection, used only by that connection's handler thread
+    public final class Session
+    {
+        private final String username;
+        private final ConnectionWriter writer;
+
+        private ServerRoom room;
+        private Limits limits;
+        private TokenBucket messages;
+        private TokenBucket commands;
+        private TokenBucket userMessages;
+
+        private long lastNoticeNanos = System.nanoTime() - NOTICE_INTERVAL_NANOS;
+
+        private Session(String username, ConnectionWriter writer)
+        {
+            this.username = username;
+            this.writer = writer;
+        }
+
+        // Returns true if the line may be handled now, possibly after waiting for tokens in DEFER mode
+        public boolean admit(boolean command, ServerRoom currentRoom)
+        {
+            if (room != currentRoom)
+            {
+                enterRoom(currentRoom);
+            }
+
+            if (tryAcquire(command))
+            {
+                return true;
+            }
+
+            if (overflow == Overflow.DEFER && defer(command))
+            {
+                room.recordDeferred();
+                notifySender("[Server] You are sending too fast, your messages are being delayed.");
+                return true;
+            }
+
+            room.recordDropped();
+            notifySender("[Server] You are sending too fast, " + (command ? "command" : "message") + " dropped.");
+            return false;
+        }
+
+        // The connection's buckets outlive a room change, or hopping between rooms would refill them. A room
+        // with other limits gets new buckets that start with whatever tokens were left.
+        private void enterRoom(ServerRoom newRoom)
+        {
+            Limits newLimits = newRoom.getRateLimits();
+
+            if (!newLimits.equals(limits))
+            {
+                messages = new TokenBucket(newLimits.messageBurst(), newLimits.messagesPerSecond(),
+                        messages == null ? newLimits.messageBurst() : messages.available());
+                commands = new TokenBucket(newLimits.commandBurst(), newLimits.commandsPerSecond(),
+                        commands == null ? newLimits.commandBurst() : commands.available());
+                limits = newLimits;
+            }
+
+            room = newRoom;
+            userMessages = userBucket(username, newRoom);
+        }
+
+        private boolean tryAcquire(boolean command)
+        {
+            if (command)
+            {
+                return commands.tryAcquire();
+            }
+
+            if (!messages.tryAcquire())
+            {
+                return false;
+            }
+
+            // the user's bucket is shared with their other connections, so it can refuse after this one agreed
+            if (!userMessages.tryAcquire())
+            {
+                messages.refund(1);
+                return false;
+            }
+
+            return true;
+        }
+
+        private boolean defer(boolean command)
+        {
+            long deadline = System.nanoTime() + maxDeferNanos;
+
+            try
+            {
+                while (true)
+                {
+                    long wait = command
+                            ? commands.nanosUntilAvailable(1)
+                            : Math.max(messages.nanosUntilAvailable(1), userMessages.nanosUntilAvailable(1));
+
+                    if (System.nanoTime() + wait > deadline)
+                    {
+                        return false;
+                    }
+
+                    TimeUnit.NANOSECONDS.sleep(wait);
+
+                    if (tryAcquire(command))
+                    {
+                        return true;
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void notifySender(String notice)
+        {
+            long now = System.nanoTime();
+
+            if (now - lastNoticeNanos >= NOTICE_INTERVAL_NANOS)
+            {
+                lastNoticeNanos = now;
+                writer.send(notice);
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Headless load generator. Opens many TLS connections from virtual threads, each speaking the same framed,
+// single-message login as ChatClient, spreads them over a number of rooms and has every client send at a
+// fixed rate. Each message carries its send time, so the other members of the room (all in this process)
+// measure send-to-receive latency directly. Prints one JSON report to stdout; progress goes to stderr.
+// Usage: java -Dload.clients=1000 -Dload.rooms=10 -cp out LoadGenerator [host] [port]
+// The server's admission and rate limits apply to these clients too: raise chat.admission.perIpRate/perIpBurst
+// for fast ramp-ups, and keep load.rate under chat.rateLimit.messagesPerSecond.
+public final class LoadGenerator
+{
+    private static final int CLIENTS = Integer.getInteger("load.clients", 100);
+    private static final int ROOMS = Math.max(1, Integer.getInteger("load.rooms", 10));
+    private static final double RATE = ServerConfig.doubleProperty("load.rate", 1);
+    private static final long DURATION_SECONDS = Long.getLong("load.durationSeconds", 30);
+    private static final long RAMP_UP_SECONDS = Long.getLong("load.rampUpSeconds", 10);
+    private static final long DRAIN_MS = Long.getLong("load.drainMs", 2000);
+    private static final int TIMEOUT_MS = Integer.getInteger("load.timeoutMs", 10000);
+    // connections reset by admission control are retried, see HeadlessClient.connect
+    private static final int CONNECT_ATTEMPTS = Math.max(1, Integer.getInteger("load.connectAttempts", 5));
+    private static final long CONNECT_BACKOFF_MS = Long.getLong("load.connectBackoffMs", 500);
+    private static final int MESSAGE_BYTES = Integer.getInteger("load.messageBytes", 0);
+    // register, login, or auto (register, and log in instead when the user exists from an earlier run)
+    private static final String MODE = System.getProperty("load.mode", "auto").trim().toLowerCase(Locale.ROOT);
+    private static final String USER_PREFIX = System.getProperty("load.userPrefix", "load");
+    private static final String PASSWORD = System.getProperty("load.password", "load-password");
+    private static final String OUTPUT = System.getProperty("load.output");
+
+    private static final String RATE_LIMIT_NOTICE = "[Server] You are sending too fast";
+
+    private static final Metrics.Histogram LATENCY = Metrics.timer("load_latency_us");
+    private static final Metrics.Histogram CONNECT_TIME = Metrics.timer("load_connect_us");
+    private static final Metrics.Histogram LOGIN_TIME = Metrics.timer("load_login_us");
+    private static final Metrics.Histogram JOIN_TIME = Metrics.timer("load_join_us");
+    private static final Metrics.Counter CONNECTED = Metrics.counter("load_connected_total");
+    private static final Metrics.Counter CONNECT_FAILURES = Metrics.counter("load_connect_failures_total");
+    private static final Metrics.Counter CONNECT_RETRIES = Metrics.counter("load_connect_retries_total");
+    private static final Metrics.Counter AUTH_FAILURES = Metrics.counter("load_auth_failures_total");
+    private static final Metrics.Counter JOIN_FAILURES = Metrics.counter("load_join_failures_total");
+    private static final Metrics.Counter DISCONNECTS = Metrics.counter("load_disconnects_total");
+    private static final Metrics.Counter SENT = Metrics.counter("load_sent_total");
+    private static final Metrics.Counter SEND_ERRORS = Metrics.counter("load_send_errors_total");
+    private static final Metrics.Counter EXPECTED = Metrics.counter("load_expected_total");
+    private static final Metrics.Counter RECEIVED = Metrics.counter("load_received_total");
+    private static final Metrics.Counter RATE_LIMITED = Metrics.counter("load_rate_limited_total");
+
+    private final String host;
+    private final int port;
+    private final String runId = UUID.randomUUID().toString();
+    // room history can replay messages from earlier runs, whose timestamps mean nothing in this process
+    private final String marker = ": lg " + runId.substring(0, 8) + " ";
+    private final Client[] clients = new Client[CLIENTS];
+    private final AtomicIntegerArray roomMembers = new AtomicIntegerArray(ROOMS);
+    private final CountDownLatch ready = new CountDownLatch(CLIENTS);
+    private final CountDownLatch go = new CountDownLatch(1);
+
+    private volatile long sendStartNanos;
+    private volatile long sendEndNanos;
+    private volatile boolean closing = false;
+
+    public LoadGenerator(String host, int port)
+    {
+        this.host = host;
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+
+        if (!MODE.equals("auto") && !MODE.equals("register") && !MODE.equals("login"))
+        {
+            System.err.println("load.mode must be auto, register or login");
+            System.exit(2);
+        }
+
+        String report = new LoadGenerator(host, port).run();
+
+        System.out.println(report);
+
+        if (OUTPUT != null)
+        {
+            try (PrintWriter out = new PrintWriter(new FileWriter(OUTPUT, StandardCharsets.UTF_8)))
+            {
+                out.println(report);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not write " + OUTPUT + ": " + e.getMessage());
+            }
+        }
+
+        // readers of connections the server has not closed yet are still parked in reads
+        System.exit(0);
+    }
+
+    public String run() throws InterruptedException
+    {
+        long rampStart = System.nanoTime();
+        long rampNanos = TimeUnit.SECONDS.toNanos(RAMP_UP_SECONDS);
+
+        for (int i = 0; i < CLIENTS; i++)
+        {
+            Client client = new Client(i, rampStart + (CLIENTS > 1 ? rampNanos * i / (CLIENTS - 1) : 0));
+            clients[i] = client;
+            Thread.ofVirtual().name("load-" + i).start(client::run);
+        }
+
+        long setupDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RAMP_UP_SECONDS) + 3L * TIMEOUT_MS;
+
+        while (!ready.await(1, TimeUnit.SECONDS))
+        {
+            progress("setup");
+
+            if (System.currentTimeMillis() > setupDeadline)
+            {
+                System.err.println("Setup did not finish in time; starting with the clients that are ready.");
+                break;
+            }
+        }
+
+        progress("setup done");
+
+        sendStartNanos = System.nanoTime();
+        sendEndNanos = sendStartNanos + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        go.countDown();
+
+        while (System.nanoTime() < sendEndNanos)
+        {
+            Thread.sleep(Math.min(1000, Math.max(1, TimeUnit.NANOSECONDS.toMillis(sendEndNanos - System.nanoTime()))));
+            progress("sending");
+        }
+
+        // let messages still in flight arrive before hanging up
+        Thread.sleep(DRAIN_MS);
+        closing = true;
+
+        for (Client client : clients)
+        {
+            client.close();
+        }
+
+        return report();
+    }
+
+    private void progress(String phase)
+    {
+        System.err.println(phase + ": connected=" + CONNECTED.get() + "/" + CLIENTS
+                + " failed=" + (CONNECT_FAILURES.get() + AUTH_FAILURES.get() + JOIN_FAILURES.get())
+                + " sent=" + SENT.get() + " received=" + RECEIVED.get()
+                + " p99=" + format(LATENCY.getQuantile(0.99)) + "us");
+    }
+
+    private final class Client
+    {
+        private final int index;
+        private final long startAtNanos;
+        private final String username;
+        private final int room;
+        private final String roomName;
+        private volatile HeadlessClient connection;
+
+        Client(int index, long startAtNanos)
+        {
+            this.index = index;
+            this.startAtNanos = startAtNanos;
+            this.username = USER_PREFIX + "-" + index;
+            this.room = index % ROOMS;
+            this.roomName = USER_PREFIX + "-room-" + room;
+        }
+
+        void run()
+        {
+            boolean joined = false;
+
+            try
+            {
+                HeadlessClient.parkUntil(startAtNanos);
+                joined = setUp();
+            }
+            finally
+            {
+                ready.countDown();
+            }
+
+            if (!joined)
+            {
+                close();
+                return;
+            }
+
+            Thread.ofVirtual().name("load-" + index + "-reader").start(this::readLoop);
+
+            try
+            {
+                go.await();
+                sendLoop();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private boolean setUp()
+        {
+            long start = System.nanoTime();
+            HeadlessClient connected;
+
+            try
+            {
+                connected = HeadlessClient.connect(host, port, TIMEOUT_MS, CONNECT_ATTEMPTS, CONNECT_BACKOFF_MS, CONNECT_RETRIES);
+            }
+            catch (Exception e)
+            {
+                CONNECT_FAILURES.increment();
+                return false;
+            }
+
+            CONNECT_TIME.recordSince(start);
+            connection = connected;
+
+            // a timeout or hang-up counts against the step it interrupted
+            Metrics.Counter failures = AUTH_FAILURES;
+
+            try
+            {
+                long loginStart = System.nanoTime();
+                String currentRoom = connected.logIn("load-" + runId + "-" + index, username, PASSWORD, MODE);
+
+                if (currentRoom == null)
+                {
+                    AUTH_FAILURES.increment();
+                    return false;
+                }
+
+                LOGIN_TIME.recordSince(loginStart);
+                failures = JOIN_FAILURES;
+
+                long joinStart = System.nanoTime();
+
+                if (!roomName.equals(currentRoom) && !connected.join(roomName))
+                {
+                    JOIN_FAILURES.increment();
+                    return false;
+                }
+
+                JOIN_TIME.recordSince(joinStart);
+
+                connected.startReading();
+                roomMembers.incrementAndGet(room);
+                CONNECTED.increment();
+                return true;
+            }
+            catch (IOException e)
+            {
+                failures.increment();
+                return false;
+            }
+        }
+
+        private void sendLoop()
+        {
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / RATE);
+            // spread the clients over the interval so they do not all send in the same instant
+            long next = sendStartNanos + ThreadLocalRandom.current().nextLong(Math.max(1, interval));
+            String padding = MESSAGE_BYTES > 0 ? " " + "x".repeat(MESSAGE_BYTES) : "";
+
+            while (next < sendEndNanos && !closing)
+            {
+                HeadlessClient.parkUntil(next);
+
+                long now = System.nanoTime();
+
+                try
+                {
+                    connection.send(Frame.Type.CHAT, marker.substring(2) + now + padding);
+                }
+                catch (IOException e)
+                {
+                    if (!closing)
+                    {
+                        SEND_ERRORS.increment();
+                    }
+
+                    return;
+                }
+
+                SENT.increment();
+                EXPECTED.add(roomMembers.get(room) - 1);
+
+                // fell behind (a long pause on our side): skip the missed slots rather than send a burst
+                next = Math.max(next + interval, now);
+            }
+        }
+
+        private void readLoop()
+        {
+            try
+            {
+                String line;
+
+                while ((line = connection.readLine()) != null)
+                {
+                    String text = RoomMessage.parse(line).text();
+                    int found = text.indexOf(marker);
+
+                    if (found > 0)
+                    {
+                        int start = found + marker.length();
+                        int end = text.indexOf(' ', start);
+
+                        try
+                        {
+                            LATENCY.recordSince(Long.parseLong(end < 0 ? text.substring(start) : text.substring(start, end)));
+                            RECEIVED.increment();
+                        }
+                        catch (NumberFormatException ignored) {}
+                    }
+                    else if (text.startsWith(RATE_LIMIT_NOTICE))
+                    {
+                        RATE_LIMITED.increment();
+                    }
+                }
+            }
+            catch (IOException ignored)
+            {
+            }
+
+            if (!closing)
+            {
+                DISCONNECTS.increment();
+            }
+        }
+
+        void close()
+        {
+            HeadlessClient current = connection;
+
+            if (current != null)
+            {
+                current.close();
+            }
+        }
+    }
+
+    private String report()
+    {
+        double seconds = Math.max(1e-9, (Math.min(System.nanoTime(), sendEndNanos) - sendStartNanos) / 1e9);
+
+        StringBuilder json = new StringBuilder(1024);
+
+        json.append("{\"config\":{")
+                .append("\"host\":\"").append(host.replace("\\", "\\\\").replace("\"", "\\\"")).append('"')
+                .append(",\"port\":").append(port)
+                .append(",\"clients\":").append(CLIENTS)
+                .append(",\"rooms\":").append(ROOMS)
+                .append(",\"ratePerClient\":").append(format(RATE))
+                .append(",\"durationSeconds\":").append(DURATION_SECONDS)
+                .append(",\"rampUpSeconds\":").append(RAMP_UP_SECONDS)
+                .append(",\"messageBytes\":").append(MESSAGE_BYTES)
+                .append(",\"mode\":\"").append(MODE).append('"')
+                .append("},\"clients\":{")
+                .append("\"connected\":").append(CONNECTED.get())
+                .append(",\"connectFailures\":").append(CONNECT_FAILURES.get())
+                .append(",\"connectRetries\":").append(CONNECT_RETRIES.get())
+                .append(",\"authFailures\":").append(AUTH_FAILURES.get())
+                .append(",\"joinFailures\":").append(JOIN_FAILURES.get())
+                .append(",\"disconnects\":").append(DISCONNECTS.get())
+                .append("},\"messages\":{")
+                .append("\"sent\":").append(SENT.get())
+                .append(",\"expected\":").append(EXPECTED.get())
+                .append(",\"received\":").append(RECEIVED.get())
+                .append(",\"sendErrors\":").append(SEND_ERRORS.get())
+                .append(",\"rateLimitNotices\":").append(RATE_LIMITED.get())
+                .append("},\"throughput\":{")
+                .append("\"sentPerSecond\":").append(format(SENT.get() / seconds))
+                .append(",\"receivedPerSecond\":").append(format(RECEIVED.get() / seconds))
+                .append('}');
+
+        json.append(",\"latencyMicros\":").append(LATENCY.toJson())
+                .append(",\"connectMicros\":").append(CONNECT_TIME.toJson())
+                .append(",\"loginMicros\":").append(LOGIN_TIME.toJson())
+                .append(",\"joinMicros\":").append(JOIN_TIME.toJson());
+
+        return json.append('}').toString();
+    }
+
+    private static String format(double value)
+    {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
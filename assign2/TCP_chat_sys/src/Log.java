@@ -0,0 +1,321 @@
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Asynchronous logger. Callers only claim a slot in a fixed-size ring (one CAS, no lock) and return;
+// a background thread formats and writes whole batches to stdout. When the ring is full the entry is
+// dropped and counted instead of making the caller wait, and the drainer reports how many were lost.
+// -Dchat.log.level=debug|info|warn|error|off (default info), -Dchat.log.bufferSize (default 8192).
+public final class Log
+{
+    public enum Level
+    {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        OFF;
+
+        public static Level fromName(String name)
+        {
+            if (name == null || name.trim().isEmpty())
+            {
+                return INFO;
+            }
+
+            try
+            {
+                return Level.valueOf(name.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                System.out.println("Unknown log level '" + name + "', falling back to info.");
+                return INFO;
+            }
+        }
+    }
+
+    private record Entry(long timeMillis, Level level, String thread, long threadId, String message, Throwable error)
+    {
+    }
+
+    private static final Level LEVEL = Level.fromName(System.getProperty("chat.log.level"));
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(64, Integer.getInteger("chat.log.bufferSize", 8192)));
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    // Bounded multi-producer ring: a slot may be written when its sequence equals the claimed position
+    // and read once it is position + 1; the reader hands it back by setting position + CAPACITY
+    private static final Entry[] entries = new Entry[CAPACITY];
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static long head = 0;
+
+    private static final LongAdder written = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+    private static long droppedReported = 0;
+
+    private static final PrintStream out = System.out;
+    private static final StringBuilder batch = new StringBuilder(16 * 1024);
+
+    // held by whoever is draining: the background thread, or flush() at shutdown
+    private static final ReentrantLock drainLock = new ReentrantLock();
+    private static volatile boolean drainerParked = false;
+    private static final Thread drainer;
+
+    static
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            sequences.set(i, i);
+        }
+
+        // a platform thread, so console writes never occupy a virtual thread carrier
+        drainer = Thread.ofPlatform().name("chat-log").daemon(true).start(Log::drainLoop);
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
+
+    private Log()
+    {
+    }
+
+    public static boolean isEnabled(Level level)
+    {
+        return level.ordinal() >= LEVEL.ordinal() && level != Level.OFF;
+    }
+
+    public static boolean isDebugEnabled()
+    {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void debug(String message)
+    {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message)
+    {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message)
+    {
+        log(Level.WARN, message, null);
+    }
+
+    public static void error(String message)
+    {
+        log(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error)
+    {
+        log(Level.ERROR, message, error);
+    }
+
+    public static long getWritten()
+    {
+        return written.sum();
+    }
+
+    public static long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    public static int getCapacity()
+    {
+        return CAPACITY;
+    }
+
+    private static void log(Level level, String message, Throwable error)
+    {
+        if (!isEnabled(level))
+        {
+            return;
+        }
+
+        Thread current = Thread.currentThread();
+        Entry entry = new Entry(System.currentTimeMillis(), level, current.getName(), current.threadId(), message, error);
+
+        if (!offer(entry))
+        {
+            dropped.increment();
+            return;
+        }
+
+        if (drainerParked)
+        {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    private static boolean offer(Entry entry)
+    {
+        long position = tail.get();
+
+        while (true)
+        {
+            int index = (int) (position & MASK);
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    entries[index] = entry;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+
+                position = tail.get();
+            }
+            else if (difference < 0)
+            {
+                // the slot still holds an entry from one lap ago: the ring is full
+                return false;
+            }
+            else
+            {
+                position = tail.get();
+            }
+        }
+    }
+
+    // Only called with drainLock held
+    private static Entry poll()
+    {
+        int index = (int) (head & MASK);
+
+        if (sequences.get(index) != head + 1)
+        {
+            return null;
+        }
+
+        Entry entry = entries[index];
+        entries[index] = null;
+        sequences.set(index, head + CAPACITY);
+        head++;
+
+        return entry;
+    }
+
+    private static void drainLoop()
+    {
+        while (true)
+        {
+            if (drain() > 0)
+            {
+                continue;
+            }
+
+            drainerParked = true;
+
+            // re-check after announcing, so an entry published just before is not left waiting
+            if (!isEmpty())
+            {
+                drainerParked = false;
+                continue;
+            }
+
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+            drainerParked = false;
+        }
+    }
+
+    private static boolean isEmpty()
+    {
+        drainLock.lock();
+
+        try
+        {
+            return sequences.get((int) (head & MASK)) != head + 1;
+        }
+        finally
+        {
+            drainLock.unlock();
+        }
+    }
+
+    // Writes out one batch; returns how many entries it took
+    private static int drain()
+    {
+        drainLock.lock();
+
+        try
+        {
+            int count = 0;
+            Entry entry;
+
+            batch.setLength(0);
+
+            while (count < MAX_BATCH && (entry = poll()) != null)
+            {
+                format(entry);
+                count++;
+            }
+
+            long lost = dropped.sum();
+
+            if (lost > droppedReported)
+            {
+                format(new Entry(System.currentTimeMillis(), Level.WARN, Thread.currentThread().getName(), Thread.currentThread().threadId(),
+                        (lost - droppedReported) + " log messages dropped, buffer of " + CAPACITY + " was full", null));
+                droppedReported = lost;
+            }
+
+            if (batch.length() > 0)
+            {
+                out.print(batch);
+                out.flush();
+            }
+
+            written.add(count);
+            return count;
+        }
+        finally
+        {
+            drainLock.unlock();
+        }
+    }
+
+    private static void format(Entry entry)
+    {
+        batch.append(TIME.format(LocalTime.ofInstant(Instant.ofEpochMilli(entry.timeMillis()), ZONE)))
+                .append(' ')
+                .append(entry.level())
+                .append(entry.level().name().length() == 4 ? "  [" : " [")
+                .append(entry.thread().isEmpty() ? "virtual-" + entry.threadId() : entry.thread())
+                .append("] ")
+                .append(entry.message())
+                .append(System.lineSeparator());
+
+        if (entry.error() != null)
+        {
+            StringWriter trace = new StringWriter();
+            entry.error().printStackTrace(new PrintWriter(trace));
+            batch.append(trace);
+        }
+    }
+
+    // Writes out everything logged so far; used at shutdown
+    public static void flush()
+    {
+        while (drain() > 0)
+        {
+        }
+    }
+}
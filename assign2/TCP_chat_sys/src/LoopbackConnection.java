@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-memory ClientConnection for running the whole server in one JVM against simulated clients, with no
+// sockets, TLS or kernel in the way. A pair is two bounded byte pipes, one per direction: open() returns one
+// end and peer() the other. Writes block while a pipe is full, like a socket's send buffer. Closing an end
+// lets the peer read what was already written and then see end of stream, and makes the peer's writes fail.
+public final class LoopbackConnection implements ClientConnection
+{
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final String remoteAddress;
+    private final Pipe inbound;
+    private final Pipe outbound;
+    private LoopbackConnection peer;
+    private volatile boolean closed = false;
+
+    private LoopbackConnection(String remoteAddress, Pipe inbound, Pipe outbound)
+    {
+        this.remoteAddress = remoteAddress;
+        this.inbound = inbound;
+        this.outbound = outbound;
+    }
+
+    public static LoopbackConnection open(String remoteAddress)
+    {
+        return open(remoteAddress, DEFAULT_CAPACITY);
+    }
+
+    // capacity is the number of bytes each direction buffers before writers block
+    public static LoopbackConnection open(String remoteAddress, int capacity)
+    {
+        Pipe toServer = new Pipe(capacity);
+        Pipe toClient = new Pipe(capacity);
+
+        LoopbackConnection server = new LoopbackConnection(remoteAddress, toServer, toClient);
+        LoopbackConnection client = new LoopbackConnection("loopback-server", toClient, toServer);
+
+        server.peer = client;
+        client.peer = server;
+
+        return server;
+    }
+
+    public LoopbackConnection peer()
+    {
+        return peer;
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return inbound.input;
+    }
+
+    @Override
+    public OutputStream getOutputStream()
+    {
+        return outbound.output;
+    }
+
+    @Override
+    public String getRemoteAddress()
+    {
+        return remoteAddress;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        inbound.closeReader();
+        outbound.closeWriter();
+    }
+
+    // Bounded byte ring guarded by a ReentrantLock rather than a monitor, so a virtual thread waiting on
+    // either side unmounts instead of pinning its carrier
+    private static final class Pipe
+    {
+        private final byte[] buffer;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+
+        private int head = 0;
+        private int count = 0;
+        private boolean readerClosed = false;
+        private boolean writerClosed = false;
+
+        final InputStream input = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] one = new byte[1];
+                return Pipe.this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] into, int offset, int length) throws IOException
+            {
+                return Pipe.this.read(into, offset, length);
+            }
+
+            @Override
+            public int available()
+            {
+                return Pipe.this.available();
+            }
+
+            @Override
+            public void close()
+            {
+                closeReader();
+            }
+        };
+
+        final OutputStream output = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                Pipe.this.write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] from, int offset, int length) throws IOException
+            {
+                Pipe.this.write(from, offset, length);
+            }
+
+            @Override
+            public void close()
+            {
+                closeWriter();
+            }
+        };
+
+        Pipe(int capacity)
+        {
+            this.buffer = new byte[Math.max(1, capacity)];
+        }
+
+        int read(byte[] into, int offset, int length) throws IOException
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+
+            lock.lock();
+
+            try
+            {
+                while (count == 0)
+                {
+                    if (readerClosed)
+                    {
+                        throw new IOException("Connection closed");
+                    }
+
+                    // the other end hung up and everything it wrote has been read
+                    if (writerClosed)
+                    {
+                        return -1;
+                    }
+
+                    await(notEmpty);
+                }
+
+                if (readerClosed)
+                {
+                    throw new IOException("Connection closed");
+                }
+
+                int read = Math.min(length, count);
+                int first = Math.min(read, buffer.length - head);
+
+                System.arraycopy(buffer, head, into, offset, first);
+                System.arraycopy(buffer, 0, into, offset + first, read - first);
+
+                head = (head + read) % buffer.length;
+                count -= read;
+                notFull.signalAll();
+
+                return read;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        void write(byte[] from, int offset, int length) throws IOException
+        {
+            lock.lock();
+
+            try
+            {
+                while (length > 0)
+                {
+                    while (count == buffer.length && !readerClosed && !writerClosed)
+                    {
+                        await(notFull);
+                    }
+
+                    if (writerClosed)
+                    {
+                        throw new IOException("Connection closed");
+                    }
+
+                    if (readerClosed)
+                    {
+                        throw new IOException("Connection reset by peer");
+                    }
+
+                    int tail = (head + count) % buffer.length;
+                    int written = Math.min(length, buffer.length - count);
+                    int first = Math.min(written, buffer.length - tail);
+
+                    System.arraycopy(from, offset, buffer, tail, first);
+                    System.arraycopy(from, offset + first, buffer, 0, written - first);
+
+                    count += written;
+                    offset += written;
+                    length -= written;
+                    notEmpty.signalAll();
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        int available()
+        {
+            lock.lock();
+
+            try
+            {
+                return count;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        void closeReader()
+        {
+            lock.lock();
+
+            try
+            {
+                readerClosed = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        void closeWriter()
+        {
+            lock.lock();
+
+            try
+            {
+                writerClosed = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        private static void await(Condition condition) throws InterruptedIOException
+        {
+            try
+            {
+                condition.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting on a loopback connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+// Process-wide metrics: counters, gauges read on demand, and log-linear latency histograms.
+// Recording is a LongAdder or atomic array increment, so it is cheap enough for per-message paths.
+// Everything is rendered in the Prometheus text format, served on /metrics of a loopback-only HTTP
+// endpoint (-Dchat.metrics.port, off by default) and shown to administrators by the /stats command.
+public final class Metrics
+{
+    private interface Metric
+    {
+        void render(String name, StringBuilder out);
+    }
+
+    public static final class Counter implements Metric
+    {
+        private final LongAdder value = new LongAdder();
+
+        public void increment()
+        {
+            value.increment();
+        }
+
+        public void add(long amount)
+        {
+            value.add(amount);
+        }
+
+        public long get()
+        {
+            return value.sum();
+        }
+
+        @Override
+        public void render(String name, StringBuilder out)
+        {
+            out.append(name).append(' ').append(get()).append('\n');
+        }
+    }
+
+    private record Gauge(DoubleSupplier value) implements Metric
+    {
+        @Override
+        public void render(String name, StringBuilder out)
+        {
+            out.append(name).append(' ').append(format(value.getAsDouble())).append('\n');
+        }
+    }
+
+    // One gauge per label value, for sets that come and go such as rooms
+    private record GaugeFamily(String label, Supplier<Map<String, ? extends Number>> values) implements Metric
+    {
+        @Override
+        public void render(String name, StringBuilder out)
+        {
+            for (Map.Entry<String, ? extends Number> entry : values.get().entrySet())
+            {
+                out.append(name).append('{').append(label).append("=\"").append(escapeLabel(entry.getKey())).append("\"} ")
+                        .append(format(entry.getValue().doubleValue())).append('\n');
+            }
+        }
+    }
+
+    // HDR-style histogram: values below 2 * SUB_BUCKETS are counted exactly, larger ones in SUB_BUCKETS
+    // linear steps per power of two, which bounds the error of any reported quantile to about 3%.
+    public static final class Histogram implements Metric
+    {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final long MAX_VALUE = (1L << 40) - 1;
+        private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+        private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+        private final double unitDivisor;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram(double unitDivisor)
+        {
+            this.unitDivisor = unitDivisor;
+        }
+
+        private static int bucketIndex(long value)
+        {
+            if (value < 2 * SUB_BUCKETS)
+            {
+                return (int) value;
+            }
+
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        // Largest value that falls into the bucket
+        private static long bucketTop(int index)
+        {
+            if (index < 2 * SUB_BUCKETS)
+            {
+                return index;
+            }
+
+            int shift = index / SUB_BUCKETS - 1;
+            long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+            return ((subBucket + 1) << shift) - 1;
+        }
+
+        public void record(long value)
+        {
+            long clamped = Math.max(0, Math.min(value, MAX_VALUE));
+
+            counts.incrementAndGet(bucketIndex(clamped));
+            count.increment();
+            sum.add(clamped);
+            max.accumulate(clamped);
+        }
+
+        // For timers: records the time since startNanos (a System.nanoTime() reading)
+        public void recordSince(long startNanos)
+        {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount()
+        {
+            return count.sum();
+        }
+
+        public double getMean()
+        {
+            long total = count.sum();
+            return total == 0 ? 0.0 : sum.sum() / (double) total / unitDivisor;
+        }
+
+        public double getMax()
+        {
+            return max.get() / unitDivisor;
+        }
+
+        public double getQuantile(double quantile)
+        {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+
+            return quantile(snapshot, total, quantile);
+        }
+
+        private double quantile(long[] snapshot, long total, double quantile)
+        {
+            if (total == 0)
+            {
+                return 0.0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+
+            for (int i = 0; i < snapshot.length; i++)
+            {
+                seen += snapshot[i];
+
+                if (seen >= rank)
+                {
+                    return Math.min(bucketTop(i), max.get()) / unitDivisor;
+                }
+            }
+
+            return getMax();
+        }
+
+        // {"count":…,"mean":…,"p50":…,"p90":…,"p99":…,"p999":…,"max":…}, for tools that report in JSON
+        public String toJson()
+        {
+            return "{\"count\":" + getCount()
+                    + ",\"mean\":" + String.format(Locale.ROOT, "%.1f", getMean())
+                    + ",\"p50\":" + String.format(Locale.ROOT, "%.1f", getQuantile(0.5))
+                    + ",\"p90\":" + String.format(Locale.ROOT, "%.1f", getQuantile(0.9))
+                    + ",\"p99\":" + String.format(Locale.ROOT, "%.1f", getQuantile(0.99))
+                    + ",\"p999\":" + String.format(Locale.ROOT, "%.1f", getQuantile(0.999))
+                    + ",\"max\":" + String.format(Locale.ROOT, "%.1f", getMax()) + "}";
+        }
+
+        @Override
+        public void render(String name, StringBuilder out)
+        {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+
+            for (double quantile : QUANTILES)
+            {
+                out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(format(quantile(snapshot, total, quantile))).append('\n');
+            }
+
+            out.append(name).append("_count ").append(total).append('\n');
+            out.append(name).append("_mean ").append(format(getMean())).append('\n');
+            out.append(name).append("_max ").append(format(getMax())).append('\n');
+        }
+    }
+
+    private static final Map<String, Metric> registry = new ConcurrentSkipListMap<>();
+    private static volatile HttpServer httpServer;
+
+    private Metrics()
+    {
+    }
+
+    public static Counter counter(String name)
+    {
+        return register(name, Counter.class, new Counter());
+    }
+
+    // A histogram of plain values, such as fan-out sizes
+    public static Histogram histogram(String name)
+    {
+        return register(name, Histogram.class, new Histogram(1));
+    }
+
+    // A histogram fed nanoseconds and reported in microseconds; the name should end in _us
+    public static Histogram timer(String name)
+    {
+        return register(name, Histogram.class, new Histogram(1000));
+    }
+
+    // Gauges are read when rendered; registering the same name again replaces the supplier
+    public static void gauge(String name, DoubleSupplier value)
+    {
+        registry.put(name, new Gauge(value));
+    }
+
+    public static void gaugeFamily(String name, String label, Supplier<Map<String, ? extends Number>> values)
+    {
+        registry.put(name, new GaugeFamily(label, values));
+    }
+
+    private static <T extends Metric> T register(String name, Class<T> type, T created)
+    {
+        Metric existing = registry.putIfAbsent(name, created);
+
+        if (existing == null)
+        {
+            return created;
+        }
+
+        if (!type.isInstance(existing))
+        {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + existing.getClass().getSimpleName());
+        }
+
+        return type.cast(existing);
+    }
+
+    public static String render()
+    {
+        StringBuilder out = new StringBuilder(4096);
+
+        for (Map.Entry<String, Metric> entry : registry.entrySet())
+        {
+            entry.getValue().render(entry.getKey(), out);
+        }
+
+        return out.toString();
+    }
+
+    private static String format(double value)
+    {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            return Long.toString((long) value);
+        }
+
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escapeLabel(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    // Serves render() on http://127.0.0.1:<port>/metrics; loopback only, since it is unauthenticated
+    public static void startHttpServer(int port) throws IOException
+    {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+        server.createContext("/metrics", Metrics::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+
+        httpServer = server;
+        Log.info("Metrics available on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/metrics");
+    }
+
+    public static void stopHttpServer()
+    {
+        HttpServer server = httpServer;
+
+        if (server != null)
+        {
+            server.stop(0);
+            httpServer = null;
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            if (!"GET".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,909 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+// Single selector thread doing accept, TLS (through SSLEngine) and socket reads/writes.
+// Each connection is exposed as plaintext streams so the existing line protocol handlers run unchanged.
+public class NioChatTransport
+{
+    private static final int INBOUND_BUFFER_SIZE = 64 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final int port;
+    private final SSLContext sslContext;
+    private final Consumer<ClientConnection> connectionHandler;
+    private final Predicate<String> admissionCheck;
+
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    // Delegated TLS tasks run on platform threads so a handshake never waits for a free virtual-thread carrier
+    private final ExecutorService handshakeExecutor = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "nio-tls-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private volatile boolean running;
+    private volatile Selector selector;
+    private ServerSocketChannel serverChannel;
+
+    public NioChatTransport(int port, SSLContext sslContext, Consumer<ClientConnection> connectionHandler)
+    {
+        this(port, sslContext, connectionHandler, address -> true);
+    }
+
+    // admissionCheck sees the peer address before any TLS state is created; refused peers are reset straight away
+    public NioChatTransport(int port, SSLContext sslContext, Consumer<ClientConnection> connectionHandler, Predicate<String> admissionCheck)
+    {
+        this.port = port;
+        this.sslContext = sslContext;
+        this.connectionHandler = connectionHandler;
+        this.admissionCheck = admissionCheck;
+    }
+
+    public void run() throws IOException
+    {
+        running = true;
+
+        try (Selector selector = Selector.open();
+             ServerSocketChannel serverChannel = ServerSocketChannel.open())
+        {
+            this.selector = selector;
+            this.serverChannel = serverChannel;
+
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            Log.info("NIO transport listening on port " + port);
+
+            while (running)
+            {
+                selector.select();
+                runSelectorTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                    }
+                    else
+                    {
+                        ((NioClientConnection) key.attachment()).handleReady(key);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            running = false;
+            closeAllConnections();
+            handshakeExecutor.shutdownNow();
+        }
+    }
+
+    public void stop()
+    {
+        running = false;
+
+        Selector current = selector;
+
+        if (current != null)
+        {
+            current.wakeup();
+        }
+    }
+
+    private void execute(Runnable task)
+    {
+        selectorTasks.add(task);
+
+        Selector current = selector;
+
+        if (current != null)
+        {
+            current.wakeup();
+        }
+    }
+
+    private void runSelectorTasks()
+    {
+        Runnable task;
+
+        while ((task = selectorTasks.poll()) != null)
+        {
+            task.run();
+        }
+    }
+
+    private void accept()
+    {
+        SocketChannel channel = null;
+
+        try
+        {
+            channel = serverChannel.accept();
+
+            if (channel == null)
+            {
+                return;
+            }
+
+            InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+
+            if (!admissionCheck.test(remote.getAddress().getHostAddress()))
+            {
+                channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                channel.close();
+                return;
+            }
+
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SSLEngine engine = sslContext.createSSLEngine(remote.getHostString(), remote.getPort());
+            engine.setUseClientMode(false);
+
+            NioClientConnection connection = new NioClientConnection(channel, engine, remote.getAddress().getHostAddress());
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+
+            engine.beginHandshake();
+            connectionHandler.accept(connection);
+            connection.processInbound();
+        }
+        catch (IOException e)
+        {
+            Log.error("Error accepting NIO connection: " + e.getMessage());
+
+            if (channel != null)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private void closeAllConnections()
+    {
+        Selector current = selector;
+
+        if (current == null || !current.isOpen())
+        {
+            return;
+        }
+
+        for (SelectionKey key : current.keys())
+        {
+            if (key.attachment() instanceof NioClientConnection connection)
+            {
+                connection.close();
+            }
+        }
+    }
+
+    private final class NioClientConnection implements ClientConnection
+    {
+        private final SocketChannel channel;
+        private final SSLEngine engine;
+        private final String remoteAddress;
+        private SelectionKey key;
+
+        // netIn and appIn are only touched by the selector thread
+        private ByteBuffer netIn;
+        private ByteBuffer appIn;
+
+        // netOut is shared between the selector (handshake) and writer threads, guarded by ioLock
+        private ByteBuffer netOut;
+        private final ReentrantLock ioLock = new ReentrantLock();
+        private final Condition writable = ioLock.newCondition();
+
+        private final ByteBuffer inbound = ByteBuffer.allocate(INBOUND_BUFFER_SIZE);
+        private final ReentrantLock inboundLock = new ReentrantLock();
+        private final Condition dataAvailable = inboundLock.newCondition();
+
+        private volatile boolean handshakeDone;
+        private final long handshakeStartMillis = System.currentTimeMillis();
+        private final long handshakeStartNanos = System.nanoTime();
+        private volatile boolean tasksRunning;
+        private volatile boolean readingPaused;
+        private volatile boolean inboundClosed;
+        private volatile boolean closed;
+
+        private final InputStream inputStream = new PlainInputStream();
+        private final OutputStream outputStream = new PlainOutputStream();
+
+        private NioClientConnection(SocketChannel channel, SSLEngine engine, String remoteAddress)
+        {
+            this.channel = channel;
+            this.engine = engine;
+            this.remoteAddress = remoteAddress;
+
+            int packetSize = engine.getSession().getPacketBufferSize();
+            this.netIn = ByteBuffer.allocate(packetSize);
+            this.netOut = ByteBuffer.allocate(packetSize);
+            this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        }
+
+        @Override
+        public InputStream getInputStream()
+        {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream()
+        {
+            return outputStream;
+        }
+
+        @Override
+        public String getRemoteAddress()
+        {
+            return remoteAddress;
+        }
+
+        @Override
+        public boolean isClosed()
+        {
+            return closed;
+        }
+
+        private void handleReady(SelectionKey key)
+        {
+            try
+            {
+                if (key.isWritable())
+                {
+                    onWritable();
+                }
+
+                if (key.isValid() && key.isReadable())
+                {
+                    onReadable();
+                }
+            }
+            catch (IOException | CancelledKeyException e)
+            {
+                close();
+            }
+        }
+
+        private void onReadable() throws IOException
+        {
+            int read = channel.read(netIn);
+
+            if (read < 0)
+            {
+                try
+                {
+                    engine.closeInbound();
+                }
+                catch (SSLException ignored) {}
+
+                markInboundClosed();
+                return;
+            }
+
+            processInbound();
+        }
+
+        private void onWritable() throws IOException
+        {
+            ioLock.lock();
+
+            try
+            {
+                key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                writable.signalAll();
+            }
+            finally
+            {
+                ioLock.unlock();
+            }
+
+            if (!handshakeDone || engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP)
+            {
+                processInbound();
+            }
+        }
+
+        // Selector thread only: drives the handshake and unwraps whatever is buffered in netIn.
+        private void processInbound() throws IOException
+        {
+            boolean growNetIn = false;
+            netIn.flip();
+
+            try
+            {
+                while (!closed && !inboundClosed)
+                {
+                    HandshakeStatus status = engine.getHandshakeStatus();
+
+                    if (status == HandshakeStatus.NEED_TASK)
+                    {
+                        runDelegatedTasks();
+                        return;
+                    }
+
+                    if (status == HandshakeStatus.NEED_WRAP)
+                    {
+                        if (!wrapControl())
+                        {
+                            return;
+                        }
+
+                        continue;
+                    }
+
+                    if (!handshakeDone && status == HandshakeStatus.NOT_HANDSHAKING)
+                    {
+                        onHandshakeFinished();
+                    }
+
+                    if (!deliverApplicationData())
+                    {
+                        pauseReading();
+                        return;
+                    }
+
+                    if (!netIn.hasRemaining())
+                    {
+                        return;
+                    }
+
+                    SSLEngineResult result = engine.unwrap(netIn, appIn);
+
+                    if (result.getHandshakeStatus() == HandshakeStatus.FINISHED)
+                    {
+                        onHandshakeFinished();
+                    }
+
+                    switch (result.getStatus())
+                    {
+                        case BUFFER_UNDERFLOW:
+                            growNetIn = netIn.position() == 0 && netIn.limit() == netIn.capacity();
+                            return;
+
+                        case BUFFER_OVERFLOW:
+                            appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                            break;
+
+                        case CLOSED:
+                            markInboundClosed();
+                            return;
+
+                        default:
+                            break;
+                    }
+                }
+            }
+            finally
+            {
+                netIn.compact();
+
+                if (growNetIn)
+                {
+                    netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                }
+            }
+        }
+
+        private void runDelegatedTasks()
+        {
+            if (tasksRunning)
+            {
+                return;
+            }
+
+            tasksRunning = true;
+
+            handshakeExecutor.execute(() -> {
+                Runnable task;
+
+                while ((task = engine.getDelegatedTask()) != null)
+                {
+                    task.run();
+                }
+
+                tasksRunning = false;
+
+                execute(() -> {
+                    try
+                    {
+                        processInbound();
+                    }
+                    catch (IOException e)
+                    {
+                        close();
+                    }
+                });
+            });
+        }
+
+        // Wraps handshake / post-handshake control records. Returns false when the socket is not writable yet.
+        private boolean wrapControl() throws IOException
+        {
+            SSLEngineResult result;
+
+            ioLock.lock();
+
+            try
+            {
+                if (!flushNetOut())
+                {
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                    return false;
+                }
+
+                result = engine.wrap(EMPTY, netOut);
+
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)
+                {
+                    netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                    return true;
+                }
+
+                if (!flushNetOut())
+                {
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                    return false;
+                }
+            }
+            finally
+            {
+                ioLock.unlock();
+            }
+
+            if (result.getHandshakeStatus() == HandshakeStatus.FINISHED)
+            {
+                onHandshakeFinished();
+            }
+
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+            {
+                close();
+                return false;
+            }
+
+            return true;
+        }
+
+        // Must hold ioLock. Returns true once netOut is fully written to the channel.
+        private boolean flushNetOut() throws IOException
+        {
+            netOut.flip();
+
+            try
+            {
+                while (netOut.hasRemaining())
+                {
+                    if (channel.write(netOut) == 0)
+                    {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+            finally
+            {
+                netOut.compact();
+            }
+        }
+
+        private void onHandshakeFinished()
+        {
+            if (handshakeDone)
+            {
+                return;
+            }
+
+            ioLock.lock();
+
+            try
+            {
+                handshakeDone = true;
+                writable.signalAll();
+            }
+            finally
+            {
+                ioLock.unlock();
+            }
+
+            TlsContextFactory.SERVER_HANDSHAKES.record(engine.getSession(), handshakeStartMillis, System.nanoTime() - handshakeStartNanos);
+        }
+
+        // Moves decrypted bytes into the inbound buffer read by the handler thread.
+        // Returns false if the handler has not caught up and appIn still holds data; reading is then marked
+        // paused under the same lock as the buffer, so the handler's next read sees it and resumes reading.
+        private boolean deliverApplicationData()
+        {
+            if (appIn.position() == 0)
+            {
+                return true;
+            }
+
+            appIn.flip();
+
+            inboundLock.lock();
+
+            try
+            {
+                int count = Math.min(appIn.remaining(), inbound.remaining());
+
+                if (count > 0)
+                {
+                    ByteBuffer slice = appIn.slice(appIn.position(), count);
+                    inbound.put(slice);
+                    appIn.position(appIn.position() + count);
+                    dataAvailable.signalAll();
+                }
+
+                if (appIn.hasRemaining())
+                {
+                    readingPaused = true;
+                }
+            }
+            finally
+            {
+                inboundLock.unlock();
+                appIn.compact();
+            }
+
+            return appIn.position() == 0;
+        }
+
+        // readingPaused is already set, see deliverApplicationData
+        private void pauseReading()
+        {
+            key.interestOpsAnd(~SelectionKey.OP_READ);
+        }
+
+        private void resumeReading()
+        {
+            execute(() -> {
+                if (closed || !key.isValid())
+                {
+                    return;
+                }
+
+                try
+                {
+                    processInbound();
+
+                    if (!readingPaused && !inboundClosed)
+                    {
+                        key.interestOpsOr(SelectionKey.OP_READ);
+                    }
+                }
+                catch (IOException | CancelledKeyException e)
+                {
+                    close();
+                }
+            });
+        }
+
+        private void markInboundClosed()
+        {
+            inboundLock.lock();
+
+            try
+            {
+                inboundClosed = true;
+                dataAvailable.signalAll();
+            }
+            finally
+            {
+                inboundLock.unlock();
+            }
+
+            if (key.isValid())
+            {
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+            }
+        }
+
+        private int readPlain(byte[] buffer, int offset, int length) throws IOException
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+
+            int count;
+            boolean resume;
+
+            inboundLock.lock();
+
+            try
+            {
+                while (inbound.position() == 0)
+                {
+                    if (inboundClosed || closed)
+                    {
+                        return -1;
+                    }
+
+                    dataAvailable.await();
+                }
+
+                inbound.flip();
+                count = Math.min(length, inbound.remaining());
+                inbound.get(buffer, offset, count);
+                inbound.compact();
+
+                // there is room again, and only one reader may hand that back to the selector
+                resume = readingPaused;
+                readingPaused = false;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading", e);
+            }
+            finally
+            {
+                inboundLock.unlock();
+            }
+
+            if (resume)
+            {
+                resumeReading();
+            }
+
+            return count;
+        }
+
+        @Override
+        public void startHandshake(long timeoutMillis) throws IOException
+        {
+            long remaining = timeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+
+            ioLock.lock();
+
+            try
+            {
+                while (!handshakeDone)
+                {
+                    ensureOpen();
+
+                    if (remaining <= 0)
+                    {
+                        throw new SocketTimeoutException("TLS handshake timed out");
+                    }
+
+                    remaining = writable.awaitNanos(remaining);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted during handshake", e);
+            }
+            finally
+            {
+                ioLock.unlock();
+            }
+        }
+
+        private void writePlain(byte[] buffer, int offset, int length) throws IOException
+        {
+            ByteBuffer source = ByteBuffer.wrap(buffer, offset, length);
+
+            ioLock.lock();
+
+            try
+            {
+                while (!handshakeDone)
+                {
+                    ensureOpen();
+                    writable.await();
+                }
+
+                while (source.hasRemaining())
+                {
+                    ensureOpen();
+
+                    if (!flushNetOut())
+                    {
+                        awaitWritable();
+                        continue;
+                    }
+
+                    SSLEngineResult result = engine.wrap(source, netOut);
+
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)
+                    {
+                        netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                    }
+                    else if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                    {
+                        throw new IOException("Connection closed");
+                    }
+                }
+
+                while (!flushNetOut())
+                {
+                    awaitWritable();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing", e);
+            }
+            finally
+            {
+                ioLock.unlock();
+            }
+        }
+
+        // Must hold ioLock.
+        private void awaitWritable() throws IOException, InterruptedException
+        {
+            ensureOpen();
+
+            try
+            {
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+            }
+            catch (CancelledKeyException e)
+            {
+                throw new IOException("Connection closed", e);
+            }
+
+            selector.wakeup();
+            writable.await();
+            ensureOpen();
+        }
+
+        private void ensureOpen() throws IOException
+        {
+            if (closed)
+            {
+                throw new IOException("Connection closed");
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            if (closed)
+            {
+                return;
+            }
+
+            engine.closeOutbound();
+
+            if (ioLock.tryLock())
+            {
+                try
+                {
+                    if (handshakeDone && flushNetOut())
+                    {
+                        engine.wrap(EMPTY, netOut);
+                        flushNetOut();
+                    }
+                }
+                catch (IOException ignored) {}
+                finally
+                {
+                    ioLock.unlock();
+                }
+            }
+
+            closed = true;
+
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                Log.error("Error closing NIO channel: " + e.getMessage());
+            }
+
+            ioLock.lock();
+
+            try
+            {
+                writable.signalAll();
+            }
+            finally
+            {
+                ioLock.unlock();
+            }
+
+            markInboundClosed();
+        }
+
+        private final class PlainInputStream extends InputStream
+        {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] single = new byte[1];
+                int count = readPlain(single, 0, 1);
+
+                return count < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException
+            {
+                return readPlain(buffer, offset, length);
+            }
+
+            @Override
+            public void close()
+            {
+                NioClientConnection.this.close();
+            }
+        }
+
+        private final class PlainOutputStream extends OutputStream
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                writePlain(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException
+            {
+                writePlain(buffer, offset, length);
+            }
+
+            @Override
+            public void close()
+            {
+                NioClientConnection.this.close();
+            }
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimumCapacity)
+    {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minimumCapacity));
+        buffer.flip();
+        larger.put(buffer);
+
+        return larger;
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A line already encoded to its wire form (UTF-8 plus the trailing newline).
+// Encoded once and then shared by the journal and every recipient of a broadcast.
+// The binary framed form is built on first use by a framed recipient and shared the same way.
+public final class OutboundMessage
+{
+    private final Frame.Type type;
+    private final String text;
+    private final byte[] frame;
+    private volatile byte[] typedFrame;
+
+    private OutboundMessage(Frame.Type type, String text)
+    {
+        // the line protocol cannot carry newlines, so they travel as a literal "\n" there
+        byte[] encoded = flatten(text).getBytes(StandardCharsets.UTF_8);
+
+        this.type = type;
+        this.text = text;
+        this.frame = new byte[encoded.length + 1];
+        System.arraycopy(encoded, 0, frame, 0, encoded.length);
+        this.frame[encoded.length] = '\n';
+    }
+
+    public static OutboundMessage of(String text)
+    {
+        return new OutboundMessage(Frame.Type.CONTROL, text);
+    }
+
+    public static OutboundMessage of(Frame.Type type, String text)
+    {
+        return new OutboundMessage(type, text);
+    }
+
+    private static String flatten(String text)
+    {
+        if (text.indexOf('\n') < 0 && text.indexOf('\r') < 0)
+        {
+            return text;
+        }
+
+        return text.replace("\r", "").replace("\n", "\\n");
+    }
+
+    public Frame.Type type()
+    {
+        return type;
+    }
+
+    public String text()
+    {
+        return text;
+    }
+
+    public int size()
+    {
+        return frame.length;
+    }
+
+    public int size(boolean framed)
+    {
+        return framed ? typedFrame().length : frame.length;
+    }
+
+    public ByteBuffer buffer()
+    {
+        return ByteBuffer.wrap(frame).asReadOnlyBuffer();
+    }
+
+    public ByteBuffer buffer(boolean framed)
+    {
+        return framed ? ByteBuffer.wrap(typedFrame()).asReadOnlyBuffer() : buffer();
+    }
+
+    public void writeTo(OutputStream out) throws IOException
+    {
+        out.write(frame, 0, frame.length);
+    }
+
+    public void writeTo(OutputStream out, boolean framed) throws IOException
+    {
+        byte[] bytes = framed ? typedFrame() : frame;
+        out.write(bytes, 0, bytes.length);
+    }
+
+    // Racing callers may each encode it once; they all produce the same bytes
+    private byte[] typedFrame()
+    {
+        byte[] encoded = typedFrame;
+
+        if (encoded == null)
+        {
+            encoded = Frame.encode(type, text);
+            typedFrame = encoded;
+        }
+
+        return encoded;
+    }
+}
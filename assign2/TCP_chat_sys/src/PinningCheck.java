@@ -0,0 +1,247 @@
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+// Regression test for virtual-thread pinning. Runs a server on the loopback transport in this JVM, drives it
+// with clients that chat, create and leave rooms, list rooms and replay history, while some members never
+// read so that the server's writes to them block. Every jdk.VirtualThreadPinned event is recorded, whatever
+// its duration. Exits with 1 when any of them was raised in the chat system's own code, with the stacks,
+// and with 2 when the scenario itself did not run; pins inside the JDK alone are reported but allowed.
+// Usage: java -cp out PinningCheck, from an empty directory: the server writes its data files there.
+// The Maven build runs it as PinningCheckTest, in the test working directory under target.
+public final class PinningCheck
+{
+    static
+    {
+        // The server runs in this JVM, so its limits are set here, before ServerConfig reads them. Its log is
+        // off because tearing down resets every connection, which it reports as write errors.
+        setDefault("chat.log.level", "off");
+        setDefault("chat.bots.enabled", "false");
+        setDefault("chat.rateLimit.messagesPerSecond", "100000");
+        setDefault("chat.rateLimit.messageBurst", "100000");
+        setDefault("chat.rateLimit.commandsPerSecond", "100000");
+        setDefault("chat.rateLimit.commandBurst", "100000");
+    }
+
+    private static final int CLIENTS = Math.max(2, Integer.getInteger("pinning.clients", 40));
+    private static final int ROOMS = Math.max(1, Integer.getInteger("pinning.rooms", 4));
+    private static final int MESSAGES = Integer.getInteger("pinning.messages", 50);
+    // large enough that members who never read fill their connection and block the server's writer
+    private static final int MESSAGE_BYTES = Integer.getInteger("pinning.messageBytes", 2048);
+    private static final int STALLED = Integer.getInteger("pinning.stalledClients", 4);
+    private static final long TIMEOUT_MS = Long.getLong("pinning.timeoutMs", 60000);
+
+    private static final String PASSWORD = "pinning-password";
+
+    private final String runId = UUID.randomUUID().toString().substring(0, 8);
+    private final ConcurrentLinkedQueue<RecordedEvent> pinned = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<HeadlessClient> clients = new ConcurrentLinkedQueue<>();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final CountDownLatch finished = new CountDownLatch(CLIENTS);
+
+    private ChatServer server;
+
+    private static void setDefault(String key, String value)
+    {
+        if (System.getProperty(key) == null)
+        {
+            System.setProperty(key, value);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        System.exit(new PinningCheck().run());
+    }
+
+    int run() throws InterruptedException
+    {
+        try (RecordingStream recording = new RecordingStream())
+        {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.onEvent("jdk.VirtualThreadPinned", pinned::add);
+            recording.startAsync();
+
+            server = new ChatServer(0, TransportMode.LOOPBACK);
+            server.start_server();
+
+            for (int i = 0; i < CLIENTS; i++)
+            {
+                int index = i;
+                Thread.ofVirtual().start(() -> runClient(index));
+            }
+
+            boolean completed = finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            // the stalled members have been holding the server's writers back; let go of everyone
+            server.stop_server();
+
+            for (HeadlessClient client : clients)
+            {
+                client.close();
+            }
+
+            recording.stop();
+
+            return report(completed);
+        }
+    }
+
+    private void runClient(int index)
+    {
+        String room = "pinning-" + runId + "-" + (index % ROOMS);
+        String sideRoom = "pinning-" + runId + "-side-" + (index % ROOMS);
+        boolean stalled = index < STALLED;
+
+        try
+        {
+            HeadlessClient client = HeadlessClient.over(server.connectLoopback());
+
+            clients.add(client);
+
+            if (client.logIn("pinning-" + runId + "-" + index, "pin" + runId + "x" + index, PASSWORD, "register") == null
+                    || !client.join(room))
+            {
+                failures.increment();
+                return;
+            }
+
+            client.startReading();
+
+            if (!stalled)
+            {
+                Thread.ofVirtual().start(() -> read(client));
+            }
+
+            String padding = "x".repeat(Math.max(0, MESSAGE_BYTES - 24));
+
+            for (int m = 0; m < MESSAGES; m++)
+            {
+                client.send(Frame.Type.CHAT, "pinning " + m + " " + padding);
+
+                if (m % 10 == 5)
+                {
+                    client.send(Frame.Type.COMMAND, "/listrooms");
+                }
+
+                // a side room that members of the same room create and remove concurrently, then back to
+                // the room with its history replayed on join
+                if (m % 20 == 10)
+                {
+                    client.send(Frame.Type.COMMAND, "/join " + sideRoom);
+                    client.send(Frame.Type.COMMAND, "/leave");
+                    client.send(Frame.Type.COMMAND, "/join " + room);
+                }
+
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+        catch (Exception e)
+        {
+            failures.increment();
+        }
+        finally
+        {
+            finished.countDown();
+        }
+    }
+
+    private void read(HeadlessClient client)
+    {
+        try
+        {
+            String line;
+
+            while ((line = client.readLine()) != null)
+            {
+                if (line.contains(": pinning "))
+                {
+                    received.increment();
+                }
+            }
+        }
+        catch (Exception ignored)
+        {
+            // closed at the end of the run
+        }
+    }
+
+    private int report(boolean completed)
+    {
+        Map<String, Integer> chatStacks = new TreeMap<>();
+        int jdkOnly = 0;
+
+        for (RecordedEvent event : pinned)
+        {
+            if (event.getStackTrace() == null || !inChatCode(event.getStackTrace().getFrames()))
+            {
+                jdkOnly++;
+                continue;
+            }
+
+            chatStacks.merge(describe(event), 1, Integer::sum);
+        }
+
+        System.out.println("Clients: " + CLIENTS + " (" + STALLED + " never reading), rooms: " + ROOMS
+                + ", messages per client: " + MESSAGES + ", messages received: " + received.sum()
+                + ", client failures: " + failures.sum());
+        System.out.println("Pinned virtual threads: " + pinned.size() + " (" + (pinned.size() - jdkOnly) + " in chat code, "
+                + jdkOnly + " in the JDK only)");
+
+        if (!chatStacks.isEmpty())
+        {
+            chatStacks.forEach((stack, count) -> System.out.println(count + "x pinned at:\n" + stack));
+            System.out.println("FAIL: chat code pinned a carrier thread");
+            return 1;
+        }
+
+        if (!completed || failures.sum() > 0 || received.sum() == 0)
+        {
+            System.out.println("FAIL: the scenario did not run to completion");
+            return 2;
+        }
+
+        System.out.println("PASS");
+        return 0;
+    }
+
+    // Chat classes live in the unnamed package; this class only drives the clients
+    private static boolean inChatCode(List<RecordedFrame> frames)
+    {
+        for (RecordedFrame frame : frames)
+        {
+            String type = frame.getMethod().getType().getName();
+
+            if (type.indexOf('.') < 0 && !type.startsWith(PinningCheck.class.getName()))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String describe(RecordedEvent event)
+    {
+        StringBuilder stack = new StringBuilder();
+
+        for (RecordedFrame frame : event.getStackTrace().getFrames())
+        {
+            stack.append("    ").append(frame.getMethod().getType().getName()).append('.').append(frame.getMethod().getName())
+                    .append(':').append(frame.getLineNumber()).append('\n');
+        }
+
+        return stack.toString();
+    }
+}
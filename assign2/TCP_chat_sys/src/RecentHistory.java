@@ -0,0 +1,73 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed-capacity ring of the most recent room messages, oldest first when read back.
+public class RecentHistory<T>
+{
+    private final Object[] messages;
+    private int head = 0;
+    private int size = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public RecentHistory(int capacity)
+    {
+        this.messages = new Object[Math.max(0, capacity)];
+    }
+
+    public int capacity()
+    {
+        return messages.length;
+    }
+
+    public void add(T message)
+    {
+        if (messages.length == 0)
+        {
+            return;
+        }
+
+        lock.lock();
+
+        try
+        {
+            messages[(head + size) % messages.length] = message;
+
+            if (size < messages.length)
+            {
+                size++;
+            }
+            else
+            {
+                head = (head + 1) % messages.length;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<T> snapshot()
+    {
+        lock.lock();
+
+        try
+        {
+            List<T> copy = new ArrayList<>(size);
+
+            for (int i = 0; i < size; i++)
+            {
+                copy.add((T) messages[(head + i) % messages.length]);
+            }
+
+            return copy;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Append-only room log. append() only enqueues; a background flusher batches pending lines
+// into a single write on a long-lived FileChannel and fsyncs according to the sync policy.
+public class RoomJournal
+{
+    public enum SyncPolicy
+    {
+        NONE,
+        INTERVAL,
+        EVERY_N;
+
+        public static SyncPolicy fromName(String name)
+        {
+            if (name == null || name.trim().isEmpty())
+            {
+                return INTERVAL;
+            }
+
+            try
+            {
+                return SyncPolicy.valueOf(name.trim().toUpperCase().replace('-', '_'));
+            }
+            catch (IllegalArgumentException e)
+            {
+                Log.warn("Unknown journal sync policy '" + name + "', falling back to interval.");
+                return INTERVAL;
+            }
+        }
+    }
+
+    private static final int MAX_BATCH = 512;
+    private static final int TAIL_CHUNK = 8192;
+    private static final OutboundMessage CLOSE_MARKER = OutboundMessage.of("");
+
+    private final Path path;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalMs;
+    private final int syncEvery;
+
+    private final LinkedBlockingQueue<OutboundMessage> pending = new LinkedBlockingQueue<>();
+    private final Thread flusherThread;
+
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(8192);
+    private long lastSyncTime = System.currentTimeMillis();
+    private int unsyncedMessages = 0;
+
+    private volatile boolean closed = false;
+
+    public RoomJournal(Path path)
+    {
+        this(path, ServerConfig.JOURNAL_SYNC_POLICY, ServerConfig.JOURNAL_SYNC_INTERVAL_MS, ServerConfig.JOURNAL_SYNC_EVERY);
+    }
+
+    public RoomJournal(Path path, SyncPolicy syncPolicy, long syncIntervalMs, int syncEvery)
+    {
+        this.path = path;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalMs = Math.max(1, syncIntervalMs);
+        this.syncEvery = Math.max(1, syncEvery);
+        this.flusherThread = Thread.ofVirtual().start(this::flushLoop);
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    // Reads the last maxLines lines of the journal file by scanning backwards from its end.
+    public List<String> readTail(int maxLines)
+    {
+        List<String> lines = new ArrayList<>();
+
+        if (maxLines <= 0 || !Files.exists(path))
+        {
+            return lines;
+        }
+
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long start = in.size();
+            int newlines = 0;
+            int tailLength = 0;
+            List<byte[]> chunks = new ArrayList<>();
+            ByteBuffer chunk = ByteBuffer.allocate(TAIL_CHUNK);
+
+            while (start > 0 && newlines <= maxLines)
+            {
+                int size = (int) Math.min(TAIL_CHUNK, start);
+                start -= size;
+
+                chunk.clear().limit(size);
+
+                while (chunk.hasRemaining() && in.read(chunk, start + chunk.position()) >= 0) {}
+
+                chunk.flip();
+
+                for (int i = 0; i < chunk.limit(); i++)
+                {
+                    if (chunk.get(i) == '\n')
+                    {
+                        newlines++;
+                    }
+                }
+
+                // newest first; joined once the scan is over, so each byte is copied once
+                chunks.add(Arrays.copyOf(chunk.array(), chunk.limit()));
+                tailLength += chunk.limit();
+            }
+
+            byte[] tail = new byte[tailLength];
+            int offset = tailLength;
+
+            for (byte[] part : chunks)
+            {
+                offset -= part.length;
+                System.arraycopy(part, 0, tail, offset, part.length);
+            }
+
+            String[] all = new String(tail, StandardCharsets.UTF_8).split("\n");
+
+            // when the scan stopped mid-file the first line is only a fragment, and a last line without its
+            // newline is one the flusher is still writing or one a crash cut short
+            int first = start > 0 ? 1 : 0;
+            int end = tail.length > 0 && tail[tail.length - 1] != '\n' ? all.length - 1 : all.length;
+
+            for (int i = Math.max(first, end - maxLines); i < end; i++)
+            {
+                if (!all[i].isEmpty())
+                {
+                    lines.add(all[i]);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            Log.error("Error reading the tail of " + path + ": " + e.getMessage());
+        }
+
+        return lines;
+    }
+
+    public void append(String message)
+    {
+        append(OutboundMessage.of(message));
+    }
+
+    public void append(OutboundMessage message)
+    {
+        if (!closed)
+        {
+            pending.add(message);
+        }
+    }
+
+    // Flushes whatever is still queued, then releases the file.
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+        pending.add(CLOSE_MARKER);
+
+        try
+        {
+            flusherThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void delete()
+    {
+        close();
+
+        try
+        {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException e)
+        {
+            Log.error("Error deleting journal " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void flushLoop()
+    {
+        List<OutboundMessage> batch = new ArrayList<>(MAX_BATCH);
+        boolean running = true;
+
+        try
+        {
+            while (running)
+            {
+                OutboundMessage first = syncPolicy == SyncPolicy.INTERVAL && unsyncedMessages > 0
+                        ? pending.poll(syncIntervalMs, TimeUnit.MILLISECONDS)
+                        : pending.take();
+
+                if (first != null)
+                {
+                    batch.add(first);
+                    pending.drainTo(batch, MAX_BATCH - 1);
+                }
+
+                running = writeBatch(batch);
+                batch.clear();
+
+                maybeSync(!running);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            closeChannel();
+        }
+    }
+
+    // Returns false once the close marker has been reached.
+    private boolean writeBatch(List<OutboundMessage> batch)
+    {
+        boolean keepRunning = true;
+        buffer.clear();
+
+        for (OutboundMessage message : batch)
+        {
+            if (message == CLOSE_MARKER)
+            {
+                keepRunning = false;
+                break;
+            }
+
+            if (buffer.remaining() < message.size())
+            {
+                writeBuffer();
+
+                if (buffer.capacity() < message.size())
+                {
+                    buffer = ByteBuffer.allocate(message.size());
+                }
+            }
+
+            buffer.put(message.buffer());
+            unsyncedMessages++;
+        }
+
+        writeBuffer();
+        return keepRunning;
+    }
+
+    private void writeBuffer()
+    {
+        buffer.flip();
+
+        try
+        {
+            if (buffer.hasRemaining())
+            {
+                FileChannel out = openChannel();
+
+                while (buffer.hasRemaining())
+                {
+                    out.write(buffer);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            Log.error("Error logging message to " + path + ": " + e.getMessage());
+        }
+        finally
+        {
+            buffer.clear();
+        }
+    }
+
+    private void maybeSync(boolean force)
+    {
+        if (syncPolicy == SyncPolicy.NONE)
+        {
+            unsyncedMessages = 0;
+            return;
+        }
+
+        if (channel == null || unsyncedMessages == 0)
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        boolean due = syncPolicy == SyncPolicy.INTERVAL
+                ? now - lastSyncTime >= syncIntervalMs
+                : unsyncedMessages >= syncEvery;
+
+        if (!due && !force)
+        {
+            return;
+        }
+
+        try
+        {
+            channel.force(false);
+            lastSyncTime = now;
+            unsyncedMessages = 0;
+        }
+        catch (IOException e)
+        {
+            Log.error("Error syncing journal " + path + ": " + e.getMessage());
+        }
+    }
+
+    private FileChannel openChannel() throws IOException
+    {
+        if (channel == null || !channel.isOpen())
+        {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+            // a line cut short by a crash would run into the first one appended now
+            long complete = endOfLastLine();
+
+            if (complete < channel.size())
+            {
+                Log.warn("Dropping an incomplete last line from " + path);
+                channel.truncate(complete);
+            }
+        }
+
+        return channel;
+    }
+
+    // Offset just past the file's last newline, 0 when it has none
+    private long endOfLastLine() throws IOException
+    {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long end = in.size();
+            ByteBuffer chunk = ByteBuffer.allocate(TAIL_CHUNK);
+
+            while (end > 0)
+            {
+                int size = (int) Math.min(TAIL_CHUNK, end);
+                long start = end - size;
+
+                chunk.clear().limit(size);
+
+                while (chunk.hasRemaining() && in.read(chunk, start + chunk.position()) >= 0) {}
+
+                for (int i = size - 1; i >= 0; i--)
+                {
+                    if (chunk.get(i) == '\n')
+                    {
+                        return start + i + 1;
+                    }
+                }
+
+                end = start;
+            }
+
+            return 0;
+        }
+    }
+
+    private void closeChannel()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                Log.error("Error closing journal " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
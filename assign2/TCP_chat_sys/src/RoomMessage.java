@@ -0,0 +1,79 @@
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+// A room message together with the sequence number its room assigned to it.
+// The journal stores the tagged form "#<seq>|<text>". Resume-capable clients receive "#<seq>@<room>|<text>",
+// with the room name URL-encoded so it can hold neither separator: a line can overtake the "joined room"
+// notice for its room, so the client must not work out the room from the notices it has seen.
+public record RoomMessage(long sequence, String text)
+{
+    public static final String TAG_PREFIX = "#";
+    public static final char TAG_SEPARATOR = '|';
+    public static final char ROOM_SEPARATOR = '@';
+
+    public String tagged()
+    {
+        return TAG_PREFIX + sequence + TAG_SEPARATOR + text;
+    }
+
+    // roomTag comes from roomTag(name), computed once per room
+    public String tagged(String roomTag)
+    {
+        return TAG_PREFIX + sequence + ROOM_SEPARATOR + roomTag + TAG_SEPARATOR + text;
+    }
+
+    public static String roomTag(String room)
+    {
+        return URLEncoder.encode(room, StandardCharsets.UTF_8);
+    }
+
+    // Lines written before rooms had sequence numbers come back with sequence 0
+    public static RoomMessage parse(String line)
+    {
+        if (line.startsWith(TAG_PREFIX))
+        {
+            int separator = line.indexOf(TAG_SEPARATOR);
+
+            if (separator > 1)
+            {
+                int room = line.lastIndexOf(ROOM_SEPARATOR, separator);
+                int end = room > 0 ? room : separator;
+
+                try
+                {
+                    return new RoomMessage(Long.parseLong(line.substring(1, end)), line.substring(separator + 1));
+                }
+                catch (NumberFormatException ignored) {}
+            }
+        }
+
+        return new RoomMessage(0, line);
+    }
+
+    // The room a tagged line names, or null for lines without one
+    public static String roomOf(String line)
+    {
+        if (!line.startsWith(TAG_PREFIX))
+        {
+            return null;
+        }
+
+        int separator = line.indexOf(TAG_SEPARATOR);
+        int room = separator > 1 ? line.lastIndexOf(ROOM_SEPARATOR, separator) : -1;
+
+        if (room <= 0)
+        {
+            return null;
+        }
+
+        try
+        {
+            return URLDecoder.decode(line.substring(room + 1, separator), StandardCharsets.UTF_8);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+// Rooms by name. Joins and leaves go through ConcurrentHashMap.compute, so they only lock the
+// affected room's entry: adding a room with its first member and removing it with its last
+// member are atomic, while rooms with different names never contend.
+// compute holds the entry's bin monitor, and a virtual thread that blocks while holding a monitor pins its
+// carrier, so nothing in there may block: rooms are built beforehand, since that reads the room's journal
+// and starts its flusher, and only the lock-free member list changes inside.
+// Removing the last member unmaps the room before its log is deleted. Until that is done a tombstone
+// holds the name, and a room of the same name is only built once it is gone: otherwise the new room
+// would read the old history and append to a file that is about to be unlinked.
+public class RoomRegistry
+{
+    public interface Listener
+    {
+        void roomCreated(ServerRoom room);
+
+        void roomRemoved(ServerRoom room);
+    }
+
+    private final ConcurrentHashMap<String, ServerRoom> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CountDownLatch> tombstones = new ConcurrentHashMap<>();
+    // Rooms removed so far, striped by name; a room built before a removal it did not wait for is not registered
+    private static final int REMOVAL_STRIPES = 64;
+    private final AtomicLongArray removals = new AtomicLongArray(REMOVAL_STRIPES);
+    private final Function<String, ServerRoom> roomFactory;
+    private final String permanentRoom;
+    private final Listener listener;
+
+    public RoomRegistry(Function<String, ServerRoom> roomFactory, String permanentRoom, Listener listener)
+    {
+        this.roomFactory = roomFactory;
+        this.permanentRoom = permanentRoom;
+        this.listener = listener;
+    }
+
+    public ServerRoom get(String name)
+    {
+        return rooms.get(name);
+    }
+
+    public ServerRoom getOrCreate(String name)
+    {
+        ServerRoom room = rooms.get(name);
+
+        return room != null ? room : obtain(name, null, null);
+    }
+
+    public ServerRoom join(String name, ClientConnection connection, ConnectionWriter writer)
+    {
+        return obtain(name, connection, writer);
+    }
+
+    // Finds or builds the room, adding the member in the same step when there is one
+    private ServerRoom obtain(String name, ClientConnection connection, ConnectionWriter writer)
+    {
+        ServerRoom candidate = null;
+        long candidateRemovals = 0;
+
+        while (true)
+        {
+            if (candidate == null && !rooms.containsKey(name))
+            {
+                // counted first: a removal after this is caught below, one before it left its tombstone
+                candidateRemovals = removals.get(stripe(name));
+                awaitRemoval(name);
+                candidate = roomFactory.apply(name);
+            }
+
+            ServerRoom fresh = candidate;
+            long freshRemovals = candidateRemovals;
+
+            ServerRoom room = rooms.compute(name, (key, existing) -> {
+                ServerRoom target = existing;
+
+                if (target == null && removals.get(stripe(key)) == freshRemovals)
+                {
+                    target = fresh;
+                }
+
+                if (target != null && connection != null)
+                {
+                    target.addClient(connection, writer);
+                }
+
+                return target;
+            });
+
+            if (room == null)
+            {
+                // the room was removed after we looked, or ours was built before a room of this name was
+                // removed: build it again
+                if (candidate != null)
+                {
+                    candidate.close();
+                    candidate = null;
+                }
+
+                continue;
+            }
+
+            if (room == candidate)
+            {
+                listener.roomCreated(room);
+            }
+            else if (candidate != null)
+            {
+                candidate.close();
+            }
+
+            return room;
+        }
+    }
+
+    private static int stripe(String name)
+    {
+        return name.hashCode() & (REMOVAL_STRIPES - 1);
+    }
+
+    private void awaitRemoval(String name)
+    {
+        CountDownLatch tombstone = tombstones.get(name);
+
+        if (tombstone == null)
+        {
+            return;
+        }
+
+        boolean interrupted = false;
+
+        while (true)
+        {
+            try
+            {
+                tombstone.await();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void leave(String name, ClientConnection connection, ConnectionWriter writer)
+    {
+        ServerRoom[] removed = {null};
+        CountDownLatch[] tombstone = {null};
+
+        rooms.computeIfPresent(name, (key, room) -> {
+            room.removeClient(connection, writer);
+
+            if (room.isEmpty() && !key.equals(permanentRoom))
+            {
+                removed[0] = room;
+                tombstone[0] = new CountDownLatch(1);
+                tombstones.put(key, tombstone[0]);
+                removals.incrementAndGet(stripe(key));
+                return null;
+            }
+
+            return room;
+        });
+
+        if (removed[0] != null)
+        {
+            // closing the journal waits for its flusher, which must not happen while compute holds the bin's monitor
+            try
+            {
+                removed[0].discard();
+            }
+            finally
+            {
+                tombstones.remove(name, tombstone[0]);
+                tombstone[0].countDown();
+            }
+
+            listener.roomRemoved(removed[0]);
+        }
+    }
+
+    public List<String> roomNames()
+    {
+        return new ArrayList<>(rooms.keySet());
+    }
+
+    public List<ServerRoom> rooms()
+    {
+        return new ArrayList<>(rooms.values());
+    }
+
+    public int size()
+    {
+        return rooms.size();
+    }
+}
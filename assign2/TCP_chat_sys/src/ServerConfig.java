@@ -0,0 +1,85 @@
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Server tuning knobs, read once from -D system properties.
+public final class ServerConfig
+{
+    public static final TransportMode TRANSPORT_MODE = TransportMode.fromName(System.getProperty("chat.transport"));
+
+    public static final long WRITE_COALESCE_WINDOW_MICROS = Long.getLong("chat.write.coalesceWindowMicros", 1000L);
+    public static final int WRITE_COALESCE_BYTES = Integer.getInteger("chat.write.coalesceBytes", 16 * 1024);
+
+    public static final long SLOW_CONSUMER_MAX_PENDING_BYTES = Long.getLong("chat.slowConsumer.maxPendingBytes", 256 * 1024L);
+    public static final ConnectionWriter.SlowConsumerPolicy SLOW_CONSUMER_POLICY = ConnectionWriter.SlowConsumerPolicy.fromName(System.getProperty("chat.slowConsumer.policy"));
+
+    public static final int MAX_LINE_BYTES = Integer.getInteger("chat.maxLineBytes", 8192);
+    public static final BoundedLineReader.OversizePolicy OVERSIZE_LINE_POLICY = BoundedLineReader.OversizePolicy.fromName(System.getProperty("chat.maxLine.policy"));
+
+    public static final int MAX_AUTH_ATTEMPTS = Integer.getInteger("chat.auth.maxAttempts", 5);
+
+    // Comma-separated usernames allowed to run /stats
+    public static final Set<String> ADMIN_USERS = listProperty("chat.admin.users");
+    public static final int METRICS_PORT = Integer.getInteger("chat.metrics.port", 0);
+
+    // Spawn an AI bot for every new room; always off with the loopback transport, since bots connect over TCP
+    public static final boolean BOTS_ENABLED = Boolean.parseBoolean(System.getProperty("chat.bots.enabled", "true"));
+
+    // Trace file for TrafficCapture; capture is off when unset
+    public static final String CAPTURE_FILE = System.getProperty("chat.capture.file");
+
+    public static final int HISTORY_DEPTH = Integer.getInteger("chat.history.depth", 5);
+    public static final int RESUME_BUFFER = Integer.getInteger("chat.resume.buffer", 256);
+    public static final int RESUME_MAX_MESSAGES = Integer.getInteger("chat.resume.maxMessages", 1000);
+
+    public static final RoomJournal.SyncPolicy JOURNAL_SYNC_POLICY = RoomJournal.SyncPolicy.fromName(System.getProperty("chat.journal.sync"));
+    public static final long JOURNAL_SYNC_INTERVAL_MS = Long.getLong("chat.journal.syncIntervalMs", 1000L);
+    public static final int JOURNAL_SYNC_EVERY = Integer.getInteger("chat.journal.syncEvery", 64);
+
+    public static final double ADMISSION_GLOBAL_RATE = doubleProperty("chat.admission.globalRate", 200);
+    public static final double ADMISSION_GLOBAL_BURST = doubleProperty("chat.admission.globalBurst", 400);
+    public static final double ADMISSION_PER_IP_RATE = doubleProperty("chat.admission.perIpRate", 5);
+    public static final double ADMISSION_PER_IP_BURST = doubleProperty("chat.admission.perIpBurst", 20);
+    public static final int ADMISSION_MAX_IN_FLIGHT_HANDSHAKES = Integer.getInteger("chat.admission.maxInFlightHandshakes", 64);
+    public static final long HANDSHAKE_TIMEOUT_MS = Long.getLong("chat.admission.handshakeTimeoutMs", 10000L);
+
+    public static final double RATE_LIMIT_MESSAGES_PER_SECOND = doubleProperty("chat.rateLimit.messagesPerSecond", 5);
+    public static final double RATE_LIMIT_MESSAGE_BURST = doubleProperty("chat.rateLimit.messageBurst", 10);
+    public static final double RATE_LIMIT_COMMANDS_PER_SECOND = doubleProperty("chat.rateLimit.commandsPerSecond", 2);
+    public static final double RATE_LIMIT_COMMAND_BURST = doubleProperty("chat.rateLimit.commandBurst", 5);
+    public static final double RATE_LIMIT_USER_FACTOR = doubleProperty("chat.rateLimit.userFactor", 2);
+    public static final InboundRateLimiter.Overflow RATE_LIMIT_OVERFLOW = InboundRateLimiter.Overflow.fromName(System.getProperty("chat.rateLimit.overflow"));
+    public static final long RATE_LIMIT_MAX_DEFER_MS = Long.getLong("chat.rateLimit.maxDeferMs", 2000L);
+
+    static double doubleProperty(String name, double defaultValue)
+    {
+        String value = System.getProperty(name);
+
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            Log.warn("Invalid value '" + value + "' for " + name + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static Set<String> listProperty(String name)
+    {
+        return Arrays.stream(System.getProperty(name, "").split(","))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private ServerConfig()
+    {
+    }
+}
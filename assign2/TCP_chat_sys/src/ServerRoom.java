@@ -1,27 +1,79 @@
-import java.io.*;
-import java.net.Socket;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
+// A chat room: its members, its journal and the ring of recent messages it replays on join.
+// Broadcasts are numbered in one order and every member receives them in that order. To keep it, a room's
+// fan-out runs on one thread at a time: concurrent senders no longer fan out side by side over the member
+// snapshot, and a sender that takes the fan-out may deliver other senders' messages before it returns.
 public class ServerRoom
 {
-    private static final int MAX_MESSAGE_COUNT = 5;
+    private static final Member[] NO_MEMBERS = new Member[0];
+
+    private static final Metrics.Counter MESSAGES = Metrics.counter("chat_room_messages_total");
+    private static final Metrics.Histogram BROADCAST_TIME = Metrics.timer("chat_room_broadcast_us");
+    private static final Metrics.Histogram BROADCAST_FANOUT = Metrics.histogram("chat_room_broadcast_fanout");
+
     private final String name;
-    private final List<Socket> clients;
-    private final List<PrintWriter> writers;
+    private final String roomTag;
+    private final RoomJournal journal;
+    private final RecentHistory<RoomMessage> history;
+    private final int historyDepth;
+
+    // Serialises sequence assignment with the journal append and the hand-off to the fan-out queue
+    private final ReentrantLock broadcastLock = new ReentrantLock();
+    private long lastSequence;
+
+    // Broadcasts waiting to be fanned out, in sequence order. Whichever broadcaster holds fanoutLock delivers
+    // them all, so members see the room's order without senders waiting on each other's fan-out.
+    private final ConcurrentLinkedQueue<Delivery> fanoutQueue = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock fanoutLock = new ReentrantLock();
+
+    private final InboundRateLimiter.Limits rateLimits;
+    private final LongAdder droppedInbound = new LongAdder();
+    private final LongAdder deferredInbound = new LongAdder();
+
+    // Immutable snapshot, replaced wholesale on join/leave so broadcasts can iterate without locking
+    private final AtomicReference<Member[]> members = new AtomicReference<>(NO_MEMBERS);
+
+    private record Member(ClientConnection connection, ConnectionWriter writer)
+    {
+    }
 
-    private final ReadWriteLock lock;
+    private record Delivery(OutboundMessage tagged, OutboundMessage plain, Member[] recipients, ConnectionWriter sender)
+    {
+    }
+
+    public ServerRoom(String name)
+    {
+        this(name, ServerConfig.HISTORY_DEPTH);
+    }
 
-    public ServerRoom(String name) {
+    public ServerRoom(String name, int historyDepth)
+    {
         this.name = name;
-        this.clients = new ArrayList<>();
-        this.writers = new ArrayList<>();
-        this.lock = new ReentrantReadWriteLock();
+        this.roomTag = RoomMessage.roomTag(name);
+        this.rateLimits = InboundRateLimiter.Limits.forRoom(name);
+        this.journal = new RoomJournal(Paths.get(name + "_log.txt"));
+        this.historyDepth = Math.max(0, historyDepth);
+        this.history = new RecentHistory<>(Math.max(this.historyDepth, ServerConfig.RESUME_BUFFER));
+
+        long highest = 0;
+
+        for (String line : journal.readTail(history.capacity()))
+        {
+            RoomMessage message = RoomMessage.parse(line);
+            history.add(message);
+            highest = Math.max(highest, message.sequence());
+        }
+
+        // A room without a numbered journal starts from the clock, so a room recreated under an old name
+        // keeps numbering above anything a client may remember from the previous one
+        this.lastSequence = highest > 0 ? highest : System.currentTimeMillis() * 1000;
     }
 
     public String getName()
@@ -29,127 +81,261 @@ public class ServerRoom
         return name;
     }
 
-    public void addClient(Socket socket, PrintWriter writer)
+    public InboundRateLimiter.Limits getRateLimits()
     {
-        lock.writeLock().lock();
+        return rateLimits;
+    }
 
-        try
-        {
-            clients.add(socket);
-            writers.add(writer);
-        }
-        finally
+    public void recordDropped()
+    {
+        droppedInbound.increment();
+    }
+
+    public void recordDeferred()
+    {
+        deferredInbound.increment();
+    }
+
+    public long getDroppedInbound()
+    {
+        return droppedInbound.sum();
+    }
+
+    public long getDeferredInbound()
+    {
+        return deferredInbound.sum();
+    }
+
+    public void addClient(ClientConnection connection, ConnectionWriter writer)
+    {
+        Member member = new Member(connection, writer);
+        Member[] current;
+        Member[] updated;
+
+        do
         {
-            lock.writeLock().unlock();
+            current = members.get();
+            updated = new Member[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = member;
         }
+        while (!members.compareAndSet(current, updated));
     }
 
-
     public boolean isEmpty()
     {
-        lock.readLock().lock();
+        return members.get().length == 0;
+    }
 
-        try
+    public int getMemberCount()
+    {
+        return members.get().length;
+    }
+
+    public void removeClient(ClientConnection connection, ConnectionWriter writer)
+    {
+        Member[] current;
+        Member[] updated;
+
+        do
         {
-            return clients.isEmpty();
+            current = members.get();
+            int index = indexOf(current, connection, writer);
+
+            if (index < 0)
+            {
+                return;
+            }
+
+            updated = current.length == 1 ? NO_MEMBERS : new Member[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
         }
-        finally
+        while (!members.compareAndSet(current, updated));
+    }
+
+    // Called once the room has been torn down: drops its log so a room recreated later starts empty.
+    public void discard()
+    {
+        journal.delete();
+    }
+
+    // Writes out and releases the journal, leaving the log in place: at shutdown, and for a room that was
+    // never registered, whose log belongs to the room that was.
+    public void close()
+    {
+        journal.close();
+    }
+
+    private static int indexOf(Member[] snapshot, ClientConnection connection, ConnectionWriter writer)
+    {
+        for (int i = 0; i < snapshot.length; i++)
         {
-            lock.readLock().unlock();
+            if (snapshot[i].connection() == connection && snapshot[i].writer() == writer)
+            {
+                return i;
+            }
         }
+
+        return -1;
     }
 
-    public void removeClient(Socket socket, PrintWriter writer)
+    public void broadcast(String message, ConnectionWriter sender)
     {
-        File logFile = null;
+        ChatEvents.RoomBroadcast event = new ChatEvents.RoomBroadcast();
+        event.begin();
+
+        long start = System.nanoTime();
+        OutboundMessage plain = OutboundMessage.of(Frame.Type.CHAT, message);
+        Member[] recipients;
 
-        lock.writeLock().lock();
+        broadcastLock.lock();
 
         try
         {
-            clients.remove(socket);
-            writers.remove(writer);
+            RoomMessage entry = new RoomMessage(++lastSequence, message);
+            OutboundMessage tagged = OutboundMessage.of(Frame.Type.CHAT, entry.tagged(roomTag));
 
-            boolean isCostumRoom = !getName().equals("general");
+            journal.append(entry.tagged());
+            history.add(entry);
 
-            if (clients.isEmpty() && isCostumRoom)
-            {
-                logFile = new File(name + "_log.txt");
-            }
+            recipients = members.get();
+            fanoutQueue.add(new Delivery(tagged, plain, recipients, sender));
         }
-        catch (Exception e)
+        finally
         {
-            System.out.println("Error removing client from room " + name + ": " + e.getMessage());
+            broadcastLock.unlock();
         }
-        finally
+
+        deliverQueued();
+
+        int fanout = 0;
+
+        for (Member member : recipients)
         {
-            lock.writeLock().unlock();
+            if (member.writer() != sender)
+            {
+                fanout++;
+            }
         }
 
-        if (logFile != null && logFile.exists())
+        // lock wait and any fan-out done on others' behalf included: that is the latency a sender sees, and
+        // under contention it measures the room's fan-out more than this one message
+        MESSAGES.increment();
+        BROADCAST_FANOUT.record(fanout);
+        BROADCAST_TIME.recordSince(start);
+
+        if (event.shouldCommit())
         {
-            logFile.delete();
+            event.room = name;
+            event.fanout = fanout;
+            event.bytes = plain.size();
+            event.commit();
+        }
+    }
+
+    // A broadcaster that finds fanoutLock taken leaves its message to the holder, which looks at the queue
+    // again after letting go, so nothing queued is left behind
+    private void deliverQueued()
+    {
+        while (!fanoutQueue.isEmpty() && fanoutLock.tryLock())
+        {
+            try
+            {
+                Delivery delivery;
+
+                while ((delivery = fanoutQueue.poll()) != null)
+                {
+                    for (Member member : delivery.recipients())
+                    {
+                        if (member.writer() != delivery.sender())
+                        {
+                            member.writer().send(member.writer().isSequenced() ? delivery.tagged() : delivery.plain());
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                fanoutLock.unlock();
+            }
         }
     }
 
-    public synchronized void broadcast(String message, PrintWriter sender)
+    public long getLastSequence()
     {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(name + "_log.txt", true), true))
+        broadcastLock.lock();
+
+        try
         {
-            pw.println(message);
+            return lastSequence;
         }
-        catch (IOException e)
+        finally
         {
-            System.out.println("Error logging message in room " + name + ": " + e.getMessage());
+            broadcastLock.unlock();
         }
+    }
 
-        for (PrintWriter writer : writers)
+    // The last few messages shown to someone joining the room
+    public List<RoomMessage> getRecentMessages()
+    {
+        List<RoomMessage> buffered = history.snapshot();
+        List<RoomMessage> recent = new ArrayList<>(historyDepth);
+
+        for (int i = buffered.size() - 1; i >= 0 && recent.size() < historyDepth; i--)
         {
-            if (writer != sender)
+            if (!buffered.get(i).text().startsWith("You:"))
             {
-                writer.println(message);
+                recent.add(0, buffered.get(i));
             }
         }
+
+        return recent;
     }
 
-    public synchronized List<String> getLastFiveMessages()
+    // Everything numbered after afterSequence, newest maxMessages at most. Served from memory when the
+    // ring still covers the gap, otherwise the older part is read back from the journal.
+    public List<RoomMessage> getMessagesAfter(long afterSequence, int maxMessages)
     {
-        List<String> lastMessages = new ArrayList<>();
+        List<RoomMessage> buffered = history.snapshot();
+        List<RoomMessage> missed = new ArrayList<>();
 
-        Path logFilePath = Paths.get(name + "_log.txt");
+        long oldestBuffered = Long.MAX_VALUE;
 
-        if (!Files.exists(logFilePath))
+        for (RoomMessage message : buffered)
         {
-            System.out.println("Log file does not exist yet: " + logFilePath);
-            return lastMessages;
-        }
-
-        try (BufferedReader reader = Files.newBufferedReader(logFilePath))
-        {
-            List<String> lines = new ArrayList<>();
-            String line;
-
-            while ((line = reader.readLine()) != null)
+            if (message.sequence() > 0)
             {
-                lines.add(line);
+                oldestBuffered = Math.min(oldestBuffered, message.sequence());
             }
+        }
 
-            int start = Math.max(0, lines.size() - MAX_MESSAGE_COUNT);
-
-            for (int i = start; i < lines.size(); i++)
+        if (afterSequence + 1 < oldestBuffered)
+        {
+            for (String line : journal.readTail(maxMessages))
             {
-                String message = lines.get(i);
+                RoomMessage message = RoomMessage.parse(line);
 
-                if (!message.startsWith("You:"))
+                if (message.sequence() > afterSequence && message.sequence() < oldestBuffered)
                 {
-                    lastMessages.add(message);
+                    missed.add(message);
                 }
             }
         }
-        catch (IOException e)
+
+        for (RoomMessage message : buffered)
         {
-            System.out.println("Error reading the message log: " + e.getMessage());
+            if (message.sequence() > afterSequence)
+            {
+                missed.add(message);
+            }
+        }
+
+        if (missed.size() > maxMessages)
+        {
+            return new ArrayList<>(missed.subList(missed.size() - maxMessages, missed.size()));
         }
-        return lastMessages;
+
+        return missed;
     }
 }
@@ -0,0 +1,68 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import javax.net.ssl.SSLSocket;
+
+public class SocketClientConnection implements ClientConnection
+{
+    private final Socket socket;
+
+    public SocketClientConnection(Socket socket)
+    {
+        this.socket = socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException
+    {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void startHandshake(long timeoutMillis) throws IOException
+    {
+        if (socket instanceof SSLSocket sslSocket)
+        {
+            long startMillis = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
+
+            sslSocket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, Math.max(0, timeoutMillis)));
+
+            try
+            {
+                sslSocket.startHandshake();
+            }
+            finally
+            {
+                sslSocket.setSoTimeout(0);
+            }
+
+            TlsContextFactory.SERVER_HANDSHAKES.record(sslSocket.getSession(), startMillis, System.nanoTime() - startNanos);
+        }
+    }
+
+    @Override
+    public String getRemoteAddress()
+    {
+        return socket.getInetAddress().getHostAddress();
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        socket.close();
+    }
+}
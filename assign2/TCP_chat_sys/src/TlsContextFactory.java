@@ -0,0 +1,221 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+// One SSLContext per role and process. Key material is loaded once, and the shared session caches
+// (plus TLS 1.3 session tickets) let reconnects to the same server take the abbreviated handshake.
+public final class TlsContextFactory
+{
+    private static final String KEYSTORE_FILE = "keystore.jks";
+    private static final String TRUSTSTORE_FILE = "truststore.jks";
+    private static final char[] STORE_PASSWORD = "123456".toCharArray();
+
+    private static final int SESSION_CACHE_SIZE = Integer.getInteger("chat.tls.sessionCacheSize", 1024);
+    private static final int SESSION_TIMEOUT_SECONDS = Integer.getInteger("chat.tls.sessionTimeoutSeconds", 3600);
+
+    public static final HandshakeStats SERVER_HANDSHAKES = new HandshakeStats();
+    public static final HandshakeStats CLIENT_HANDSHAKES = new HandshakeStats();
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static volatile SSLContext serverContext;
+    private static volatile SSLContext clientContext;
+
+    static
+    {
+        // Both default to true on current JDKs; set them explicitly unless the user already chose
+        setIfAbsent("jdk.tls.server.enableSessionTicketExtension", "true");
+        setIfAbsent("jdk.tls.client.enableSessionTicketExtension", "true");
+    }
+
+    private TlsContextFactory()
+    {
+    }
+
+    private static void setIfAbsent(String property, String value)
+    {
+        if (System.getProperty(property) == null)
+        {
+            System.setProperty(property, value);
+        }
+    }
+
+    public static SSLContext serverContext() throws GeneralSecurityException, IOException
+    {
+        SSLContext context = serverContext;
+
+        if (context != null)
+        {
+            return context;
+        }
+
+        lock.lock();
+
+        try
+        {
+            if (serverContext == null)
+            {
+                KeyStore keyStore = loadStore(KEYSTORE_FILE);
+
+                KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("SunX509");
+                keyManagerFactory.init(keyStore, STORE_PASSWORD);
+
+                SSLContext created = SSLContext.getInstance("TLS");
+                created.init(keyManagerFactory.getKeyManagers(), null, null);
+                created.getServerSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+                created.getServerSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+
+                serverContext = created;
+            }
+
+            return serverContext;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public static SSLContext clientContext() throws GeneralSecurityException, IOException
+    {
+        SSLContext context = clientContext;
+
+        if (context != null)
+        {
+            return context;
+        }
+
+        lock.lock();
+
+        try
+        {
+            if (clientContext == null)
+            {
+                KeyStore trustStore = loadStore(TRUSTSTORE_FILE);
+
+                TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                tmf.init(trustStore);
+
+                SSLContext created = SSLContext.getInstance("TLS");
+                created.init(null, tmf.getTrustManagers(), null);
+                created.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+                created.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+
+                clientContext = created;
+            }
+
+            return clientContext;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private static KeyStore loadStore(String file) throws GeneralSecurityException, IOException
+    {
+        KeyStore store = KeyStore.getInstance("JKS");
+
+        try (FileInputStream in = new FileInputStream(file))
+        {
+            store.load(in, STORE_PASSWORD);
+        }
+
+        return store;
+    }
+
+    // Opens a client socket through the shared context and completes the handshake before returning it
+    public static SSLSocket connect(String host, int port) throws GeneralSecurityException, IOException
+    {
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+
+        SSLSocket socket = (SSLSocket) clientContext().getSocketFactory().createSocket(host, port);
+
+        try
+        {
+            socket.startHandshake();
+        }
+        catch (IOException e)
+        {
+            socket.close();
+            throw e;
+        }
+
+        CLIENT_HANDSHAKES.record(socket.getSession(), startMillis, System.nanoTime() - startNanos);
+        return socket;
+    }
+
+    // A resumed session keeps the creation time of the session it was resumed from
+    public static boolean isResumed(SSLSession session, long handshakeStartMillis)
+    {
+        return session != null && session.getCreationTime() < handshakeStartMillis;
+    }
+
+    public static final class HandshakeStats
+    {
+        private final LongAdder full = new LongAdder();
+        private final LongAdder resumed = new LongAdder();
+        private final LongAdder fullNanos = new LongAdder();
+        private final LongAdder resumedNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        public void record(SSLSession session, long startMillis, long elapsedNanos)
+        {
+            if (isResumed(session, startMillis))
+            {
+                resumed.increment();
+                resumedNanos.add(elapsedNanos);
+            }
+            else
+            {
+                full.increment();
+                fullNanos.add(elapsedNanos);
+            }
+
+            maxNanos.accumulate(elapsedNanos);
+        }
+
+        public long getFullHandshakes()
+        {
+            return full.sum();
+        }
+
+        public long getResumedHandshakes()
+        {
+            return resumed.sum();
+        }
+
+        public double getAverageFullMillis()
+        {
+            long count = full.sum();
+            return count == 0 ? 0.0 : (double) TimeUnit.NANOSECONDS.toMicros(fullNanos.sum()) / count / 1000.0;
+        }
+
+        public double getAverageResumedMillis()
+        {
+            long count = resumed.sum();
+            return count == 0 ? 0.0 : (double) TimeUnit.NANOSECONDS.toMicros(resumedNanos.sum()) / count / 1000.0;
+        }
+
+        public double getMaxMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos.get()) / 1000.0;
+        }
+
+        public String describe()
+        {
+            return String.format("%d full (avg %.1f ms), %d resumed (avg %.1f ms), max %.1f ms",
+                    getFullHandshakes(), getAverageFullMillis(), getResumedHandshakes(), getAverageResumedMillis(), getMaxMillis());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Classic token bucket: holds up to capacity tokens and refills continuously at refillPerSecond.
+// Refill is computed lazily on each call, so an idle bucket costs nothing.
+public class TokenBucket
+{
+    private final double capacity;
+    private final double refillPerNano;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public TokenBucket(double capacity, double refillPerSecond)
+    {
+        this(capacity, refillPerSecond, Math.max(1, capacity));
+    }
+
+    // Starts with the given tokens rather than full, capped at the capacity
+    public TokenBucket(double capacity, double refillPerSecond, double initialTokens)
+    {
+        this.capacity = Math.max(1, capacity);
+        this.refillPerNano = Math.max(0, refillPerSecond) / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = Math.max(0, Math.min(this.capacity, initialTokens));
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public boolean tryAcquire()
+    {
+        return tryAcquire(1);
+    }
+
+    public boolean tryAcquire(int permits)
+    {
+        lock.lock();
+
+        try
+        {
+            refill();
+
+            if (tokens < permits)
+            {
+                return false;
+            }
+
+            tokens -= permits;
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    // Gives back permits taken by a tryAcquire whose work did not go ahead after all
+    public void refund(int permits)
+    {
+        lock.lock();
+
+        try
+        {
+            refill();
+            tokens = Math.min(capacity, tokens + permits);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    // How long until the given number of permits will be available, 0 if they already are
+    public long nanosUntilAvailable(int permits)
+    {
+        lock.lock();
+
+        try
+        {
+            refill();
+
+            if (tokens >= permits)
+            {
+                return 0;
+            }
+
+            if (refillPerNano == 0)
+            {
+                return Long.MAX_VALUE;
+            }
+
+            return (long) Math.ceil((permits - tokens) / refillPerNano);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public double available()
+    {
+        lock.lock();
+
+        try
+        {
+            refill();
+            return tokens;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    // A full bucket behaves exactly like a new one, so it can be dropped and recreated on demand
+    public boolean isFull()
+    {
+        return available() >= capacity;
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * refillPerNano);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Records what authenticated clients send, with timestamps, so TrafficReplayer can drive a server with the
+// same workload later. Like RoomJournal, recording only enqueues; a background thread writes the trace.
+// Capture starts after authentication, so credentials and tokens never reach the trace, and lines the server
+// blocks as secrets (fingerprints, tokens) are stored as a placeholder that the server blocks the same way.
+// Trace format: the magic "CHATTRACE", a version byte and the capture's start in epoch milliseconds, then
+// records of a kind byte, the time since the start in microseconds and the session id (both varints):
+//   SESSION  username and starting room (both length-prefixed UTF-8)
+//   LINE     frame type code (0 for the line protocol) and the line (length-prefixed UTF-8)
+//   END      nothing further
+public final class TrafficCapture
+{
+    public enum Kind
+    {
+        SESSION,
+        LINE,
+        END
+    }
+
+    // text is the username for SESSION and the line for LINE; room is only set for SESSION
+    public record Event(Kind kind, long micros, int session, int frame, String text, String room)
+    {
+    }
+
+    private static final byte[] MAGIC = "CHATTRACE".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int MAX_BATCH = 512;
+    private static final Event CLOSE_MARKER = new Event(Kind.END, -1, -1, 0, null, null);
+    private static final String SECRET_PLACEHOLDER = "0".repeat(64);
+
+    private final Path path;
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final LongAdder recorded = new LongAdder();
+    private final LinkedBlockingQueue<Event> pending = new LinkedBlockingQueue<>();
+    private final DataOutputStream out;
+    private final Thread flusherThread;
+
+    private volatile boolean closed = false;
+
+    private TrafficCapture(Path path) throws IOException
+    {
+        this.path = path;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+
+        this.flusherThread = Thread.ofVirtual().start(this::flushLoop);
+    }
+
+    // Truncates any existing file at path
+    public static TrafficCapture open(Path path) throws IOException
+    {
+        return new TrafficCapture(path);
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    public long getRecorded()
+    {
+        return recorded.sum();
+    }
+
+    // Returns the id to pass to line() and endSession()
+    public int startSession(String username, String room)
+    {
+        int session = nextSession.incrementAndGet();
+        add(new Event(Kind.SESSION, elapsedMicros(), session, 0, username, room));
+        return session;
+    }
+
+    // type is null for the line protocol
+    public void line(int session, Frame.Type type, byte[] buffer, int offset, int length, boolean secret)
+    {
+        String text = secret ? SECRET_PLACEHOLDER : new String(buffer, offset, length, StandardCharsets.UTF_8);
+        add(new Event(Kind.LINE, elapsedMicros(), session, type == null ? 0 : type.code(), text, null));
+    }
+
+    public void endSession(int session)
+    {
+        add(new Event(Kind.END, elapsedMicros(), session, 0, null, null));
+    }
+
+    private long elapsedMicros()
+    {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    private void add(Event event)
+    {
+        if (!closed)
+        {
+            pending.add(event);
+        }
+    }
+
+    // Writes out whatever is still queued, then closes the file
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+        pending.add(CLOSE_MARKER);
+
+        try
+        {
+            flusherThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop()
+    {
+        List<Event> batch = new ArrayList<>(MAX_BATCH);
+        boolean running = true;
+
+        try
+        {
+            while (running)
+            {
+                batch.add(pending.take());
+                pending.drainTo(batch, MAX_BATCH - 1);
+
+                for (Event event : batch)
+                {
+                    if (event == CLOSE_MARKER)
+                    {
+                        running = false;
+                        break;
+                    }
+
+                    write(event);
+                    recorded.increment();
+                }
+
+                out.flush();
+                batch.clear();
+            }
+        }
+        catch (IOException e)
+        {
+            closed = true;
+            Log.error("Error writing traffic capture " + path + ", capture stopped: " + e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    private void write(Event event) throws IOException
+    {
+        out.writeByte(event.kind().ordinal());
+        writeVarLong(out, event.micros());
+        writeVarLong(out, event.session());
+
+        switch (event.kind())
+        {
+            case SESSION ->
+            {
+                writeString(out, event.text());
+                writeString(out, event.room());
+            }
+            case LINE ->
+            {
+                out.writeByte(event.frame());
+                writeString(out, event.text());
+            }
+            case END ->
+            {
+            }
+        }
+    }
+
+    // Reads a whole trace; a record cut short at the end (the server was killed mid-write) is ignored
+    public static List<Event> read(Path path) throws IOException
+    {
+        List<Event> events = new ArrayList<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024)))
+        {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+
+            if (!Arrays.equals(magic, MAGIC) || in.readUnsignedByte() != VERSION)
+            {
+                throw new IOException(path + " is not a version " + VERSION + " chat trace");
+            }
+
+            in.readLong();
+
+            while (true)
+            {
+                int kind = in.read();
+
+                if (kind < 0)
+                {
+                    break;
+                }
+
+                if (kind >= Kind.values().length)
+                {
+                    throw new IOException("Unknown record kind " + kind + " in " + path);
+                }
+
+                try
+                {
+                    long micros = readVarLong(in);
+                    int session = (int) readVarLong(in);
+
+                    events.add(switch (Kind.values()[kind])
+                    {
+                        case SESSION -> new Event(Kind.SESSION, micros, session, 0, readString(in), readString(in));
+                        case LINE -> new Event(Kind.LINE, micros, session, in.readUnsignedByte(), readString(in), null);
+                        case END -> new Event(Kind.END, micros, session, 0, null, null);
+                    });
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+            }
+        }
+
+        return events;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException
+    {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varint in trace");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, encoded.length);
+        out.write(encoded);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        long length = readVarLong(in);
+
+        if (length > Integer.MAX_VALUE - 8)
+        {
+            throw new IOException("Malformed string length in trace");
+        }
+
+        byte[] encoded = new byte[(int) length];
+        in.readFully(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,451 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Re-drives a trace written by TrafficCapture (-Dchat.capture.file) against a running server. Every captured
+// session becomes a connection that logs in at the same offset, starts in the same room and sends the same
+// lines on the original schedule, divided by -Dreplay.speed (1 = real time, 10 = ten times faster, max = no
+// waiting at all). Users are registered under -Dreplay.userPrefix plus the captured name, with a password of
+// our own, since the trace holds none. Prints one JSON report to stdout:
+//   latency     from sending a chat line to another replayed session receiving it
+//   divergence  how far the replay strayed from the capture: sessions that could not start, lines sent late
+//               (more than -Dreplay.lateMs behind the scaled schedule) or not at all, and rate-limit, blocked
+//               and unknown-command notices from the server
+// Usage: java -Dreplay.speed=10 -cp out TrafficReplayer trace.bin [host] [port]
+public final class TrafficReplayer
+{
+    private static final String SPEED_PROPERTY = System.getProperty("replay.speed", "1").trim().toLowerCase(Locale.ROOT);
+    private static final String USER_PREFIX = System.getProperty("replay.userPrefix", "replay-");
+    private static final String PASSWORD = System.getProperty("replay.password", "replay-password");
+    private static final String MODE = System.getProperty("replay.mode", "auto").trim().toLowerCase(Locale.ROOT);
+    private static final int TIMEOUT_MS = Integer.getInteger("replay.timeoutMs", 10000);
+    private static final int CONNECT_ATTEMPTS = Math.max(1, Integer.getInteger("replay.connectAttempts", 5));
+    private static final long CONNECT_BACKOFF_MS = Long.getLong("replay.connectBackoffMs", 500);
+    // sessions connect and log in this long before their captured start, which was taken after login
+    private static final long LEAD_MS = Long.getLong("replay.leadMs", 3000);
+    // a line sent later than this after its scaled time counts as late
+    private static final long LATE_MS = Long.getLong("replay.lateMs", 100);
+    private static final long DRAIN_MS = Long.getLong("replay.drainMs", 2000);
+    // a sped-up session would otherwise hang up before the server has answered its last line
+    private static final long GRACE_MS = Long.getLong("replay.graceMs", 250);
+
+    private static final String RATE_LIMIT_NOTICE = "[Server] You are sending too fast";
+    private static final String BLOCKED_NOTICE = "[Server] Message blocked";
+    private static final String UNKNOWN_COMMAND_NOTICE = "[Server] Unknown command.";
+    private static final String JOINED = "You have joined room:";
+
+    private static final Metrics.Histogram LATENCY = Metrics.timer("replay_latency_us");
+    private static final Metrics.Histogram JOIN_LATENCY = Metrics.timer("replay_join_us");
+    private static final Metrics.Histogram LOGIN_TIME = Metrics.timer("replay_login_us");
+    private static final Metrics.Histogram SCHEDULE_LAG = Metrics.timer("replay_schedule_lag_us");
+    private static final Metrics.Counter SESSIONS_STARTED = Metrics.counter("replay_sessions_started_total");
+    private static final Metrics.Counter CONNECT_FAILURES = Metrics.counter("replay_connect_failures_total");
+    private static final Metrics.Counter CONNECT_RETRIES = Metrics.counter("replay_connect_retries_total");
+    private static final Metrics.Counter AUTH_FAILURES = Metrics.counter("replay_auth_failures_total");
+    private static final Metrics.Counter JOIN_FAILURES = Metrics.counter("replay_join_failures_total");
+    private static final Metrics.Counter DISCONNECTS = Metrics.counter("replay_disconnects_total");
+    private static final Metrics.Counter LINES_SENT = Metrics.counter("replay_lines_sent_total");
+    private static final Metrics.Counter LINES_LATE = Metrics.counter("replay_lines_late_total");
+    private static final Metrics.Counter LINES_SKIPPED = Metrics.counter("replay_lines_skipped_total");
+    private static final Metrics.Counter RECEIVED = Metrics.counter("replay_received_total");
+    private static final Metrics.Counter RATE_LIMITED = Metrics.counter("replay_rate_limited_total");
+    private static final Metrics.Counter BLOCKED = Metrics.counter("replay_blocked_total");
+    private static final Metrics.Counter UNKNOWN_COMMANDS = Metrics.counter("replay_unknown_commands_total");
+
+    // One captured connection: who it was, where it started and what it sent, with times relative to the trace start
+    private record Session(int id, String username, String room, long startMicros, List<TrafficCapture.Event> lines, long endMicros)
+    {
+    }
+
+    private final Path trace;
+    private final String host;
+    private final int port;
+    private final double speed;
+    private final String runId = UUID.randomUUID().toString();
+
+    // "<user>: <line>" as the room will show it -> when it was sent; receivers look their copy up here
+    private final Map<String, Long> inFlight = new ConcurrentHashMap<>();
+
+    // the first session's start; the time before it is idle and not replayed
+    private volatile long originMicros;
+    private volatile long replayStartNanos;
+    // at max speed sessions have no schedule to keep them open, so each waits until every session has sent
+    private volatile CountDownLatch allSent;
+
+    public TrafficReplayer(Path trace, String host, int port, double speed)
+    {
+        this.trace = trace;
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: java [-Dreplay.speed=1|10|max] -cp out TrafficReplayer <trace file> [host] [port]");
+            System.exit(2);
+        }
+
+        double speed;
+
+        try
+        {
+            // 0 stands for max: every wait is skipped
+            speed = SPEED_PROPERTY.equals("max") ? 0 : Double.parseDouble(SPEED_PROPERTY);
+        }
+        catch (NumberFormatException e)
+        {
+            speed = -1;
+        }
+
+        if (speed < 0 || Double.isNaN(speed) || Double.isInfinite(speed))
+        {
+            System.err.println("replay.speed must be a positive number or max");
+            System.exit(2);
+        }
+
+        String host = args.length > 1 ? args[1] : "localhost";
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 8080;
+
+        System.out.println(new TrafficReplayer(Path.of(args[0]), host, port, speed).run());
+
+        // readers of connections the server has not closed yet are still parked in reads
+        System.exit(0);
+    }
+
+    public String run() throws IOException, InterruptedException
+    {
+        List<Session> sessions = sessions(TrafficCapture.read(trace));
+        long capturedLines = sessions.stream().mapToLong(session -> session.lines().size()).sum();
+        originMicros = sessions.stream().mapToLong(Session::startMicros).min().orElse(0);
+        long capturedMicros = sessions.stream().mapToLong(Session::endMicros).max().orElse(originMicros) - originMicros;
+
+        System.err.println("Replaying " + sessions.size() + " sessions and " + capturedLines + " lines from " + trace
+                + " (" + format(capturedMicros / 1e6) + " s captured) at " + (speed == 0 ? "max" : format(speed) + "x") + " speed");
+
+        CountDownLatch finished = new CountDownLatch(sessions.size());
+        allSent = new CountDownLatch(sessions.size());
+        replayStartNanos = System.nanoTime();
+
+        for (Session session : sessions)
+        {
+            Thread.ofVirtual().name("replay-" + session.id()).start(() -> {
+                try
+                {
+                    replay(session);
+                }
+                finally
+                {
+                    finished.countDown();
+                }
+            });
+        }
+
+        while (!finished.await(1, TimeUnit.SECONDS))
+        {
+            System.err.println("replaying: sessions=" + SESSIONS_STARTED.get() + "/" + sessions.size()
+                    + " sent=" + LINES_SENT.get() + "/" + capturedLines + " received=" + RECEIVED.get()
+                    + " p99=" + format(LATENCY.getQuantile(0.99)) + "us");
+        }
+
+        long wallNanos = System.nanoTime() - replayStartNanos;
+        return report(sessions.size(), capturedLines, capturedMicros, wallNanos);
+    }
+
+    // Groups the events by session, in the order the sessions started; lines from sessions whose start
+    // was not captured (they logged in before capture began) have nothing to log in as and are left out
+    private static List<Session> sessions(List<TrafficCapture.Event> events)
+    {
+        Map<Integer, TrafficCapture.Event> starts = new LinkedHashMap<>();
+        Map<Integer, List<TrafficCapture.Event>> lines = new HashMap<>();
+        Map<Integer, Long> ends = new HashMap<>();
+
+        for (TrafficCapture.Event event : events)
+        {
+            switch (event.kind())
+            {
+                case SESSION -> starts.put(event.session(), event);
+                case LINE -> lines.computeIfAbsent(event.session(), id -> new ArrayList<>()).add(event);
+                case END -> ends.put(event.session(), event.micros());
+            }
+        }
+
+        List<Session> sessions = new ArrayList<>(starts.size());
+
+        for (TrafficCapture.Event start : starts.values())
+        {
+            List<TrafficCapture.Event> sent = lines.getOrDefault(start.session(), List.of());
+            long lastLine = sent.isEmpty() ? start.micros() : sent.get(sent.size() - 1).micros();
+
+            // a session still open when capture stopped ends with its last line
+            sessions.add(new Session(start.session(), start.text(), start.room(), start.micros(), sent,
+                    Math.max(lastLine, ends.getOrDefault(start.session(), lastLine))));
+        }
+
+        return sessions;
+    }
+
+    // The schedule starts LEAD_MS after the replay, so the first sessions have time to log in
+    private long scheduledNanos(long micros)
+    {
+        return speed == 0 ? replayStartNanos : replayStartNanos + TimeUnit.MILLISECONDS.toNanos(LEAD_MS) + (long) ((micros - originMicros) * 1000 / speed);
+    }
+
+    private void replay(Session session)
+    {
+        HeadlessClient.parkUntil(scheduledNanos(session.startMicros()) - TimeUnit.MILLISECONDS.toNanos(LEAD_MS));
+
+        String username = USER_PREFIX + session.username();
+        HeadlessClient client;
+
+        try
+        {
+            client = HeadlessClient.connect(host, port, TIMEOUT_MS, CONNECT_ATTEMPTS, CONNECT_BACKOFF_MS, CONNECT_RETRIES);
+        }
+        catch (Exception e)
+        {
+            abandon(session, CONNECT_FAILURES);
+            return;
+        }
+
+        // a timeout or hang-up counts against the step it interrupted
+        Metrics.Counter failures = AUTH_FAILURES;
+
+        try
+        {
+            long loginStart = System.nanoTime();
+            String room = client.logIn("replay-" + runId + "-" + session.id(), username, PASSWORD, MODE);
+
+            if (room == null)
+            {
+                throw new IOException("login refused");
+            }
+
+            LOGIN_TIME.recordSince(loginStart);
+            failures = JOIN_FAILURES;
+
+            if (!session.room().equals(room) && !client.join(session.room()))
+            {
+                throw new IOException("join refused");
+            }
+
+            client.startReading();
+        }
+        catch (IOException e)
+        {
+            abandon(session, failures);
+            client.close();
+            return;
+        }
+
+        SESSIONS_STARTED.increment();
+
+        AtomicLong joinSent = new AtomicLong();
+        AtomicBoolean hungUp = new AtomicBoolean();
+        Thread reader = Thread.ofVirtual().name("replay-" + session.id() + "-reader").start(() -> read(client, joinSent, hungUp));
+
+        try
+        {
+            sendLines(session, username, client, joinSent);
+            allSent.countDown();
+
+            if (speed == 0)
+            {
+                allSent.await();
+                Thread.sleep(DRAIN_MS);
+            }
+            else
+            {
+                HeadlessClient.parkUntil(Math.max(scheduledNanos(session.endMicros()), System.nanoTime()) + TimeUnit.MILLISECONDS.toNanos(GRACE_MS));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            hungUp.set(true);
+            client.close();
+
+            try
+            {
+                reader.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // The session could not start, so none of its lines will be sent
+    private void abandon(Session session, Metrics.Counter failures)
+    {
+        failures.increment();
+        LINES_SKIPPED.add(session.lines().size());
+        allSent.countDown();
+    }
+
+    private void sendLines(Session session, String username, HeadlessClient client, AtomicLong joinSent)
+    {
+        List<TrafficCapture.Event> lines = session.lines();
+
+        for (int i = 0; i < lines.size(); i++)
+        {
+            TrafficCapture.Event line = lines.get(i);
+            long scheduled = scheduledNanos(line.micros());
+
+            HeadlessClient.parkUntil(scheduled);
+
+            // lines captured from the line protocol go out the way ChatClient would send them
+            Frame.Type type = line.frame() == 0 ? null : Frame.Type.fromCode(line.frame());
+
+            if (type == null)
+            {
+                type = line.text().startsWith("/") ? Frame.Type.COMMAND : Frame.Type.CHAT;
+            }
+
+            long now = System.nanoTime();
+
+            if (type == Frame.Type.COMMAND && line.text().startsWith("/join "))
+            {
+                joinSent.set(now);
+            }
+            else if (type == Frame.Type.CHAT)
+            {
+                inFlight.put(username + ": " + line.text(), now);
+            }
+
+            try
+            {
+                client.send(type, line.text());
+            }
+            catch (IOException e)
+            {
+                LINES_SKIPPED.add(lines.size() - i);
+                return;
+            }
+
+            LINES_SENT.increment();
+
+            // at max speed there is no schedule to fall behind
+            if (speed == 0)
+            {
+                continue;
+            }
+
+            SCHEDULE_LAG.record(Math.max(0, now - scheduled));
+
+            if (now - scheduled > TimeUnit.MILLISECONDS.toNanos(LATE_MS))
+            {
+                LINES_LATE.increment();
+            }
+        }
+    }
+
+    private void read(HeadlessClient client, AtomicLong joinSent, AtomicBoolean hungUp)
+    {
+        try
+        {
+            String line;
+
+            while ((line = client.readLine()) != null)
+            {
+                String text = RoomMessage.parse(line).text();
+                Long sent = inFlight.get(text);
+
+                if (sent != null)
+                {
+                    LATENCY.recordSince(sent);
+                    RECEIVED.increment();
+                }
+                else if (text.startsWith(JOINED))
+                {
+                    long started = joinSent.getAndSet(0);
+
+                    if (started != 0)
+                    {
+                        JOIN_LATENCY.recordSince(started);
+                    }
+                }
+                else if (text.startsWith(RATE_LIMIT_NOTICE))
+                {
+                    RATE_LIMITED.increment();
+                }
+                else if (text.startsWith(BLOCKED_NOTICE))
+                {
+                    BLOCKED.increment();
+                }
+                else if (text.equals(UNKNOWN_COMMAND_NOTICE))
+                {
+                    UNKNOWN_COMMANDS.increment();
+                }
+            }
+        }
+        catch (IOException ignored)
+        {
+        }
+
+        if (!hungUp.get())
+        {
+            DISCONNECTS.increment();
+        }
+    }
+
+    private String report(int sessions, long capturedLines, long capturedMicros, long wallNanos)
+    {
+        double wallSeconds = Math.max(1e-9, wallNanos / 1e9);
+
+        return "{\"config\":{"
+                + "\"trace\":\"" + trace.toString().replace("\\", "\\\\").replace("\"", "\\\"") + '"'
+                + ",\"host\":\"" + host.replace("\\", "\\\\").replace("\"", "\\\"") + '"'
+                + ",\"port\":" + port
+                + ",\"speed\":" + (speed == 0 ? "\"max\"" : format(speed))
+                + "},\"capture\":{"
+                + "\"sessions\":" + sessions
+                + ",\"lines\":" + capturedLines
+                + ",\"durationSeconds\":" + format(capturedMicros / 1e6)
+                + "},\"replay\":{"
+                + "\"sessionsStarted\":" + SESSIONS_STARTED.get()
+                + ",\"linesSent\":" + LINES_SENT.get()
+                + ",\"received\":" + RECEIVED.get()
+                + ",\"wallSeconds\":" + format(wallSeconds)
+                + ",\"linesPerSecond\":" + format(LINES_SENT.get() / wallSeconds)
+                + ",\"receivedPerSecond\":" + format(RECEIVED.get() / wallSeconds)
+                + "},\"divergence\":{"
+                + "\"connectFailures\":" + CONNECT_FAILURES.get()
+                + ",\"connectRetries\":" + CONNECT_RETRIES.get()
+                + ",\"authFailures\":" + AUTH_FAILURES.get()
+                + ",\"joinFailures\":" + JOIN_FAILURES.get()
+                + ",\"disconnects\":" + DISCONNECTS.get()
+                + ",\"linesSkipped\":" + LINES_SKIPPED.get()
+                + ",\"linesLate\":" + LINES_LATE.get()
+                + ",\"rateLimitNotices\":" + RATE_LIMITED.get()
+                + ",\"blockedNotices\":" + BLOCKED.get()
+                + ",\"unknownCommandNotices\":" + UNKNOWN_COMMANDS.get()
+                + ",\"scheduleLagMicros\":" + SCHEDULE_LAG.toJson()
+                + "},\"latencyMicros\":" + LATENCY.toJson()
+                + ",\"joinMicros\":" + JOIN_LATENCY.toJson()
+                + ",\"loginMicros\":" + LOGIN_TIME.toJson()
+                + '}';
+    }
+
+    private static String format(double value)
+    {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
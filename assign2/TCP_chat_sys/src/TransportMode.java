@@ -0,0 +1,25 @@
+public enum TransportMode
+{
+    BLOCKING,
+    NIO,
+    // no listener: connections are in-memory pipes opened with ChatServer.connectLoopback()
+    LOOPBACK;
+
+    public static TransportMode fromName(String name)
+    {
+        if (name == null || name.trim().isEmpty())
+        {
+            return BLOCKING;
+        }
+
+        try
+        {
+            return TransportMode.valueOf(name.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            Log.warn("Unknown transport mode '" + name + "', falling back to blocking.");
+            return BLOCKING;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class AdmissionControllerTest
+{
+    @Test
+    void inFlightCapHoldsUntilAHandshakeFinishes()
+    {
+        AdmissionController admission = new AdmissionController(100, 0, 100, 0, 2);
+
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.tryAdmit("10.0.0.1"));
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.tryAdmit("10.0.0.2"));
+        assertEquals(AdmissionController.Decision.TOO_MANY_HANDSHAKES, admission.tryAdmit("10.0.0.3"));
+
+        admission.handshakeFinished();
+
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.tryAdmit("10.0.0.3"));
+        assertEquals(2, admission.getInFlightHandshakes());
+        assertEquals(1, admission.getRejectedInFlight());
+    }
+
+    @Test
+    void sourceRateIsPerAddress()
+    {
+        AdmissionController admission = new AdmissionController(100, 0, 2, 0, 100);
+
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.tryAdmit("10.0.0.1"));
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.tryAdmit("10.0.0.1"));
+        assertEquals(AdmissionController.Decision.SOURCE_RATE_EXCEEDED, admission.tryAdmit("10.0.0.1"));
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.tryAdmit("10.0.0.2"));
+
+        // a rejection gives its slot back
+        assertEquals(3, admission.getInFlightHandshakes());
+    }
+
+    @Test
+    void globalRateCoversEveryAddress()
+    {
+        AdmissionController admission = new AdmissionController(2, 0, 100, 0, 100);
+
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.tryAdmit("10.0.0.1"));
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.tryAdmit("10.0.0.2"));
+        assertEquals(AdmissionController.Decision.GLOBAL_RATE_EXCEEDED, admission.tryAdmit("10.0.0.3"));
+        assertEquals(2, admission.getInFlightHandshakes());
+    }
+
+    @Test
+    void idleSourcesAreDroppedOnceManyAreTracked()
+    {
+        // per-source buckets refill at once, so every source is idle again by the time the sweep looks at it
+        AdmissionController admission = new AdmissionController(1_000_000, 0, 1, 1e15, 1);
+        int sources = 5000;
+
+        for (int i = 0; i < sources; i++)
+        {
+            assertEquals(AdmissionController.Decision.ADMITTED, admission.tryAdmit("10.0." + (i >> 8) + "." + (i & 0xff)));
+            admission.handshakeFinished();
+        }
+
+        assertEquals(sources, admission.getAdmitted());
+        assertTrue(admission.getTrackedSources() < sources, "tracking " + admission.getTrackedSources());
+    }
+}
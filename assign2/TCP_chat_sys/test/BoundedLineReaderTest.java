@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BoundedLineReaderTest
+{
+    // Hands out at most chunk bytes per read, the way a socket splits what the peer sent
+    static InputStream dribble(byte[] bytes, int chunk)
+    {
+        return new ByteArrayInputStream(bytes)
+        {
+            @Override
+            public int read(byte[] into, int offset, int length)
+            {
+                return super.read(into, offset, Math.min(length, chunk));
+            }
+        };
+    }
+
+    private static BoundedLineReader reader(String text, int chunk, int maxLineBytes, BoundedLineReader.OversizePolicy policy)
+    {
+        return new BoundedLineReader(dribble(text.getBytes(StandardCharsets.UTF_8), chunk), maxLineBytes, policy);
+    }
+
+    @Test
+    void readsLinesSplitAcrossReads() throws IOException
+    {
+        for (int chunk : new int[] {1, 2, 3, 7, 8192})
+        {
+            BoundedLineReader in = reader("first\r\nsecond\n\nthird", chunk, 100, BoundedLineReader.OversizePolicy.REJECT);
+
+            assertEquals("first", in.readLine());
+            assertEquals("second", in.readLine());
+            assertEquals("", in.readLine());
+            assertEquals("third", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    void growsTheLineBufferUpToTheCap() throws IOException
+    {
+        String longLine = "x".repeat(20000);
+        BoundedLineReader in = reader(longLine + "\nnext\n", 4096, 20000, BoundedLineReader.OversizePolicy.REJECT);
+
+        assertEquals(longLine, in.readLine());
+        assertEquals("next", in.readLine());
+        assertEquals(0, in.getOversizeLines());
+    }
+
+    @Test
+    void truncateCutsAtTheCapWithoutSplittingACharacter() throws IOException
+    {
+        // 'é' takes bytes 4 and 5, so a cap of 5 bytes would end inside it
+        BoundedLineReader in = reader("abcdéfgh\nnext\n", 3, 5, BoundedLineReader.OversizePolicy.TRUNCATE);
+
+        assertEquals("abcd", in.readLine());
+        assertEquals("next", in.readLine());
+        assertEquals(1, in.getOversizeLines());
+    }
+
+    @Test
+    void truncateKeepsACharacterEndingAtTheCap() throws IOException
+    {
+        BoundedLineReader in = reader("abcé€\n", 1, 5, BoundedLineReader.OversizePolicy.TRUNCATE);
+
+        assertEquals("abcé", in.readLine());
+    }
+
+    @Test
+    void rejectSkipsTheWholeLine() throws IOException
+    {
+        AtomicInteger rejected = new AtomicInteger();
+        BoundedLineReader in = new BoundedLineReader(dribble("much too long\nok\n".getBytes(StandardCharsets.UTF_8), 2),
+                4, BoundedLineReader.OversizePolicy.REJECT, rejected::incrementAndGet);
+
+        assertEquals("ok", in.readLine());
+        assertNull(in.readLine());
+        assertEquals(1, rejected.get());
+        assertEquals(1, in.getOversizeLines());
+    }
+
+    @Test
+    void policyNamesFallBackToReject()
+    {
+        assertEquals(BoundedLineReader.OversizePolicy.TRUNCATE, BoundedLineReader.OversizePolicy.fromName(" truncate "));
+        assertEquals(BoundedLineReader.OversizePolicy.REJECT, BoundedLineReader.OversizePolicy.fromName(""));
+        assertEquals(BoundedLineReader.OversizePolicy.REJECT, BoundedLineReader.OversizePolicy.fromName("clip"));
+    }
+}
@@ -0,0 +1,141 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class FrameTest
+{
+    private static byte[] frames(Object... typesAndPayloads)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (int i = 0; i < typesAndPayloads.length; i += 2)
+        {
+            out.writeBytes(Frame.encode((Frame.Type) typesAndPayloads[i], (String) typesAndPayloads[i + 1]));
+        }
+
+        return out.toByteArray();
+    }
+
+    private static BoundedLineReader reader(byte[] bytes, int chunk, int maxLineBytes, BoundedLineReader.OversizePolicy policy)
+    {
+        return new BoundedLineReader(BoundedLineReaderTest.dribble(bytes, chunk), maxLineBytes, policy);
+    }
+
+    @Test
+    void encodesTypeLengthAndPayload() throws IOException
+    {
+        byte[] frame = Frame.encode(Frame.Type.CHAT, "hé");
+
+        assertArrayEquals(new byte[] {1, 0, 0, 0, 3, 'h', (byte) 0xC3, (byte) 0xA9}, frame);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Frame.write(out, Frame.Type.CHAT, "hé");
+        assertArrayEquals(frame, out.toByteArray());
+
+        byte[] header = new byte[Frame.HEADER_BYTES];
+        Frame.writeHeader(header, Frame.Type.CONTROL, 0x01020304);
+        assertArrayEquals(new byte[] {5, 1, 2, 3, 4}, header);
+    }
+
+    @Test
+    void typeCodesRoundTrip()
+    {
+        for (Frame.Type type : Frame.Type.values())
+        {
+            assertEquals(type, Frame.Type.fromCode(type.code()));
+            assertTrue(type.code() < 0x20);
+        }
+
+        assertNull(Frame.Type.fromCode(0));
+        assertNull(Frame.Type.fromCode(Frame.Type.values().length + 1));
+        assertNull(Frame.Type.fromCode(-1));
+    }
+
+    @Test
+    void decodesFramesSplitAcrossReads() throws IOException
+    {
+        byte[] bytes = frames(Frame.Type.CONTROL, Frame.HELLO, Frame.Type.CHAT, "line one\nline two",
+                Frame.Type.COMMAND, "/join café", Frame.Type.HISTORY, "");
+
+        for (int chunk : new int[] {1, 2, 4, 5, 6, 8192})
+        {
+            BoundedLineReader in = reader(bytes, chunk, 100, BoundedLineReader.OversizePolicy.REJECT);
+
+            assertTrue(in.negotiateFrames());
+            assertEquals("line one\nline two", in.readLine());
+            assertEquals(Frame.Type.CHAT, in.frameType());
+            assertEquals("/join café", in.readLine());
+            assertEquals(Frame.Type.COMMAND, in.frameType());
+            assertEquals("", in.readLine());
+            assertEquals(Frame.Type.HISTORY, in.frameType());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    void lineClientsAreLeftOnLines() throws IOException
+    {
+        BoundedLineReader in = reader("alice\n".getBytes(StandardCharsets.UTF_8), 1, 100, BoundedLineReader.OversizePolicy.REJECT);
+
+        assertFalse(in.negotiateFrames());
+        assertNull(in.frameType());
+        assertEquals("alice", in.readLine());
+    }
+
+    @Test
+    void rejectsAnUnknownHello()
+    {
+        BoundedLineReader in = reader(frames(Frame.Type.CONTROL, "FRAMES/9"), 3, 100, BoundedLineReader.OversizePolicy.REJECT);
+
+        assertThrows(IOException.class, in::negotiateFrames);
+    }
+
+    @Test
+    void oversizeFramesAreSkippedOrCut() throws IOException
+    {
+        String big = "y".repeat(20000);
+        byte[] bytes = frames(Frame.Type.CHAT, big, Frame.Type.CHAT, "after");
+
+        BoundedLineReader rejecting = reader(bytes, 1000, 64, BoundedLineReader.OversizePolicy.REJECT);
+        rejecting.switchToFrames();
+        assertEquals("after", rejecting.readLine());
+        assertEquals(1, rejecting.getOversizeLines());
+
+        BoundedLineReader truncating = reader(bytes, 1000, 64, BoundedLineReader.OversizePolicy.TRUNCATE);
+        truncating.switchToFrames();
+        assertEquals(big.substring(0, 64), truncating.readLine());
+        assertEquals("after", truncating.readLine());
+    }
+
+    @Test
+    void brokenStreamsFail()
+    {
+        byte[] frame = Frame.encode(Frame.Type.CHAT, "hello");
+
+        BoundedLineReader unknownType = reader(new byte[] {9, 0, 0, 0, 0}, 5, 100, BoundedLineReader.OversizePolicy.REJECT);
+        unknownType.switchToFrames();
+        assertThrows(IOException.class, unknownType::readLine);
+
+        BoundedLineReader cutHeader = reader(Arrays.copyOf(frame, 3), 5, 100, BoundedLineReader.OversizePolicy.REJECT);
+        cutHeader.switchToFrames();
+        assertThrows(EOFException.class, cutHeader::readLine);
+
+        BoundedLineReader cutPayload = reader(Arrays.copyOf(frame, frame.length - 1), 5, 100, BoundedLineReader.OversizePolicy.REJECT);
+        cutPayload.switchToFrames();
+        assertThrows(EOFException.class, cutPayload::readLine);
+
+        BoundedLineReader negativeLength = reader(new byte[] {1, (byte) 0x80, 0, 0, 0}, 5, 100, BoundedLineReader.OversizePolicy.REJECT);
+        negativeLength.switchToFrames();
+        assertThrows(IOException.class, negativeLength::readLine);
+    }
+}
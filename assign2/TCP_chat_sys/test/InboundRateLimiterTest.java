@@ -0,0 +1,207 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class InboundRateLimiterTest
+{
+    private final List<ServerRoom> rooms = new ArrayList<>();
+    private final List<ConnectionWriter> writers = new ArrayList<>();
+
+    // Limits are read from chat.rateLimit.room.<name>.* when the room is built
+    private ServerRoom room(String name, double messagesPerSecond, double messageBurst, double commandsPerSecond, double commandBurst)
+    {
+        String prefix = "chat.rateLimit.room." + name + ".";
+
+        System.setProperty(prefix + "messagesPerSecond", Double.toString(messagesPerSecond));
+        System.setProperty(prefix + "messageBurst", Double.toString(messageBurst));
+        System.setProperty(prefix + "commandsPerSecond", Double.toString(commandsPerSecond));
+        System.setProperty(prefix + "commandBurst", Double.toString(commandBurst));
+
+        ServerRoom room = new ServerRoom(name);
+        rooms.add(room);
+        return room;
+    }
+
+    private ConnectionWriter writer(LoopbackConnection connection) throws Exception
+    {
+        ConnectionWriter writer = new ConnectionWriter(connection);
+        writers.add(writer);
+        return writer;
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        writers.forEach(ConnectionWriter::close);
+        rooms.forEach(ServerRoom::discard);
+    }
+
+    @Test
+    void dropsPastTheBurstAndTellsTheSenderOnce() throws Exception
+    {
+        ServerRoom room = room("limiter-drop", 0, 2, 0, 1);
+        LoopbackConnection connection = LoopbackConnection.open("alice");
+        InboundRateLimiter.Session session = new InboundRateLimiter(1, InboundRateLimiter.Overflow.DROP, 0)
+                .openSession("alice", writer(connection));
+
+        assertTrue(session.admit(false, room));
+        assertTrue(session.admit(false, room));
+        assertFalse(session.admit(false, room));
+        assertFalse(session.admit(false, room));
+
+        // commands have a bucket of their own
+        assertTrue(session.admit(true, room));
+        assertFalse(session.admit(true, room));
+
+        assertEquals(3, room.getDroppedInbound());
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(connection.peer().getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("[Server] You are sending too fast, message dropped.", in.readLine());
+        assertEquals(0, connection.peer().getInputStream().available());
+    }
+
+    @Test
+    void connectionsOfOneUserShareTheirRoomBucket() throws Exception
+    {
+        ServerRoom room = room("limiter-user", 0, 2, 0, 1);
+        InboundRateLimiter limiter = new InboundRateLimiter(1, InboundRateLimiter.Overflow.DROP, 0);
+
+        InboundRateLimiter.Session laptop = limiter.openSession("bob", writer(LoopbackConnection.open("laptop")));
+        InboundRateLimiter.Session phone = limiter.openSession("bob", writer(LoopbackConnection.open("phone")));
+        InboundRateLimiter.Session other = limiter.openSession("carol", writer(LoopbackConnection.open("other")));
+
+        assertTrue(laptop.admit(false, room));
+        assertTrue(phone.admit(false, room));
+
+        // each connection has a token left, the user has none
+        assertFalse(laptop.admit(false, room));
+        assertFalse(phone.admit(false, room));
+
+        assertTrue(other.admit(false, room));
+    }
+
+    // A message the user's bucket refuses must not cost the connection its own token
+    @Test
+    void refusalByTheUserBucketLeavesTheConnectionTokens() throws Exception
+    {
+        ServerRoom room = room("limiter-refund", 0, 2, 0, 1);
+        ServerRoom next = room("limiter-refund-next", 0, 3, 0, 1);
+        InboundRateLimiter limiter = new InboundRateLimiter(1, InboundRateLimiter.Overflow.DROP, 0);
+
+        InboundRateLimiter.Session laptop = limiter.openSession("hank", writer(LoopbackConnection.open("laptop")));
+        InboundRateLimiter.Session phone = limiter.openSession("hank", writer(LoopbackConnection.open("phone")));
+
+        assertTrue(laptop.admit(false, room));
+        assertTrue(phone.admit(false, room));
+
+        for (int i = 0; i < 5; i++)
+        {
+            assertFalse(laptop.admit(false, room));
+        }
+
+        // the next room has a user bucket of its own, and the laptop still has the token it had left
+        assertTrue(laptop.admit(false, next));
+        assertFalse(laptop.admit(false, next));
+    }
+
+    @Test
+    void limitsFollowTheRoom() throws Exception
+    {
+        ServerRoom relaxed = room("limiter-relaxed", 0, 5, 0, 5);
+        ServerRoom strict = room("limiter-strict", 0, 1, 0, 1);
+        InboundRateLimiter.Session session = new InboundRateLimiter(1, InboundRateLimiter.Overflow.DROP, 0)
+                .openSession("dave", writer(LoopbackConnection.open("dave")));
+
+        assertTrue(session.admit(false, relaxed));
+        assertTrue(session.admit(false, relaxed));
+
+        // three tokens left, but the strict room holds one at most
+        assertTrue(session.admit(false, strict));
+        assertFalse(session.admit(false, strict));
+    }
+
+    // Changing rooms must not hand the connection a fresh burst, whether the rooms' limits match or not
+    @Test
+    void hoppingBetweenRoomsDoesNotRefillTheBuckets() throws Exception
+    {
+        ServerRoom first = room("limiter-hop-a", 0, 5, 0, 5);
+        ServerRoom same = room("limiter-hop-b", 0, 5, 0, 5);
+        ServerRoom larger = room("limiter-hop-c", 0, 10, 0, 10);
+        InboundRateLimiter.Session session = new InboundRateLimiter(1, InboundRateLimiter.Overflow.DROP, 0)
+                .openSession("gina", writer(LoopbackConnection.open("gina")));
+        ServerRoom[] rooms = {first, same, larger};
+        int admitted = 0;
+
+        for (int i = 0; i < 1000; i++)
+        {
+            if (session.admit(true, rooms[i % rooms.length]))
+            {
+                admitted++;
+            }
+        }
+
+        assertEquals(5, admitted);
+    }
+
+    @Test
+    void idleUsersAreDroppedOnceManyAreTracked()
+    {
+        // buckets refill at once, so every user is idle again by the time the sweep looks at them
+        ServerRoom room = room("limiter-sweep", 1e15, 1, 1e15, 1);
+        InboundRateLimiter limiter = new InboundRateLimiter(1, InboundRateLimiter.Overflow.DROP, 0);
+        int users = 5000;
+
+        for (int i = 0; i < users; i++)
+        {
+            assertTrue(limiter.openSession("user-" + i, null).admit(false, room));
+        }
+
+        assertTrue(limiter.getTrackedUsers() < users, "tracking " + limiter.getTrackedUsers());
+    }
+
+    @Test
+    void deferWaitsForTheNextToken() throws Exception
+    {
+        ServerRoom room = room("limiter-defer", 20, 1, 20, 1);
+        InboundRateLimiter.Session session = new InboundRateLimiter(1, InboundRateLimiter.Overflow.DEFER, 1000)
+                .openSession("erin", writer(LoopbackConnection.open("erin")));
+
+        assertTrue(session.admit(false, room));
+
+        long start = System.nanoTime();
+
+        assertTrue(session.admit(false, room));
+        assertTrue(System.nanoTime() - start >= 20_000_000, "a token takes 50 ms to refill");
+        assertEquals(1, room.getDeferredInbound());
+        assertEquals(0, room.getDroppedInbound());
+    }
+
+    @Test
+    void deferGivesUpPastTheLongestWait() throws Exception
+    {
+        ServerRoom room = room("limiter-give-up", 1, 1, 1, 1);
+        InboundRateLimiter.Session session = new InboundRateLimiter(1, InboundRateLimiter.Overflow.DEFER, 10)
+                .openSession("frank", writer(LoopbackConnection.open("frank")));
+
+        assertTrue(session.admit(false, room));
+        assertFalse(session.admit(false, room));
+        assertEquals(0, room.getDeferredInbound());
+        assertEquals(1, room.getDroppedInbound());
+    }
+
+    @Test
+    void overflowModeNamesFallBackToDrop()
+    {
+        assertEquals(InboundRateLimiter.Overflow.DEFER, InboundRateLimiter.Overflow.fromName(" defer "));
+        assertEquals(InboundRateLimiter.Overflow.DROP, InboundRateLimiter.Overflow.fromName(null));
+        assertEquals(InboundRateLimiter.Overflow.DROP, InboundRateLimiter.Overflow.fromName("queue"));
+    }
+}
@@ -0,0 +1,13 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+// Runs in a fork of its own, so PinningCheck sets the server's limits before anything has read ServerConfig
+class PinningCheckTest
+{
+    @Test
+    void chatCodeDoesNotPinCarrierThreads() throws Exception
+    {
+        assertEquals(0, new PinningCheck().run(), "PinningCheck exit code, see its output for the pinned stacks");
+    }
+}
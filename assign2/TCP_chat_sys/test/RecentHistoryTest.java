@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RecentHistoryTest
+{
+    @Test
+    void keepsEverythingUntilFull()
+    {
+        RecentHistory<Integer> history = new RecentHistory<>(3);
+
+        assertTrue(history.snapshot().isEmpty());
+
+        history.add(1);
+        history.add(2);
+
+        assertEquals(List.of(1, 2), history.snapshot());
+    }
+
+    @Test
+    void wrapsAroundKeepingTheNewestOldestFirst()
+    {
+        RecentHistory<Integer> history = new RecentHistory<>(3);
+
+        for (int i = 1; i <= 3; i++)
+        {
+            history.add(i);
+        }
+
+        assertEquals(List.of(1, 2, 3), history.snapshot());
+
+        history.add(4);
+        assertEquals(List.of(2, 3, 4), history.snapshot());
+
+        // several times round the ring
+        for (int i = 5; i <= 11; i++)
+        {
+            history.add(i);
+        }
+
+        assertEquals(List.of(9, 10, 11), history.snapshot());
+    }
+
+    @Test
+    void snapshotIsACopy()
+    {
+        RecentHistory<Integer> history = new RecentHistory<>(2);
+
+        history.add(1);
+        List<Integer> before = history.snapshot();
+        history.add(2);
+
+        assertEquals(List.of(1), before);
+    }
+
+    @Test
+    void zeroCapacityKeepsNothing()
+    {
+        RecentHistory<Integer> history = new RecentHistory<>(0);
+
+        history.add(1);
+
+        assertEquals(0, history.capacity());
+        assertTrue(history.snapshot().isEmpty());
+        assertEquals(0, new RecentHistory<Integer>(-5).capacity());
+    }
+}
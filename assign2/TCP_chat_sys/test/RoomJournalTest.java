@@ -0,0 +1,102 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RoomJournalTest
+{
+    @TempDir
+    Path dir;
+
+    private RoomJournal open(String name)
+    {
+        return new RoomJournal(dir.resolve(name), RoomJournal.SyncPolicy.NONE, 1000, 1);
+    }
+
+    @Test
+    void appendedLinesReadBackInOrder()
+    {
+        RoomJournal journal = open("room_log.txt");
+
+        journal.append("#1|one");
+        journal.append("#2|two");
+        journal.append("#3|three");
+        journal.close();
+
+        assertEquals(List.of("#1|one", "#2|two", "#3|three"), journal.readTail(10));
+        assertEquals(List.of("#2|two", "#3|three"), journal.readTail(2));
+    }
+
+    @Test
+    void missingFileHasNoTail()
+    {
+        RoomJournal journal = open("missing_log.txt");
+
+        assertTrue(journal.readTail(10).isEmpty());
+        assertTrue(journal.readTail(0).isEmpty());
+        journal.close();
+    }
+
+    // The scan works backwards in fixed-size chunks; lines, and characters, straddling a chunk boundary must
+    // come back whole
+    @Test
+    void tailSpansSeveralChunks() throws Exception
+    {
+        List<String> lines = new ArrayList<>();
+
+        for (int i = 1; i <= 3000; i++)
+        {
+            lines.add("#" + i + "|message number " + i + " " + "é€".repeat(i % 37));
+        }
+
+        Path file = dir.resolve("long_log.txt");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        RoomJournal journal = new RoomJournal(file);
+
+        assertEquals(lines.subList(2900, 3000), journal.readTail(100));
+        assertEquals(lines, journal.readTail(5000));
+        journal.close();
+    }
+
+    @Test
+    void tornFinalLineIsNotReturned() throws Exception
+    {
+        Path file = dir.resolve("torn_log.txt");
+        Files.writeString(file, "#1|one\n#2|two\n#3|thr", StandardCharsets.UTF_8);
+        RoomJournal journal = new RoomJournal(file, RoomJournal.SyncPolicy.NONE, 1000, 1);
+
+        assertEquals(List.of("#1|one", "#2|two"), journal.readTail(10));
+        assertEquals(List.of("#2|two"), journal.readTail(1));
+        journal.close();
+    }
+
+    @Test
+    void appendingDropsATornFinalLine() throws Exception
+    {
+        Path file = dir.resolve("crashed_log.txt");
+        Files.writeString(file, "#1|one\n#2|tw", StandardCharsets.UTF_8);
+        RoomJournal journal = new RoomJournal(file, RoomJournal.SyncPolicy.NONE, 1000, 1);
+
+        journal.append("#3|three");
+        journal.close();
+
+        assertEquals(List.of("#1|one", "#3|three"), Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void deleteRemovesTheFile()
+    {
+        RoomJournal journal = open("deleted_log.txt");
+
+        journal.append("#1|one");
+        journal.delete();
+
+        assertTrue(Files.notExists(journal.getPath()));
+    }
+}
@@ -0,0 +1,44 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class RoomMessageTest
+{
+    @Test
+    void journalFormRoundTrips()
+    {
+        RoomMessage message = new RoomMessage(42, "alice: a|b@c");
+
+        assertEquals("#42|alice: a|b@c", message.tagged());
+        assertEquals(message, RoomMessage.parse(message.tagged()));
+        assertNull(RoomMessage.roomOf(message.tagged()));
+    }
+
+    @Test
+    void memberFormCarriesTheRoom()
+    {
+        RoomMessage message = new RoomMessage(7, "bob: hi | there @ all");
+        String line = message.tagged(RoomMessage.roomTag("my room|@#"));
+
+        assertEquals(message, RoomMessage.parse(line));
+        assertEquals("my room|@#", RoomMessage.roomOf(line));
+    }
+
+    @Test
+    void untaggedLinesHaveSequenceZero()
+    {
+        assertEquals(new RoomMessage(0, "[Server] bob has joined the room."), RoomMessage.parse("[Server] bob has joined the room."));
+        assertEquals(new RoomMessage(0, "#general"), RoomMessage.parse("#general"));
+        assertEquals(new RoomMessage(0, "#|text"), RoomMessage.parse("#|text"));
+        assertEquals(new RoomMessage(0, "#abc|text"), RoomMessage.parse("#abc|text"));
+        assertNull(RoomMessage.roomOf("plain line"));
+    }
+
+    @Test
+    void malformedRoomNameIsIgnored()
+    {
+        assertEquals(new RoomMessage(3, "text"), RoomMessage.parse("#3@%zz|text"));
+        assertNull(RoomMessage.roomOf("#3@%zz|text"));
+    }
+}
@@ -0,0 +1,134 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.Test;
+
+class RoomRegistryTest
+{
+    // Rooms whose log has not been discarded yet, by name
+    private final ConcurrentHashMap<String, AtomicInteger> live = new ConcurrentHashMap<>();
+    private final LongAdder overlaps = new LongAdder();
+    private final List<String> removed = new CopyOnWriteArrayList<>();
+
+    private final class TrackedRoom extends ServerRoom
+    {
+        TrackedRoom(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public void discard()
+        {
+            super.discard();
+            live.get(getName()).decrementAndGet();
+        }
+    }
+
+    private final RoomRegistry registry = new RoomRegistry(TrackedRoom::new, "general", new RoomRegistry.Listener()
+    {
+        @Override
+        public void roomCreated(ServerRoom room)
+        {
+            if (live.computeIfAbsent(room.getName(), name -> new AtomicInteger()).getAndIncrement() != 0)
+            {
+                overlaps.increment();
+            }
+        }
+
+        @Override
+        public void roomRemoved(ServerRoom room)
+        {
+            removed.add(room.getName());
+        }
+    });
+
+    @Test
+    void lastMemberLeavingRemovesTheRoomAndItsLog() throws Exception
+    {
+        LoopbackConnection alice = LoopbackConnection.open("alice");
+        LoopbackConnection bob = LoopbackConnection.open("bob");
+
+        ServerRoom room = registry.join("registry-leave", alice, null);
+        assertSame(room, registry.join("registry-leave", bob, null));
+        assertEquals(2, room.getMemberCount());
+
+        room.broadcast("alice: hello", null);
+        room.close();
+        assertTrue(Files.exists(Path.of("registry-leave_log.txt")));
+
+        registry.leave("registry-leave", alice, null);
+        assertSame(room, registry.get("registry-leave"));
+
+        registry.leave("registry-leave", bob, null);
+        assertNull(registry.get("registry-leave"));
+        assertFalse(Files.exists(Path.of("registry-leave_log.txt")));
+        assertEquals(List.of("registry-leave"), removed);
+    }
+
+    @Test
+    void permanentRoomStaysWhenEmpty()
+    {
+        LoopbackConnection alice = LoopbackConnection.open("alice");
+
+        ServerRoom general = registry.join("general", alice, null);
+        registry.leave("general", alice, null);
+
+        assertSame(general, registry.get("general"));
+        assertTrue(removed.isEmpty());
+    }
+
+    @Test
+    void recreatedRoomStartsEmpty()
+    {
+        LoopbackConnection alice = LoopbackConnection.open("alice");
+
+        registry.join("registry-recreate", alice, null).broadcast("alice: before", null);
+        registry.leave("registry-recreate", alice, null);
+
+        ServerRoom recreated = registry.join("registry-recreate", alice, null);
+
+        assertTrue(recreated.getRecentMessages().isEmpty());
+        registry.leave("registry-recreate", alice, null);
+    }
+
+    // A room of the same name must not be registered while the previous one is still deleting its log
+    @Test
+    void roomIsNotRecreatedBeforeItsLogIsDiscarded() throws Exception
+    {
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++)
+        {
+            LoopbackConnection member = LoopbackConnection.open("member-" + t);
+
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < 300; i++)
+                {
+                    registry.join("registry-churn", member, null).broadcast("member: " + i, null);
+                    registry.leave("registry-churn", member, null);
+                }
+            }));
+        }
+
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        assertEquals(0, overlaps.sum());
+        assertNull(registry.get("registry-churn"));
+        assertEquals(0, live.get("registry-churn").get());
+    }
+}
@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ServerRoomTest
+{
+    private static final int MEMBERS = 4;
+    private static final int MESSAGES = 500;
+
+    // Every member must see the room's messages in sequence order, whoever fanned them out
+    @Test
+    void membersReceiveConcurrentBroadcastsInSequenceOrder() throws Exception
+    {
+        ServerRoom room = new ServerRoom("server-room-order");
+        List<ConnectionWriter> writers = new ArrayList<>();
+        List<LoopbackConnection> connections = new ArrayList<>();
+
+        for (int i = 0; i < MEMBERS; i++)
+        {
+            LoopbackConnection connection = LoopbackConnection.open("member-" + i);
+            ConnectionWriter writer = new ConnectionWriter(connection, 4 * MEMBERS * MESSAGES, Long.MAX_VALUE,
+                    ConnectionWriter.SlowConsumerPolicy.DISCONNECT);
+
+            writer.setSequenced(true);
+            room.addClient(connection, writer);
+            connections.add(connection);
+            writers.add(writer);
+        }
+
+        List<Thread> senders = new ArrayList<>();
+
+        for (ConnectionWriter sender : writers)
+        {
+            senders.add(Thread.ofVirtual().start(() -> {
+                for (int m = 0; m < MESSAGES; m++)
+                {
+                    room.broadcast("member: " + m, sender);
+                }
+            }));
+        }
+
+        for (Thread sender : senders)
+        {
+            sender.join();
+        }
+
+        try
+        {
+            for (LoopbackConnection connection : connections)
+            {
+                BufferedReader in = new BufferedReader(new InputStreamReader(connection.peer().getInputStream(), StandardCharsets.UTF_8));
+                long previous = 0;
+
+                // everything but the member's own messages
+                for (int received = 0; received < (MEMBERS - 1) * MESSAGES; received++)
+                {
+                    String line = in.readLine();
+                    RoomMessage message = RoomMessage.parse(line);
+
+                    assertTrue(message.sequence() > previous, line + " after sequence " + previous);
+                    assertEquals("server-room-order", RoomMessage.roomOf(line));
+                    previous = message.sequence();
+                }
+            }
+        }
+        finally
+        {
+            for (ConnectionWriter writer : writers)
+            {
+                writer.close();
+            }
+
+            room.discard();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest
+{
+    @Test
+    void startsFullAndStopsAtZero()
+    {
+        TokenBucket bucket = new TokenBucket(3, 0);
+
+        assertTrue(bucket.isFull());
+        assertTrue(bucket.tryAcquire(2));
+        assertFalse(bucket.tryAcquire(2));
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        assertEquals(0, bucket.available());
+        assertEquals(Long.MAX_VALUE, bucket.nanosUntilAvailable(1));
+    }
+
+    @Test
+    void neverGrantsMoreThanItsCapacity()
+    {
+        TokenBucket bucket = new TokenBucket(3, 1_000_000_000);
+
+        assertFalse(bucket.tryAcquire(4));
+        assertEquals(3, bucket.available());
+        assertEquals(0, bucket.nanosUntilAvailable(3));
+    }
+
+    @Test
+    void startsWithTheTokensItIsGivenUpToItsCapacity()
+    {
+        assertEquals(2, new TokenBucket(5, 0, 2).available());
+        assertEquals(5, new TokenBucket(5, 0, 9).available());
+        assertEquals(0, new TokenBucket(5, 0, -1).available());
+        assertFalse(new TokenBucket(5, 0, 0.5).tryAcquire());
+    }
+
+    @Test
+    void refundsStopAtTheCapacity()
+    {
+        TokenBucket bucket = new TokenBucket(2, 0);
+
+        assertTrue(bucket.tryAcquire(2));
+        bucket.refund(1);
+        assertEquals(1, bucket.available());
+        bucket.refund(5);
+        assertEquals(2, bucket.available());
+    }
+
+    @Test
+    void capacityIsAtLeastOne()
+    {
+        TokenBucket bucket = new TokenBucket(0, 0);
+
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void refillsAtItsRate()
+    {
+        TokenBucket bucket = new TokenBucket(1, 10);
+
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.isFull());
+
+        long wait = bucket.nanosUntilAvailable(1);
+
+        assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(100), "waited " + wait);
+
+        long deadline = System.nanoTime() + wait;
+
+        while (System.nanoTime() - deadline < 0)
+        {
+            LockSupport.parkNanos(deadline - System.nanoTime());
+        }
+
+        assertEquals(0, bucket.nanosUntilAvailable(1));
+        assertTrue(bucket.tryAcquire());
+    }
+}